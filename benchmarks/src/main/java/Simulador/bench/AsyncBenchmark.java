@@ -0,0 +1,56 @@
+package Simulador.bench;
+
+import Simulador.AsyncFileSystem;
+import Simulador.FileSystemSimulator;
+import Simulador.Journal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * writeFile pela fachada assíncrona com até window operações em andamento; cada
+ * operação só termina com a entrada em disco (group commit com durabilidade em lote).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncBenchmark {
+    private static final int OPS = 1000;
+
+    @Param({"1", "64", "4096"})
+    int window;
+
+    private Path dir;
+    private FileSystemSimulator fs;
+    private AsyncFileSystem async;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        // durabilidade padrão (SYNC_BATCH): cada operação espera um force()
+        fs = Fixtures.open(dir, Fixtures.config("checkpoint").durability(Journal.Durability.SYNC_BATCH));
+        async = new AsyncFileSystem(fs, window);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        async.close();
+        fs.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void writeFile() {
+        CompletableFuture<?>[] all = new CompletableFuture<?>[OPS];
+        for (int i = 0; i < OPS; i++) all[i] = async.writeFile("/f" + (next++ % 10_000), "conteudo");
+        CompletableFuture.allOf(all).join();
+    }
+}
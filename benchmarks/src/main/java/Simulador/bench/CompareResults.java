@@ -0,0 +1,77 @@
+package Simulador.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compara dois resultados do JMH em CSV (-rf csv) de versões diferentes:
+ *
+ *   java -cp benchmarks.jar Simulador.bench.CompareResults antes.csv depois.csv
+ *
+ * Cada linha do resultado é um benchmark com seus parâmetros, os dois scores e a variação.
+ * Com tempo por operação (AverageTime, SingleShotTime) variação positiva é piora.
+ */
+public class CompareResults {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("uso: CompareResults antes.csv depois.csv");
+            System.exit(2);
+        }
+        Map<String, String[]> before = read(args[0]);
+        Map<String, String[]> after = read(args[1]);
+        System.out.println("benchmark,unidade,antes,depois,variacao_pct");
+        for (Map.Entry<String, String[]> e : after.entrySet()) {
+            String[] b = before.get(e.getKey());
+            double now = Double.parseDouble(e.getValue()[0]);
+            String old = b == null ? "" : b[0];
+            String change = b == null ? "" : String.format("%.1f", (now - Double.parseDouble(b[0])) / Double.parseDouble(b[0]) * 100);
+            System.out.println(e.getKey() + "," + e.getValue()[1] + "," + old + "," + e.getValue()[0] + "," + change);
+        }
+        for (String k : before.keySet()) {
+            if (!after.containsKey(k)) System.out.println(k + "," + before.get(k)[1] + "," + before.get(k)[0] + ",,");
+        }
+    }
+
+    // chave "Benchmark[modo](param=valor ...)" → {score, unidade}
+    private static Map<String, String[]> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, String[]> out = new LinkedHashMap<>();
+        if (lines.isEmpty()) return out;
+        List<String> header = fields(lines.get(0));
+        int bench = header.indexOf("Benchmark"), mode = header.indexOf("Mode");
+        int score = header.indexOf("Score"), unit = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) continue;
+            List<String> f = fields(line);
+            StringBuilder key = new StringBuilder(f.get(bench)).append('[').append(f.get(mode)).append("](");
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !f.get(i).isEmpty()) {
+                    key.append(header.get(i).substring(7)).append('=').append(f.get(i)).append(' ');
+                }
+            }
+            out.put(key.toString().trim() + ")", new String[] {f.get(score), f.get(unit)});
+        }
+        return out;
+    }
+
+    // campos de uma linha CSV, com ou sem aspas
+    private static List<String> fields(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) { out.add(cur.toString()); cur.setLength(0); }
+            else cur.append(c);
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
@@ -0,0 +1,96 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leitores concorrentes com escritores no meio: em cada grupo, N threads fazem readFile e
+ * N fazem ls sobre 1000 arquivos de 1 KB em 10 diretórios, enquanto 2 threads
+ * sobrescrevem arquivos do mesmo conjunto. Os grupos readersN variam N (1, 4 e 16); a
+ * vazão de read e ls por grupo mostra quanto a leitura otimista e as travas por nó
+ * escalam com mais leitores. Outras combinações saem com -tg (ex.: -tg 8,8,1).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentReadBenchmark {
+    private static final int FILES = 1000;
+    private static final int PER_DIR = 100;
+
+    private Path dir;
+    private FileSystemSimulator fs;
+    private String content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        fs = Fixtures.open(dir, Fixtures.config("checkpoint"));
+        Fixtures.populate(fs, FILES, PER_DIR, 1024);
+        content = Fixtures.text(1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Fixtures.delete(dir);
+    }
+
+    private static String file() {
+        int i = ThreadLocalRandom.current().nextInt(FILES);
+        return "/d" + i / PER_DIR + "/f" + i;
+    }
+
+    private String read() throws IOException {
+        return fs.readFile(file());
+    }
+
+    private List<String> list() throws IOException {
+        return fs.ls("/d" + ThreadLocalRandom.current().nextInt(FILES / PER_DIR));
+    }
+
+    private void write() throws IOException {
+        fs.writeFile(file(), content);
+    }
+
+    // ---- 1 leitor de cada tipo ----
+
+    @Benchmark @Group("readers1") @GroupThreads(1)
+    public String readers1Read() throws IOException { return read(); }
+
+    @Benchmark @Group("readers1") @GroupThreads(1)
+    public List<String> readers1Ls() throws IOException { return list(); }
+
+    @Benchmark @Group("readers1") @GroupThreads(2)
+    public void readers1Write() throws IOException { write(); }
+
+    // ---- 4 ----
+
+    @Benchmark @Group("readers4") @GroupThreads(4)
+    public String readers4Read() throws IOException { return read(); }
+
+    @Benchmark @Group("readers4") @GroupThreads(4)
+    public List<String> readers4Ls() throws IOException { return list(); }
+
+    @Benchmark @Group("readers4") @GroupThreads(2)
+    public void readers4Write() throws IOException { write(); }
+
+    // ---- 16 ----
+
+    @Benchmark @Group("readers16") @GroupThreads(16)
+    public String readers16Read() throws IOException { return read(); }
+
+    @Benchmark @Group("readers16") @GroupThreads(16)
+    public List<String> readers16Ls() throws IOException { return list(); }
+
+    @Benchmark @Group("readers16") @GroupThreads(2)
+    public void readers16Write() throws IOException { write(); }
+}
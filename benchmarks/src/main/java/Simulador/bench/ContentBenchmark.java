@@ -0,0 +1,53 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * writeFile (substituindo o conteúdo) e readFile de um arquivo de size bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentBenchmark {
+    @Param({"64", "4096", "65536", "1048576"})
+    int size;
+
+    @Param({"checkpoint", "legacy"})
+    String mode;
+
+    private Path dir;
+    private FileSystemSimulator fs;
+    private String content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        fs = Fixtures.open(dir, Fixtures.config(mode));
+        content = Fixtures.text(size);
+        fs.writeFile("/f", content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void writeFile() throws IOException {
+        fs.writeFile("/f", content);
+    }
+
+    @Benchmark
+    public String readFile() throws IOException {
+        return fs.readFile("/f");
+    }
+}
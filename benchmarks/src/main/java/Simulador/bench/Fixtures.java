@@ -0,0 +1,97 @@
+package Simulador.bench;
+
+import Simulador.CheckpointPolicy;
+import Simulador.FileSystemSimulator;
+import Simulador.FsConfig;
+import Simulador.Journal;
+import Simulador.Op;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Montagem dos cenários dos benchmarks: diretórios temporários, configurações e árvores
+ * povoadas em lotes (apply), para que o preparo não domine o tempo de cada rodada.
+ */
+final class Fixtures {
+    static final int BATCH = 1000;
+
+    private Fixtures() {}
+
+    static Path tempDir() throws IOException {
+        return Files.createTempDirectory("simulador-bench");
+    }
+
+    // "legacy": imagem regravada a cada operação; "checkpoint": só o journal, e o
+    // checkpointer nunca dispara sozinho (limites zerados)
+    static FsConfig config(String mode) {
+        FsConfig c = FsConfig.defaults().durability(Journal.Durability.OS_BUFFERED);
+        if (mode.equals("checkpoint")) c.checkpointPolicy(new CheckpointPolicy(0, 0, 0));
+        return c;
+    }
+
+    static FileSystemSimulator open(Path dir, FsConfig config) {
+        return new FileSystemSimulator(dir.resolve("fs.img").toString(), dir.resolve("fs.journal").toString(), config);
+    }
+
+    // Cadeia /l0/l1/... com depth níveis; cada nível tem fanout arquivos além do próximo
+    // diretório. Retorna o diretório mais fundo.
+    static String deepTree(FileSystemSimulator fs, int depth, int fanout) throws IOException {
+        List<Op> ops = new ArrayList<>();
+        String dir = "";
+        for (int d = 0; d < depth; d++) {
+            dir += "/l" + d;
+            ops.add(Op.mkdir(dir));
+            for (int i = 0; i < fanout; i++) ops.add(Op.touch(dir + "/f" + i));
+        }
+        applyInBatches(fs, ops);
+        return dir;
+    }
+
+    // files arquivos de size bytes, perDir por diretório (/d0, /d1, ...)
+    static void populate(FileSystemSimulator fs, int files, int perDir, int size) throws IOException {
+        String content = text(size);
+        List<Op> ops = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            if (i % perDir == 0) ops.add(Op.mkdir("/d" + i / perDir));
+            ops.add(Op.writeFile("/d" + i / perDir + "/f" + i, content));
+        }
+        applyInBatches(fs, ops);
+    }
+
+    static void applyInBatches(FileSystemSimulator fs, List<Op> ops) throws IOException {
+        for (int i = 0; i < ops.size(); i += BATCH) fs.apply(ops.subList(i, Math.min(ops.size(), i + BATCH)));
+    }
+
+    static String text(int size) {
+        char[] c = new char[size];
+        for (int i = 0; i < size; i++) c[i] = (char) ('a' + i % 26);
+        return new String(c);
+    }
+
+    // Substitui o conteúdo de to por uma cópia de from (imagem e segmentos do journal)
+    static void restore(Path from, Path to) throws IOException {
+        clear(to);
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.copy(p, to.resolve(p.getFileName()));
+        }
+    }
+
+    static void clear(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+        }
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> all = Files.walk(dir)) {
+            Path[] paths = all.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+            for (Path p : paths) Files.delete(p);
+        }
+    }
+}
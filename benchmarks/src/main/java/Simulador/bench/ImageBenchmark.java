@@ -0,0 +1,95 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.FsConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gravação da imagem (checkpoint depois de alterar um arquivo) e abertura de uma imagem
+ * com files arquivos, nos dois formatos. Na imagem nativa a abertura só lê a raiz.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+    static final int PER_DIR = 1000;
+    static final int SIZE = 256;
+
+    @State(Scope.Benchmark)
+    public static class Params {
+        @Param({"1000", "10000", "100000"})
+        int files;
+
+        @Param({"SERIALIZED", "NATIVE"})
+        FsConfig.ImageFormat format;
+
+        FsConfig config(String mode) {
+            return Fixtures.config(mode).imageFormat(format)
+                    .nativeImageCapacity(files * 2 + 1024, files * 2 + 65536);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Persist {
+        Path dir;
+        FileSystemSimulator fs;
+        long next;
+
+        @Setup(Level.Trial)
+        public void setUp(Params p) throws IOException {
+            dir = Fixtures.tempDir();
+            fs = Fixtures.open(dir, p.config("checkpoint"));
+            Fixtures.populate(fs, p.files, PER_DIR, SIZE);
+            fs.checkpoint();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            fs.close();
+            Fixtures.delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Load {
+        Path dir;
+        FsConfig config;
+
+        @Setup(Level.Trial)
+        public void setUp(Params p) throws IOException {
+            dir = Fixtures.tempDir();
+            config = p.config("legacy");
+            FileSystemSimulator fs = Fixtures.open(dir, p.config("checkpoint"));
+            Fixtures.populate(fs, p.files, PER_DIR, SIZE);
+            fs.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Fixtures.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public void persistImage(Persist s) throws IOException {
+        s.fs.writeFile("/d0/f0", "v" + s.next++);
+        s.fs.checkpoint();
+    }
+
+    @Benchmark
+    public List<String> loadImage(Load s) throws IOException {
+        FileSystemSimulator fs = Fixtures.open(s.dir, s.config);
+        try {
+            return fs.ls("/");
+        } finally {
+            fs.close();
+        }
+    }
+}
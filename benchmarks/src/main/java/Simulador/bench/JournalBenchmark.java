@@ -0,0 +1,54 @@
+package Simulador.bench;
+
+import Simulador.Journal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * appendPending + markCommit num journal que já tem existing entradas confirmadas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+    @Param({"0", "10000", "100000"})
+    int existing;
+
+    @Param({"OS_BUFFERED", "SYNC_BATCH"})
+    Journal.Durability durability;
+
+    private Path dir;
+    private Journal journal;
+    private final Map<String,String> params = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        journal = new Journal(dir.resolve("fs.journal").toString(), durability);
+        params.put("path", "/d/f");
+        for (int i = 0; i < existing; i++) journal.markCommit(journal.append("TOUCH", params).id);
+        journal.close();
+        // reabre para que a varredura inicial aconteça fora da medição
+        journal = new Journal(dir.resolve("fs.journal").toString(), durability);
+        journal.lastSeq();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void appendAndCommit() throws IOException {
+        journal.markCommit(journal.appendPending("TOUCH", params));
+    }
+}
@@ -0,0 +1,49 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.Op;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ls de um diretório com entries arquivos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LsBenchmark {
+    @Param({"100", "10000", "100000"})
+    int entries;
+
+    private Path dir;
+    private FileSystemSimulator fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        fs = Fixtures.open(dir, Fixtures.config("checkpoint"));
+        List<Op> ops = new ArrayList<>();
+        ops.add(Op.mkdir("/big"));
+        for (int i = 0; i < entries; i++) ops.add(Op.touch("/big/f" + i));
+        Fixtures.applyInBatches(fs, ops);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public List<String> ls() throws IOException {
+        return fs.ls("/big");
+    }
+}
@@ -0,0 +1,61 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.FsConfig;
+import Simulador.Op;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap ocupado por nó da árvore, com e sem FsConfig.compactNodes:
+ *
+ *   java -Xmx2g -cp benchmarks.jar Simulador.bench.NodeFootprint 500000
+ *
+ * Monta N arquivos vazios em diretórios de 100, metade com um nome único e metade com
+ * nomes repetidos em toda a árvore (README.md, index.js, ...), como numa árvore de
+ * código-fonte, e mede o heap depois de coletar o lixo antes e depois. Os arquivos não
+ * têm conteúdo, então o número inclui o índice de busca mas não os blocos.
+ */
+public class NodeFootprint {
+    private static final String[] COMMON = {"README.md", "index.js", "package.json", "Makefile", "main.c"};
+
+    public static void main(String[] args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        System.out.println("modo,nos,bytes_por_no");
+        for (boolean compact : new boolean[] {false, true}) {
+            long nodes = files + (files + 99) / 100;
+            double perNode = (double) measure(files, compact) / nodes;
+            System.out.printf("%s,%d,%.1f%n", compact ? "compacto" : "padrao", nodes, perNode);
+        }
+    }
+
+    private static long measure(int files, boolean compact) throws IOException {
+        Path dir = Fixtures.tempDir();
+        try {
+            long before = usedHeap();
+            FileSystemSimulator fs = Fixtures.open(dir, Fixtures.config("checkpoint").metrics(false).compactNodes(compact));
+            List<Op> ops = new ArrayList<>();
+            for (int i = 0; i < files; i++) {
+                if (i % 100 == 0) ops.add(Op.mkdir("/d" + i / 100));
+                String name = i % 2 == 0 ? "arquivo" + i + ".txt" : COMMON[i / 2 % COMMON.length] + "." + i / 10 % 10;
+                ops.add(Op.touch("/d" + i / 100 + "/" + name));
+            }
+            Fixtures.applyInBatches(fs, ops);
+            ops = null;
+            long used = usedHeap() - before;
+            fs.close();
+            return used;
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 4; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,93 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.FsConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leituras de 4 KB espalhadas por DATA_MB de conteúdo (imagem nativa) com o cache de
+ * páginas limitado a cacheMb (0: tudo em memória), em acesso uniforme ou concentrado em
+ * 10% dos arquivos. Os acertos e faltas do cache saem como contadores auxiliares.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx512m")
+public class PageCacheBenchmark {
+    static final int DATA_MB = 256;
+    static final int FILE_BYTES = 1 << 20;
+    static final int READ = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"0", "16", "64"})
+        int cacheMb;
+
+        @Param({"uniform", "hot"})
+        String pattern;
+
+        Path dir;
+        FileSystemSimulator fs;
+        SplittableRandom random;
+        int files;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Fixtures.tempDir();
+            files = DATA_MB * (1 << 20) / FILE_BYTES;
+            FsConfig c = Fixtures.config("checkpoint").imageFormat(FsConfig.ImageFormat.NATIVE)
+                    .nativeImageCapacity(files + 1024, 2 * DATA_MB * 256 + 65536)
+                    .pageCacheBytes((long) cacheMb << 20);
+            fs = Fixtures.open(dir, c);
+            byte[] chunk = Fixtures.text(FILE_BYTES).getBytes();
+            for (int i = 0; i < files; i++) {
+                fs.write("/f" + i, 0, chunk);
+                // o checkpoint da imagem nativa guarda as páginas alteradas até gravá-las
+                if (i % 32 == 31) fs.checkpoint();
+            }
+            fs.checkpoint();
+            random = new SplittableRandom(42);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            fs.close();
+            Fixtures.delete(dir);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long hits;
+        public long misses;
+        private long hits0, misses0;
+
+        @Setup(Level.Iteration)
+        public void start(Data d) {
+            Map<String, Long> g = d.fs.metrics().getGauges();
+            hits0 = g.getOrDefault("cache_acertos", 0L);
+            misses0 = g.getOrDefault("cache_faltas", 0L);
+        }
+
+        @TearDown(Level.Iteration)
+        public void stop(Data d) {
+            Map<String, Long> g = d.fs.metrics().getGauges();
+            hits = g.getOrDefault("cache_acertos", 0L) - hits0;
+            misses = g.getOrDefault("cache_faltas", 0L) - misses0;
+        }
+    }
+
+    @Benchmark
+    public byte[] read(Data d, Counters counters) throws IOException {
+        int f = d.random.nextInt(d.pattern.equals("hot") ? Math.max(1, d.files / 10) : d.files);
+        return d.fs.read("/f" + f, d.random.nextInt(FILE_BYTES / READ) * (long) READ, READ);
+    }
+}
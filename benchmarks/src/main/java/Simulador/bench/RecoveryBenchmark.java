@@ -0,0 +1,77 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.FsConfig;
+import Simulador.Journal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inicialização com pending entradas no journal posteriores à imagem: carrega a imagem,
+ * reaplica o sufixo e grava o checkpoint final. Cada medição parte de uma cópia intacta
+ * dos arquivos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RecoveryBenchmark {
+    @Param({"100", "1000", "10000"})
+    int pending;
+
+    @Param({"SERIALIZED", "NATIVE"})
+    FsConfig.ImageFormat format;
+
+    private Path template;
+    private Path work;
+    private FsConfig config;
+    private FileSystemSimulator fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        template = Fixtures.tempDir();
+        work = Fixtures.tempDir();
+        config = Fixtures.config("legacy").imageFormat(format);
+        FileSystemSimulator base = Fixtures.open(template, config);
+        base.mkdir("/r");
+        base.close();
+        // entradas gravadas e nunca aplicadas, como numa queda logo após o journal
+        Journal journal = new Journal(template.resolve("fs.journal").toString(), Journal.Durability.OS_BUFFERED);
+        Map<String,String> params = new HashMap<>();
+        for (int i = 0; i < pending; i++) {
+            params.put("path", "/r/f" + i);
+            params.put("content", "conteudo " + i);
+            journal.append("WRITE", params);
+        }
+        journal.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() throws IOException {
+        Fixtures.restore(template, work);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeRecovered() throws IOException {
+        fs.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(template);
+        Fixtures.delete(work);
+    }
+
+    @Benchmark
+    public FileSystemSimulator recover() {
+        fs = Fixtures.open(work, config);
+        return fs;
+    }
+}
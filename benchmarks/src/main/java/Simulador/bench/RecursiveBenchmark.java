@@ -0,0 +1,62 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.FindQuery;
+import Simulador.TreeTask;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * du, find e cp -r + rm -r sobre files arquivos com threads threads de fork/join; a
+ * razão entre os tempos com 1 e com N threads mostra a escalabilidade.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecursiveBenchmark {
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    @Param({"200000"})
+    int files;
+
+    private Path dir;
+    private FileSystemSimulator fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        fs = Fixtures.open(dir, Fixtures.config("checkpoint").treeParallelism(threads));
+        Fixtures.populate(fs, files, 100, 64);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public FileSystemSimulator.Usage du() throws IOException {
+        return fs.usage("/", new TreeTask());
+    }
+
+    @Benchmark
+    public List<String> find() throws IOException {
+        return fs.find("/", FindQuery.any().name("f*7").type(FindQuery.Type.FILE), new TreeTask());
+    }
+
+    @Benchmark
+    public void copyAndRemove() throws IOException {
+        // a cópia da raiz é montada antes de entrar nela, então não inclui a si mesma
+        fs.cp("/", "/copia", new TreeTask());
+        fs.rm("/copia", new TreeTask());
+    }
+}
@@ -0,0 +1,93 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import Simulador.FsClient;
+import Simulador.FsServer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Carga no FsServer: C clientes (uma conexão e uma thread cada), cada um com até W
+ * requisições em andamento, alternando writeFile e readFile em 100 arquivos próprios
+ * pela porcentagem de escritas dada, durante S segundos:
+ *
+ *   java -cp benchmarks.jar Simulador.bench.ServerLoad 200 32 10 50
+ *
+ * Imprime a vazão total e a de cada conexão (mínima, mediana e máxima) informada pelo
+ * servidor. Clientes e servidor rodam na mesma JVM, dividindo as CPUs.
+ */
+public class ServerLoad {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int writePct = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        Path dir = Fixtures.tempDir();
+        FileSystemSimulator fs = Fixtures.open(dir, Fixtures.config("checkpoint"));
+        FsServer server = new FsServer(fs, 0);
+        try {
+            List<FsClient> conns = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                FsClient c = new FsClient(server.port());
+                conns.add(c);
+                FsClient.await(c.mkdir("/c" + i));
+                for (int f = 0; f < 100; f++) c.writeFile("/c" + i + "/f" + f, "inicial");
+            }
+            LongAdder ops = new LongAdder();
+            LongAdder errors = new LongAdder();
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                FsClient c = conns.get(i);
+                String base = "/c" + i + "/f";
+                SplittableRandom random = new SplittableRandom(i);
+                Thread t = new Thread(() -> run(c, base, random, window, writePct, end, ops, errors), "carga-" + i);
+                threads.add(t);
+                t.start();
+            }
+            for (Thread t : threads) t.join();
+            List<Double> rates = new ArrayList<>();
+            for (FsServer.Stats s : server.connections()) rates.add(s.requestsPerSecond());
+            rates.sort(null);
+            System.out.printf(Locale.ROOT, "%d clientes, janela %d, %d%% escritas: %.0f ops/s, %d erros%n",
+                    clients, window, writePct, ops.sum() / (double) seconds, errors.sum());
+            if (!rates.isEmpty()) {
+                System.out.printf(Locale.ROOT, "por conexão: mín %.0f, mediana %.0f, máx %.0f req/s%n",
+                        rates.get(0), rates.get(rates.size() / 2), rates.get(rates.size() - 1));
+            }
+            for (FsClient c : conns) c.close();
+        } finally {
+            server.close();
+            fs.close();
+            Fixtures.delete(dir);
+        }
+    }
+
+    private static void run(FsClient c, String base, SplittableRandom random, int window, int writePct,
+                            long end, LongAdder ops, LongAdder errors) {
+        Semaphore slots = new Semaphore(window);
+        try {
+            for (int k = 0; System.nanoTime() < end; k++) {
+                slots.acquire();
+                String path = base + random.nextInt(100);
+                CompletableFuture<?> f = random.nextInt(100) < writePct ? c.writeFile(path, "conteudo " + k) : c.readFile(path);
+                f.whenComplete((v, ex) -> {
+                    if (ex != null) errors.increment();
+                    ops.increment();
+                    slots.release();
+                });
+            }
+            slots.acquire(window);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package Simulador.bench;
+
+import Simulador.FileSystemSimulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mkdir e touch no diretório mais fundo de uma cadeia de depth níveis com fanout
+ * entradas cada. A árvore é refeita a cada iteração, já que cada chamada cria um nó.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeBenchmark {
+    @Param({"1", "8", "32"})
+    int depth;
+
+    @Param({"10", "1000"})
+    int fanout;
+
+    @Param({"checkpoint", "legacy"})
+    String mode;
+
+    private Path dir;
+    private FileSystemSimulator fs;
+    private String parent;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir();
+        fs = Fixtures.open(dir, Fixtures.config(mode));
+        parent = Fixtures.deepTree(fs, depth, fanout);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        fs.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void mkdir() throws IOException {
+        fs.mkdir(parent + "/d" + next++);
+    }
+
+    @Benchmark
+    public void touch() throws IOException {
+        fs.touch(parent + "/t" + next++);
+    }
+}
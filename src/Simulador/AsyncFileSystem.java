@@ -0,0 +1,259 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+/**
+ * Fachada assíncrona do FileSystemSimulator: cada método devolve um CompletableFuture.
+ *
+ * A operação é aplicada em memória numa thread do executor (virtual, quando a JVM tem)
+ * e o futuro só completa quando a entrada dela no journal estiver em disco; o force()
+ * é feito pela thread do journal para todas as entradas gravadas até ali (group commit),
+ * sem uma thread parada por operação. Leituras completam assim que executadas.
+ *
+ * Operações sobre o mesmo caminho, ou sobre um caminho e outro abaixo dele (mkdir /a e
+ * touch /a/b, rm /a/b e rmdir /a), são aplicadas na ordem em que foram submetidas (mv e
+ * cp, na ordem dos dois caminhos); caminhos sem essa relação não têm ordem entre si. No
+ * máximo maxOutstanding operações ficam em andamento: acima disso, a submissão bloqueia
+ * quem chama até o journal alcançar. Quem não pode bloquear (a thread do Selector do
+ * FsServer) reserva a vaga antes com tryReserve() e, sem vaga, pede um aviso com
+ * whenAvailable().
+ */
+public class AsyncFileSystem implements Closeable {
+    public static final int DEFAULT_MAX_OUTSTANDING = 65_536;
+
+    private final FileSystemSimulator fs;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxOutstanding;
+    // última operação submetida em cada caminho; completa quando ela foi aplicada. Ordenado
+    // para achar as pendentes abaixo de um diretório por faixa de chaves
+    private final TreeMap<String, CompletableFuture<Void>> tails = new TreeMap<>();
+    // vaga reservada por tryReserve() para a próxima submissão da thread
+    private final ThreadLocal<boolean[]> reserved = ThreadLocal.withInitial(() -> new boolean[1]);
+    // avisos pedidos por whenAvailable(), chamados quando uma vaga é devolvida
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    interface Task<T> { T run() throws IOException; }
+
+    public AsyncFileSystem(FileSystemSimulator fs) {
+        this(fs, DEFAULT_MAX_OUTSTANDING);
+    }
+
+    public AsyncFileSystem(FileSystemSimulator fs, int maxOutstanding) {
+        if (maxOutstanding <= 0) throw new IllegalArgumentException("Limite inválido: " + maxOutstanding);
+        this.fs = fs;
+        this.maxOutstanding = maxOutstanding;
+        this.permits = new Semaphore(maxOutstanding);
+        this.executor = newExecutor();
+    }
+
+    // Uma virtual thread por operação (Java 21+); antes disso, um pool de threads comuns
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "fs-async");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // Operações em andamento (submetidas e ainda não duráveis)
+    public int outstanding() { return maxOutstanding - permits.availablePermits(); }
+
+    // Reserva, sem bloquear, a vaga da próxima operação submetida por esta thread; false
+    // no limite. Uma reserva não usada é devolvida por cancelReservation()
+    boolean tryReserve() {
+        if (!permits.tryAcquire()) return false;
+        reserved.get()[0] = true;
+        return true;
+    }
+
+    // Devolve a reserva desta thread, se nenhuma submissão a usou
+    void cancelReservation() {
+        boolean[] r = reserved.get();
+        if (!r[0]) return;
+        r[0] = false;
+        release();
+    }
+
+    // Chama r uma vez, em qualquer thread, quando houver vaga (já, se houver agora)
+    void whenAvailable(Runnable r) {
+        waiting.add(r);
+        if (permits.availablePermits() > 0) notifyWaiting();
+    }
+
+    private void release() {
+        permits.release();
+        if (!waiting.isEmpty()) notifyWaiting();
+    }
+
+    private void notifyWaiting() {
+        for (Runnable r; (r = waiting.poll()) != null; ) r.run();
+    }
+
+    public CompletableFuture<Void> apply(Op op) {
+        return submit(keys(op), () -> fs.applyDeferred(op), true, executor).thenApply(seq -> null);
+    }
+
+    // Lote tudo-ou-nada (FileSystemSimulator.apply(List)), ordenado em todos os caminhos dele
+    public CompletableFuture<Void> apply(List<Op> ops) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Op op : ops) keys.addAll(keys(op));
+        List<Op> copy = new ArrayList<>(ops);
+        return submit(new ArrayList<>(keys), () -> fs.applyDeferred(copy), true, executor).thenApply(seq -> null);
+    }
+
+    public CompletableFuture<Void> mkdir(String path) { return apply(Op.mkdir(path)); }
+    public CompletableFuture<Void> rmdir(String path) { return apply(Op.rmdir(path)); }
+    public CompletableFuture<Void> touch(String path) { return apply(Op.touch(path)); }
+    public CompletableFuture<Void> writeFile(String path, String content) { return apply(Op.writeFile(path, content)); }
+    public CompletableFuture<Void> write(String path, long offset, byte[] data) { return apply(Op.write(path, offset, data)); }
+    public CompletableFuture<Void> truncate(String path, long size) { return apply(Op.truncate(path, size)); }
+    public CompletableFuture<Void> rm(String path) { return apply(Op.rm(path)); }
+    public CompletableFuture<Void> mv(String src, String dst) { return apply(Op.mv(src, dst)); }
+    public CompletableFuture<Void> cp(String src, String dst) { return apply(Op.cp(src, dst)); }
+
+    public CompletableFuture<String> readFile(String path) {
+        return submit(List.of(FileSystemSimulator.normalize(path)), () -> fs.readFile(path), false, executor);
+    }
+
+    public CompletableFuture<byte[]> read(String path, long offset, int len) {
+        return submit(List.of(FileSystemSimulator.normalize(path)), () -> fs.read(path, offset, len), false, executor);
+    }
+
+    public CompletableFuture<List<String>> ls(String path) {
+        return submit(List.of(FileSystemSimulator.normalize(path)), () -> fs.ls(path), false, executor);
+    }
+
+    // Operação sem entrada própria no journal (find, du, snapshot...) na ordem dos caminhos
+    // dados; as que gravam no journal esperam o disco dentro da própria tarefa
+    <T> CompletableFuture<T> call(List<String> paths, Task<T> task) {
+        return call(paths, executor, task);
+    }
+
+    // O mesmo, executando a tarefa em pool (operações longas que não devem ocupar o executor)
+    <T> CompletableFuture<T> call(List<String> paths, Executor pool, Task<T> task) {
+        List<String> keys = new ArrayList<>(paths.size());
+        for (String p : paths) keys.add(FileSystemSimulator.normalize(p));
+        return submit(keys, task, false, pool);
+    }
+
+    // Encadeia a tarefa depois das anteriores nos mesmos caminhos. Com durable, o valor
+    // da tarefa é o seq da entrada no journal e o futuro espera o force() dela.
+    private <T> CompletableFuture<T> submit(List<String> keys, Task<T> task, boolean durable, Executor pool) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new IllegalStateException("AsyncFileSystem encerrado"));
+            return result;
+        }
+        boolean[] r = reserved.get();
+        if (r[0]) {
+            r[0] = false;
+        } else {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+                return result;
+            }
+        }
+        CompletableFuture<Void> applied = new CompletableFuture<>();
+        Set<CompletableFuture<Void>> before = new LinkedHashSet<>();
+        // registro atômico em todos os caminhos: duas operações de dois caminhos não
+        // podem ficar uma esperando a outra
+        synchronized (tails) {
+            for (String k : keys) {
+                // o caminho, os diretórios acima dele e o que estiver pendente abaixo
+                for (String a = k; a != null; a = parent(a)) {
+                    CompletableFuture<Void> prev = tails.get(a);
+                    if (prev != null) before.add(prev);
+                }
+                String prefix = k.equals("/") ? "/" : k + "/";
+                String end = prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1);
+                before.addAll(tails.subMap(prefix, true, end, false).values());
+            }
+            // só depois das consultas: mv /a /a/b não espera por si mesmo
+            for (String k : keys) tails.put(k, applied);
+        }
+        CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+            T value;
+            try {
+                value = task.run();
+            } catch (IOException | RuntimeException e) {
+                finish(keys, applied);
+                release();
+                result.completeExceptionally(e);
+                return;
+            }
+            finish(keys, applied);
+            CompletableFuture<Void> disk = durable ? fs.durable((Long) value) : CompletableFuture.completedFuture(null);
+            disk.whenComplete((v, ex) -> {
+                release();
+                if (ex != null) result.completeExceptionally(ex);
+                else result.complete(value);
+            });
+        }, pool).exceptionally(ex -> {
+            // pool encerrado
+            finish(keys, applied);
+            release();
+            result.completeExceptionally(ex);
+            return null;
+        });
+        return result;
+    }
+
+    // Libera a próxima operação de cada caminho e esquece os caminhos sem fila
+    private void finish(List<String> keys, CompletableFuture<Void> applied) {
+        synchronized (tails) {
+            for (String k : keys) tails.remove(k, applied);
+        }
+        applied.complete(null);
+    }
+
+    // Diretório acima de um caminho normalizado; null para a raiz
+    private static String parent(String path) {
+        if (path.equals("/")) return null;
+        int i = path.lastIndexOf('/');
+        return i == 0 ? "/" : path.substring(0, i);
+    }
+
+    private static List<String> keys(Op op) {
+        List<String> keys = new ArrayList<>(2);
+        for (String k : new String[] {"path", "src", "dst"}) {
+            String p = op.params.get(k);
+            if (p != null) keys.add(FileSystemSimulator.normalize(p));
+        }
+        if (op.type.equals("BATCH")) {
+            for (Op inner : Journal.decodeBatch(op.data)) keys.addAll(keys(inner));
+        }
+        return keys;
+    }
+
+    // Espera as operações em andamento e encerra o executor; o FileSystemSimulator continua
+    // aberto e é fechado por quem o criou
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            permits.acquire(maxOutstanding);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompido esperando as operações em andamento", e);
+        }
+        executor.shutdown();
+    }
+}
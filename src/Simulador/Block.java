@@ -0,0 +1,177 @@
+package Simulador;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Bloco de conteúdo de FileNode.BLOCK_SIZE bytes, que pode ser compartilhado por vários
+ * arquivos (cp, deduplicação). Um bloco só é alterado no lugar por quem é o seu único
+ * dono; os demais copiam antes de escrever (copy-on-write).
+ *
+ * Com o cache de páginas (PageCache), data pode ser null: o conteúdo está no spill e é
+ * lido de volta em content()/pin(). Quem escreve usa pin()/unpin(true).
+ */
+class Block implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final AtomicIntegerFieldUpdater<Block> REFS = AtomicIntegerFieldUpdater.newUpdater(Block.class, "refs");
+    private static final AtomicIntegerFieldUpdater<Block> PINS = AtomicIntegerFieldUpdater.newUpdater(Block.class, "pins");
+
+    transient volatile ByteBuffer data;
+    // referências de arquivos a este bloco (int com updater: há um Block por 4 KB de conteúdo)
+    private transient volatile int refs;
+    // registrado no BlockStore: conteúdo imutável, é a chave do mapa
+    transient volatile boolean sealed;
+    // hash do conteúdo, calculado ao registrar (o conteúdo não muda depois)
+    transient int hash;
+    // bloco ainda não lido da imagem nativa: data é carregado no primeiro content()
+    private transient volatile NativeImage source;
+    private transient long diskBlock;
+    transient boolean offHeap;
+
+    // ---- estado no cache de páginas (null: sempre em memória) ----
+    transient PageCache cache;
+    // quadro ocupado e posição no spill (-1: nenhum); alterados com a trava do cache
+    transient int frame = -1;
+    transient int slot = -1;
+    // alterado desde a última gravação no spill
+    transient boolean dirty;
+    // usado desde a última passada do relógio
+    transient volatile boolean referenced;
+    // solto (sem referências): não volta ao cache
+    transient boolean dead;
+    // fixações em andamento; -1 enquanto o cache o despeja
+    private transient volatile int pins;
+
+    Block(boolean offHeap) {
+        this.offHeap = offHeap;
+        data = allocate(offHeap);
+        refs = 1;
+    }
+
+    Block(NativeImage source, long diskBlock, boolean offHeap) {
+        this.source = source;
+        this.diskBlock = diskBlock;
+        this.offHeap = offHeap;
+        refs = 1;
+    }
+
+    static ByteBuffer allocate(boolean offHeap) {
+        return offHeap ? ByteBuffer.allocateDirect(FileNode.BLOCK_SIZE) : ByteBuffer.allocate(FileNode.BLOCK_SIZE);
+    }
+
+    // Precisa ser copiado antes de uma escrita
+    boolean shared() { return sealed || refs > 1; }
+
+    Block copy(boolean offHeap) {
+        Block c = new Block(offHeap);
+        c.data.put(content());
+        c.data.clear();
+        return c;
+    }
+
+    // Visão do bloco inteiro, independente de posição/limite de quem o usa. No cache de
+    // páginas, o bloco pode ser despejado logo depois; a visão continua legível, mas
+    // escrever nela só com o bloco fixado (pin)
+    ByteBuffer content() {
+        if (cache != null) {
+            ByteBuffer b = pin();
+            unpin(false);
+            return b;
+        }
+        if (source != null) load();
+        return view(data);
+    }
+
+    private static ByteBuffer view(ByteBuffer d) {
+        ByteBuffer b = d.duplicate();
+        b.clear();
+        return b;
+    }
+
+    // Visão do bloco que não é despejado até o unpin()
+    ByteBuffer pin() {
+        PageCache c = cache;
+        if (c == null) return content();
+        while (true) {
+            int p = pins;
+            if (p >= 0 && PINS.compareAndSet(this, p, p + 1)) break;
+            Thread.onSpinWait();
+        }
+        ByteBuffer d = data;
+        if (d != null) c.hit();
+        else d = c.fault(this);
+        referenced = true;
+        return view(d);
+    }
+
+    // written: o conteúdo mudou e precisa ser regravado no spill antes de um despejo
+    void unpin(boolean written) {
+        if (cache == null) return;
+        if (written) dirty = true;
+        PINS.decrementAndGet(this);
+    }
+
+    boolean tryLockForEviction() { return PINS.compareAndSet(this, 0, -1); }
+    void unlockForEviction() { pins = 0; }
+
+    void retain() { REFS.incrementAndGet(this); }
+
+    // Solta uma referência; true se era a última
+    boolean drop() { return REFS.decrementAndGet(this) == 0; }
+
+    // Solta uma referência; com a última, o bloco sai do cache de páginas
+    void unref() {
+        if (drop()) released();
+    }
+
+    void released() {
+        if (cache != null) cache.drop(this);
+    }
+
+    synchronized ByteBuffer load() {
+        NativeImage image = source;
+        if (image == null) return data;
+        ByteBuffer b = allocate(offHeap);
+        try {
+            image.readBlock(diskBlock, b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        b.clear();
+        data = b;
+        source = null;
+        return b;
+    }
+
+    // Formato: byte de flags (bit 0: direto; bit 1: só o prefixo até o último byte não nulo,
+    // precedido do tamanho). Versões anteriores gravavam um boolean e o bloco inteiro.
+    private static final int DIRECT = 1, TRIMMED = 2;
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ByteBuffer b = content();
+        int used = FileNode.BLOCK_SIZE;
+        while (used > 0 && b.get(used - 1) == 0) used--;
+        out.writeByte((offHeap ? DIRECT : 0) | TRIMMED);
+        out.writeShort(used);
+        byte[] bytes = new byte[used];
+        b.get(bytes);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        int used = (flags & TRIMMED) != 0 ? in.readUnsignedShort() : FileNode.BLOCK_SIZE;
+        byte[] bytes = new byte[used];
+        in.readFully(bytes);
+        offHeap = (flags & DIRECT) != 0;
+        ByteBuffer b = allocate(offHeap);
+        b.put(bytes);
+        b.clear();
+        data = b;
+        frame = -1;
+        slot = -1;
+        // cada FileNode desserializado conta a sua referência
+        refs = 0;
+    }
+}
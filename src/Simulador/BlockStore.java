@@ -0,0 +1,86 @@
+package Simulador;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Blocos de conteúdo indexados pelo próprio conteúdo (hash + comparação byte a byte),
+ * para que corpos de arquivo idênticos fiquem armazenados uma única vez. Um bloco
+ * registrado fica imutável e sai do mapa quando a última referência é solta.
+ *
+ * Com um cache de páginas (FsConfig.pageCacheBytes), os blocos dos arquivos ligados a
+ * este BlockStore passam por ele; a chave do mapa guarda só o hash e o bloco, então um
+ * bloco registrado também pode ser despejado.
+ */
+class BlockStore {
+    private final Map<Key, Block> byContent = new HashMap<>();
+    private final PageCache cache;
+
+    BlockStore() {
+        this(null);
+    }
+
+    BlockStore(PageCache cache) {
+        this.cache = cache;
+    }
+
+    PageCache cache() { return cache; }
+
+    // Chave pelo conteúdo do bloco; equals lê os dois blocos (do spill, se despejados)
+    private static final class Key {
+        final Block block;
+        final int hash;
+
+        Key(Block block, int hash) {
+            this.block = block;
+            this.hash = hash;
+        }
+
+        @Override public int hashCode() { return hash; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return k.block == block || (k.hash == hash && k.block.content().equals(block.content()));
+        }
+    }
+
+    // Passa a gerenciar b no cache de páginas, se houver
+    void admit(Block b) {
+        if (cache != null && b.cache == null) cache.admit(b);
+    }
+
+    // Retorna um bloco igual já registrado (com uma referência a mais) ou registra b
+    synchronized Block intern(Block b) {
+        if (b.sealed) return b;
+        Key key = new Key(b, b.content().hashCode());
+        Block existing = byContent.get(key);
+        if (existing != null) {
+            existing.retain();
+            return existing;
+        }
+        b.hash = key.hash;
+        b.sealed = true;
+        byContent.put(key, b);
+        return b;
+    }
+
+    // Solta uma referência; blocos registrados são removidos sob a trava para não
+    // competir com um intern() que esteja reaproveitando o mesmo bloco
+    void release(Block b) {
+        if (!b.sealed) {
+            b.unref();
+            return;
+        }
+        synchronized (this) {
+            if (b.drop()) {
+                byContent.remove(new Key(b, b.hash));
+                b.released();
+            }
+        }
+    }
+
+    // Quantidade de blocos distintos registrados
+    synchronized int size() { return byContent.size(); }
+}
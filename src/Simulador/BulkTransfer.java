@@ -0,0 +1,237 @@
+package Simulador;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Importação e exportação de árvores entre o disco do host e o simulador.
+ *
+ * Importar: Files.walkFileTree enumera a árvore do host e os arquivos são lidos em
+ * paralelo por FileChannel; os resultados entram, na ordem do percurso, em lotes de até
+ * BATCH_BYTES (ou BATCH_FILES arquivos), cada um aplicado como uma entrada BATCH do
+ * journal (FileSystemSimulator.apply(List)). Cancelada, a importação para no fim do
+ * lote atual; os lotes já aplicados ficam.
+ *
+ * Exportar: lê uma versão fixa da árvore (pin) e grava cada arquivo com um write
+ * gather dos próprios blocos dele (diretos fora do heap), sem montar o conteúdo.
+ */
+public final class BulkTransfer {
+    static final long BATCH_BYTES = 8L << 20;
+    static final int BATCH_FILES = 1024;
+    // leituras em andamento à frente do lote sendo montado
+    private static final int WINDOW = 64;
+
+    private BulkTransfer() {}
+
+    // Totais de uma transferência
+    public static class Report {
+        public long files;
+        public long dirs;
+        public long bytes;
+        public long nanos;
+
+        public double mbPerSecond() { return nanos == 0 ? 0 : bytes / 1e6 / (nanos / 1e9); }
+        public double filesPerSecond() { return nanos == 0 ? 0 : files / (nanos / 1e9); }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d arquivos, %d diretórios, %.1f MB em %.2f s (%.1f MB/s, %.0f arquivos/s)",
+                    files, dirs, bytes / 1e6, nanos / 1e9, mbPerSecond(), filesPerSecond());
+        }
+    }
+
+    static Report importTree(FileSystemSimulator fs, Path hostDir, String fsPath, int threads, TreeTask task) throws IOException {
+        if (!Files.isDirectory(hostDir)) throw new IOException("Não é diretório: " + hostDir);
+        String base = FileSystemSimulator.normalize(fsPath);
+        Report r = new Report();
+        long start = System.nanoTime();
+        ExecutorService readers = pool(threads, "fs-import");
+        // diretórios (conteúdo null) e leituras de arquivo, na ordem do percurso
+        Deque<Map.Entry<String, Future<byte[]>>> window = new ArrayDeque<>();
+        List<Op> ops = new ArrayList<>();
+        long[] pending = new long[1];
+        try {
+            Files.walkFileTree(hostDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    String p = target(base, hostDir, dir);
+                    window.add(new AbstractMap.SimpleEntry<>(p, null));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    // links simbólicos e arquivos especiais ficam de fora
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                    if (attrs.size() > Integer.MAX_VALUE - 8) throw new IOException("Arquivo grande demais: " + file);
+                    window.add(new AbstractMap.SimpleEntry<>(target(base, hostDir, file), readers.submit(() -> read(file))));
+                    while (window.size() > WINDOW) drain(fs, window.poll(), ops, pending, r, task);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            while (!window.isEmpty()) drain(fs, window.poll(), ops, pending, r, task);
+            flush(fs, ops, pending);
+        } catch (CancellationException e) {
+            for (Map.Entry<String, Future<byte[]>> w : window) if (w.getValue() != null) w.getValue().cancel(true);
+            flush(fs, ops, pending);
+            throw e;
+        } finally {
+            readers.shutdownNow();
+        }
+        r.nanos = System.nanoTime() - start;
+        return r;
+    }
+
+    // Caminho no simulador do arquivo do host
+    private static String target(String base, Path hostDir, Path p) {
+        StringBuilder sb = new StringBuilder(base);
+        for (Path part : hostDir.relativize(p)) {
+            if (part.toString().isEmpty()) continue;
+            if (sb.length() > 1) sb.append('/');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] read(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {
+                // o arquivo pode encolher durante a leitura
+            }
+            return buf.position() == buf.capacity() ? buf.array() : Arrays.copyOf(buf.array(), buf.position());
+        }
+    }
+
+    // Põe o próximo item do percurso no lote, aplicando o lote quando ele enche
+    private static void drain(FileSystemSimulator fs, Map.Entry<String, Future<byte[]>> item, List<Op> ops,
+                              long[] pending, Report r, TreeTask task) throws IOException {
+        task.checkCancelled();
+        String path = item.getKey();
+        if (item.getValue() == null) {
+            // mkdir de um diretório que já existe abortaria o lote inteiro
+            FsNode n = fs.node(path);
+            if (n != null && !n.isDirectory()) throw new IOException("Já existe e não é diretório: " + path);
+            if (n == null) ops.add(Op.mkdir(path));
+            r.dirs++;
+        } else {
+            byte[] data;
+            try {
+                data = item.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Importação interrompida", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            // WRITE_AT cria o arquivo; o TRUNCATE corta o que sobrar de um conteúdo anterior
+            ops.add(Op.write(path, 0, data));
+            ops.add(Op.truncate(path, data.length));
+            pending[0] += data.length;
+            r.files++;
+            r.bytes += data.length;
+        }
+        task.visit(1);
+        if (pending[0] >= BATCH_BYTES || ops.size() >= 2 * BATCH_FILES) flush(fs, ops, pending);
+    }
+
+    private static void flush(FileSystemSimulator fs, List<Op> ops, long[] pending) throws IOException {
+        if (ops.isEmpty()) return;
+        fs.apply(ops);
+        ops.clear();
+        pending[0] = 0;
+    }
+
+    static Report exportTree(FileSystemSimulator fs, String fsPath, Path hostDir, int threads, TreeTask task) throws IOException {
+        Report r = new Report();
+        long start = System.nanoTime();
+        ExecutorService writers = pool(threads, "fs-export");
+        List<Future<?>> writes = new ArrayList<>();
+        try (Snapshot view = fs.view()) {
+            FsNode n = view.lookup(fsPath);
+            if (n == null) throw new IOException("Caminho inválido");
+            if (!n.isDirectory()) {
+                Files.createDirectories(hostDir);
+                String key = FileSystemSimulator.normalize(fsPath);
+                export(view, n, hostDir.resolve(key.substring(key.lastIndexOf('/') + 1)), r, task);
+            } else {
+                exportDir(view, n, hostDir, writers, writes, r, task);
+                for (Future<?> w : writes) w.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Exportação interrompida", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof UncheckedIOException) throw ((UncheckedIOException) c).getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        } finally {
+            writers.shutdownNow();
+        }
+        r.nanos = System.nanoTime() - start;
+        return r;
+    }
+
+    // Cria os diretórios no percurso e entrega os arquivos às threads de gravação
+    private static void exportDir(Snapshot view, FsNode dir, Path host, ExecutorService writers,
+                                  List<Future<?>> writes, Report r, TreeTask task) throws IOException {
+        task.checkCancelled();
+        Files.createDirectories(host);
+        r.dirs++;
+        task.visit(1);
+        for (Map.Entry<String, FsNode> c : view.children(dir).entrySet()) {
+            Path p = host.resolve(c.getKey());
+            FsNode n = c.getValue();
+            if (n.isDirectory()) {
+                exportDir(view, n, p, writers, writes, r, task);
+            } else {
+                writes.add(writers.submit(() -> {
+                    try {
+                        export(view, n, p, r, task);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+        }
+    }
+
+    // Grava o arquivo a partir de uma cópia copy-on-write: escritas concorrentes na
+    // árvore viva vão para blocos novos e não mudam o que está sendo gravado
+    private static void export(Snapshot view, FsNode n, Path host, Report r, TreeTask task) throws IOException {
+        task.checkCancelled();
+        FileNode copy = view.read(n, s -> {
+            FileNode f = new FileNode(s.getName(), ((FileNode) s).isOffHeap());
+            f.copyFrom((FileNode) s);
+            return f;
+        });
+        try (FileChannel ch = FileChannel.open(host, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] bufs = copy.buffers();
+            long total = copy.size();
+            for (long done = 0; done < total; ) done += ch.write(bufs);
+            synchronized (r) {
+                r.files++;
+                r.bytes += total;
+            }
+        } finally {
+            copy.release();
+        }
+        task.visit(1);
+    }
+
+    private static ExecutorService pool(int threads, String name) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), run -> {
+            Thread t = new Thread(run, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package Simulador;
+
+/**
+ * Define quando o checkpointer deve regravar a imagem (fs.img).
+ * Um limite menor ou igual a zero desativa aquele gatilho.
+ */
+public class CheckpointPolicy {
+    private final long maxOps;
+    private final long maxBytes;
+    private final long intervalMillis;
+
+    public CheckpointPolicy(long maxOps, long maxBytes, long intervalMillis) {
+        this.maxOps = maxOps;
+        this.maxBytes = maxBytes;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public static CheckpointPolicy defaults() {
+        return new CheckpointPolicy(10_000, 64L * 1024 * 1024, 30_000);
+    }
+
+    public long getMaxOps() { return maxOps; }
+    public long getMaxBytes() { return maxBytes; }
+    public long getIntervalMillis() { return intervalMillis; }
+
+    // Verifica se as operações acumuladas desde o último checkpoint exigem um novo
+    public boolean isDue(long ops, long bytes, long elapsedMillis) {
+        if (ops == 0) return false;
+        if (maxOps > 0 && ops >= maxOps) return true;
+        if (maxBytes > 0 && bytes >= maxBytes) return true;
+        return intervalMillis > 0 && elapsedMillis >= intervalMillis;
+    }
+}
@@ -0,0 +1,89 @@
+package Simulador;
+
+/**
+ * Thread de fundo que regrava a imagem quando a política de checkpoint
+ * é atingida. Entre checkpoints o journal é o registro durável das operações.
+ */
+public class Checkpointer implements Runnable {
+    // espera mínima e máxima entre tentativas depois de uma falha
+    private static final long RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60_000;
+
+    private final FileSystemSimulator fs;
+    private final CheckpointPolicy policy;
+    private final Thread thread;
+    private long ops;
+    private long bytes;
+    private long lastCheckpoint = System.currentTimeMillis();
+    private boolean running = true;
+    // após falhas seguidas: próxima tentativa não antes de retryAt
+    private long retryAt;
+    private long backoff;
+
+    public Checkpointer(FileSystemSimulator fs, CheckpointPolicy policy) {
+        this.fs = fs;
+        this.policy = policy;
+        this.thread = new Thread(this, "fs-checkpointer");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() { thread.start(); }
+
+    // Contabiliza uma operação aplicada em memória e ainda não gravada na imagem
+    public synchronized void record(long opBytes) {
+        ops++;
+        bytes += opBytes;
+        if (policy.isDue(ops, bytes, System.currentTimeMillis() - lastCheckpoint)) notifyAll();
+    }
+
+    // Zera os contadores após um checkpoint (automático ou manual)
+    public synchronized void reset() {
+        ops = 0;
+        bytes = 0;
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    public synchronized long pendingOps() { return ops; }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                long now;
+                while (running && ((now = System.currentTimeMillis()) < retryAt
+                        || !policy.isDue(ops, bytes, now - lastCheckpoint))) {
+                    long wait = policy.getIntervalMillis() > 0 ? policy.getIntervalMillis() : 1000;
+                    if (now < retryAt) wait = Math.min(wait, retryAt - now);
+                    try { wait(wait); } catch (InterruptedException e) { return; }
+                }
+                if (!running) return;
+            }
+            try {
+                fs.checkpoint();
+                synchronized (this) { backoff = 0; retryAt = 0; }
+            } catch (Exception e) {
+                if (fs.imageFailed()) {
+                    // cada nova tentativa falharia igual; o journal segue guardando as operações
+                    System.err.println("Checkpoint falhou: " + e.getMessage() + "; checkpoints automáticos suspensos");
+                    return;
+                }
+                synchronized (this) {
+                    // espera ao menos o intervalo (ou 1 s), dobrando a cada falha seguida
+                    backoff = backoff == 0 ? Math.max(policy.getIntervalMillis(), RETRY_MILLIS)
+                            : Math.min(backoff * 2, Math.max(MAX_RETRY_MILLIS, policy.getIntervalMillis()));
+                    retryAt = System.currentTimeMillis() + backoff;
+                    System.err.println("Checkpoint falhou: " + e.getMessage() + "; nova tentativa em " + backoff + " ms");
+                }
+            }
+        }
+    }
+
+    // Encerra a thread; o checkpoint final fica a cargo de quem chama
+    public void stop() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try { thread.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+}
@@ -0,0 +1,220 @@
+package Simulador;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Filhos de um diretório grande em ordem de nome: uma B+tree de dois níveis, com as
+ * entradas em folhas de até LEAF nomes (vetores ordenados de nomes e nós) e a busca
+ * binária feita sobre o primeiro nome de cada folha. Cada filho custa só os dois
+ * ponteiros nos vetores, contra um objeto de entrada por filho no LinkedHashMap.
+ *
+ * get/put/remove custam O(log n); page() devolve uma página a partir de um nome em
+ * O(log n + página), sem percorrer nem copiar o resto do diretório.
+ */
+class ChildIndex extends AbstractMap<String, FsNode> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF = 128;
+
+    private static final class Leaf {
+        final String[] keys = new String[LEAF];
+        final FsNode[] vals = new FsNode[LEAF];
+        int n;
+    }
+
+    // folhas nunca vazias, em ordem
+    private transient ArrayList<Leaf> leaves = new ArrayList<>();
+    private transient int size;
+
+    ChildIndex(Map<String, FsNode> from) {
+        for (Map.Entry<String, FsNode> e : from.entrySet()) put(e.getKey(), e.getValue());
+    }
+
+    // Folha que contém (ou conteria) key: a última cujo primeiro nome é <= key
+    private int leafFor(String key) {
+        int lo = 0, hi = leaves.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (leaves.get(mid).keys[0].compareTo(key) <= 0) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public FsNode get(Object key) {
+        if (size == 0 || !(key instanceof String)) return null;
+        Leaf l = leaves.get(leafFor((String) key));
+        int i = Arrays.binarySearch(l.keys, 0, l.n, key);
+        return i >= 0 ? l.vals[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) { return get(key) != null; }
+
+    @Override
+    public FsNode put(String key, FsNode value) {
+        if (size == 0) {
+            Leaf l = new Leaf();
+            l.keys[0] = key;
+            l.vals[0] = value;
+            l.n = 1;
+            leaves.add(l);
+            size = 1;
+            return null;
+        }
+        int li = leafFor(key);
+        Leaf l = leaves.get(li);
+        int i = Arrays.binarySearch(l.keys, 0, l.n, key);
+        if (i >= 0) {
+            FsNode old = l.vals[i];
+            l.vals[i] = value;
+            return old;
+        }
+        i = -i - 1;
+        if (l.n == LEAF) {
+            // divide ao meio; a metade de cima vira a folha seguinte
+            Leaf r = new Leaf();
+            int half = LEAF / 2;
+            System.arraycopy(l.keys, half, r.keys, 0, LEAF - half);
+            System.arraycopy(l.vals, half, r.vals, 0, LEAF - half);
+            Arrays.fill(l.keys, half, LEAF, null);
+            Arrays.fill(l.vals, half, LEAF, null);
+            r.n = LEAF - half;
+            l.n = half;
+            leaves.add(li + 1, r);
+            if (i > half) {
+                l = r;
+                i -= half;
+            }
+        }
+        System.arraycopy(l.keys, i, l.keys, i + 1, l.n - i);
+        System.arraycopy(l.vals, i, l.vals, i + 1, l.n - i);
+        l.keys[i] = key;
+        l.vals[i] = value;
+        l.n++;
+        size++;
+        return null;
+    }
+
+    @Override
+    public FsNode remove(Object key) {
+        if (size == 0 || !(key instanceof String)) return null;
+        int li = leafFor((String) key);
+        Leaf l = leaves.get(li);
+        int i = Arrays.binarySearch(l.keys, 0, l.n, key);
+        if (i < 0) return null;
+        FsNode old = l.vals[i];
+        System.arraycopy(l.keys, i + 1, l.keys, i, l.n - i - 1);
+        System.arraycopy(l.vals, i + 1, l.vals, i, l.n - i - 1);
+        l.n--;
+        l.keys[l.n] = null;
+        l.vals[l.n] = null;
+        if (l.n == 0) leaves.remove(li);
+        size--;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        leaves.clear();
+        size = 0;
+    }
+
+    // Até limit nomes maiores que after (null = do início) e, com prefix, só os que
+    // começam com ele; esses formam um trecho contíguo da ordem, então a busca começa
+    // no prefixo e para no primeiro nome fora dele
+    List<String> page(String after, int limit, String prefix) {
+        List<String> out = new ArrayList<>(Math.min(limit, size));
+        if (size == 0 || limit <= 0) return out;
+        String from = after;
+        boolean inclusive = false;
+        if (prefix != null && (from == null || from.compareTo(prefix) < 0)) {
+            from = prefix;
+            inclusive = true;
+        }
+        int li = 0, i = 0;
+        if (from != null) {
+            li = leafFor(from);
+            Leaf l = leaves.get(li);
+            i = Arrays.binarySearch(l.keys, 0, l.n, from);
+            i = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+        }
+        for (; li < leaves.size(); li++, i = 0) {
+            Leaf l = leaves.get(li);
+            for (; i < l.n; i++) {
+                if (prefix != null && !l.keys[i].startsWith(prefix)) return out;
+                out.add(l.keys[i]);
+                if (out.size() == limit) return out;
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public Set<Map.Entry<String, FsNode>> entrySet() {
+        return new AbstractSet<Map.Entry<String, FsNode>>() {
+            @Override
+            public int size() { return size; }
+
+            @Override
+            public Iterator<Map.Entry<String, FsNode>> iterator() {
+                return new Iterator<Map.Entry<String, FsNode>>() {
+                    private int li, i;
+
+                    @Override
+                    public boolean hasNext() { return li < leaves.size(); }
+
+                    @Override
+                    public Map.Entry<String, FsNode> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        Leaf l = leaves.get(li);
+                        Map.Entry<String, FsNode> e = new SimpleImmutableEntry<>(l.keys[i], l.vals[i]);
+                        if (++i == l.n) {
+                            li++;
+                            i = 0;
+                        }
+                        return e;
+                    }
+                };
+            }
+        };
+    }
+
+    // Grava só os pares, em ordem; a leitura enche as folhas em sequência
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (Leaf l : leaves) {
+            for (int i = 0; i < l.n; i++) {
+                out.writeObject(l.keys[i]);
+                out.writeObject(l.vals[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        leaves = new ArrayList<>();
+        int n = in.readInt();
+        // folhas 3/4 cheias, com espaço para inserções sem dividir
+        int fill = LEAF * 3 / 4;
+        Leaf l = null;
+        for (int k = 0; k < n; k++) {
+            if (l == null || l.n == fill) {
+                l = new Leaf();
+                leaves.add(l);
+            }
+            l.keys[l.n] = (String) in.readObject();
+            l.vals[l.n] = (FsNode) in.readObject();
+            l.n++;
+        }
+        size = n;
+    }
+}
@@ -0,0 +1,234 @@
+package Simulador;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Filhos de um diretório no modo compacto (FsConfig.compactNodes), na ordem de criação:
+ * dois vetores paralelos de nomes e nós, sem um objeto de entrada por filho. Até LINEAR
+ * filhos a busca compara os hashes (guardados no próprio String) em sequência; acima
+ * disso, um vetor de int com hash aberto (posição + 1, 0 = livre) aponta para os vetores.
+ *
+ * remove() deixa um buraco (null) no lugar; os buracos são fechados quando os vetores
+ * enchem, antes de crescer. Cerca de 16 bytes por filho, contra uns 45 no LinkedHashMap.
+ */
+class ChildTable extends AbstractMap<String, FsNode> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int LINEAR = 8;
+
+    private transient String[] keys = new String[2];
+    private transient FsNode[] vals = new FsNode[2];
+    // posições usadas nos vetores (com buracos) e filhos de fato
+    private transient int used;
+    private transient int size;
+    private transient int[] slots;
+
+    ChildTable() {}
+
+    ChildTable(Map<String, FsNode> from) {
+        for (Map.Entry<String, FsNode> e : from.entrySet()) put(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public int size() { return size; }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) return -1;
+        int h = key.hashCode();
+        // vetores lidos uma vez: um leitor otimista não vê a troca no meio da busca
+        String[] k = keys;
+        int[] s = slots;
+        if (s == null) {
+            for (int i = 0; i < Math.min(used, k.length); i++) {
+                String c = k[i];
+                if (c != null && c.hashCode() == h && c.equals(key)) return i;
+            }
+            return -1;
+        }
+        int mask = s.length - 1;
+        for (int p = mix(h) & mask; s[p] != 0; p = (p + 1) & mask) {
+            String c = k[s[p] - 1];
+            if (c != null && c.hashCode() == h && c.equals(key)) return s[p] - 1;
+        }
+        return -1;
+    }
+
+    private static int mix(int h) { return h ^ (h >>> 16); }
+
+    @Override
+    public FsNode get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? vals[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) { return indexOf(key) >= 0; }
+
+    @Override
+    public FsNode put(String key, FsNode value) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            FsNode old = vals[i];
+            vals[i] = value;
+            return old;
+        }
+        if (used == keys.length) {
+            if (size < used * 3 / 4) compactArrays();
+            else grow();
+        }
+        keys[used] = key;
+        vals[used] = value;
+        used++;
+        size++;
+        if (slots != null) {
+            if (used * 2 > slots.length) rehash();
+            else insertSlot(used - 1);
+        } else if (used > LINEAR) {
+            rehash();
+        }
+        return null;
+    }
+
+    private void grow() {
+        int n = keys.length + (keys.length >> 1) + 1;
+        keys = Arrays.copyOf(keys, n);
+        vals = Arrays.copyOf(vals, n);
+    }
+
+    // Fecha os buracos, mantendo a ordem
+    private void compactArrays() {
+        String[] k = new String[keys.length];
+        FsNode[] v = new FsNode[vals.length];
+        int j = 0;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == null) continue;
+            k[j] = keys[i];
+            v[j++] = vals[i];
+        }
+        keys = k;
+        vals = v;
+        used = j;
+        if (slots != null) rehash();
+    }
+
+    private void rehash() {
+        if (used <= LINEAR) {
+            slots = null;
+            return;
+        }
+        int cap = Integer.highestOneBit(used * 4 - 1);
+        int[] s = new int[Math.max(16, cap)];
+        int mask = s.length - 1;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == null) continue;
+            int p = mix(keys[i].hashCode()) & mask;
+            while (s[p] != 0) p = (p + 1) & mask;
+            s[p] = i + 1;
+        }
+        slots = s;
+    }
+
+    private void insertSlot(int i) {
+        int mask = slots.length - 1;
+        int p = mix(keys[i].hashCode()) & mask;
+        while (slots[p] != 0) p = (p + 1) & mask;
+        slots[p] = i + 1;
+    }
+
+    @Override
+    public FsNode remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) return null;
+        FsNode old = vals[i];
+        if (slots != null) removeSlot(i);
+        keys[i] = null;
+        vals[i] = null;
+        size--;
+        // o último: a posição volta a ser usada sem esperar a compactação
+        while (used > 0 && keys[used - 1] == null) used--;
+        return old;
+    }
+
+    // Tira a posição i do hash aberto, puxando para trás as que vinham depois dela
+    private void removeSlot(int i) {
+        int mask = slots.length - 1;
+        int p = mix(keys[i].hashCode()) & mask;
+        while (slots[p] != i + 1) p = (p + 1) & mask;
+        slots[p] = 0;
+        for (int q = (p + 1) & mask; slots[q] != 0; q = (q + 1) & mask) {
+            int home = mix(keys[slots[q] - 1].hashCode()) & mask;
+            // fica onde está se a posição de origem estiver entre o buraco e ela
+            if (p <= q ? (p < home && home <= q) : (p < home || home <= q)) continue;
+            slots[p] = slots[q];
+            slots[q] = 0;
+            p = q;
+        }
+    }
+
+    @Override
+    public void clear() {
+        keys = new String[2];
+        vals = new FsNode[2];
+        used = 0;
+        size = 0;
+        slots = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, FsNode>> entrySet() {
+        return new AbstractSet<Map.Entry<String, FsNode>>() {
+            @Override
+            public int size() { return size; }
+
+            @Override
+            public Iterator<Map.Entry<String, FsNode>> iterator() {
+                return new Iterator<Map.Entry<String, FsNode>>() {
+                    private int i = skip(0);
+
+                    private int skip(int from) {
+                        while (from < used && keys[from] == null) from++;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() { return i < used; }
+
+                    @Override
+                    public Map.Entry<String, FsNode> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        Map.Entry<String, FsNode> e = new SimpleImmutableEntry<>(keys[i], vals[i]);
+                        i = skip(i + 1);
+                        return e;
+                    }
+                };
+            }
+        };
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == null) continue;
+            out.writeObject(keys[i]);
+            out.writeObject(vals[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        keys = new String[Math.max(2, n)];
+        vals = new FsNode[Math.max(2, n)];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (String) in.readObject();
+            vals[i] = (FsNode) in.readObject();
+        }
+        used = n;
+        size = n;
+        rehash();
+    }
+}
@@ -0,0 +1,119 @@
+package Simulador;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache limitado caminho → nó (dentry cache), com entradas negativas para caminhos
+ * inexistentes. As chaves são caminhos normalizados ("/a/b").
+ *
+ * O mapa é dividido em faixas, cada uma um LinkedHashMap em ordem de acesso (LRU) com
+ * sua própria trava, para que leitores concorrentes não disputem um único monitor.
+ *
+ * Quem altera a árvore invalida as chaves afetadas depois de alterá-la, ainda com as
+ * travas do nó. Quem preenche o cache anota generation() antes de percorrer a árvore e
+ * put() descarta o resultado se houve invalidação no meio: assim um percurso feito sobre
+ * a árvore antiga nunca é gravado depois da invalidação que o tornaria obsoleto.
+ */
+public class DentryCache {
+    public static final int DEFAULT_CAPACITY = 16_384;
+    // valor das entradas negativas
+    static final Object ABSENT = new Object();
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final int capacity;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Stripe extends LinkedHashMap<String, Object> {
+        private static final long serialVersionUID = 1L;
+        private final int max;
+
+        Stripe(int max) {
+            super(16, 0.75f, true);
+            this.max = max;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > max;
+        }
+    }
+
+    // capacity <= 0 desativa o cache
+    public DentryCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.stripes = new Stripe[this.capacity == 0 ? 0 : STRIPES];
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe(Math.max(1, this.capacity / STRIPES));
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    // Nó em cache, ABSENT para entrada negativa ou null se o caminho não está no cache
+    Object get(String key) {
+        if (stripes.length == 0) return null;
+        Stripe s = stripe(key);
+        Object v;
+        synchronized (s) { v = s.get(key); }
+        if (v == null) misses.increment();
+        else hits.increment();
+        return v;
+    }
+
+    long generation() { return generation.get(); }
+
+    // Guarda o resultado de um percurso (node null = inexistente), a menos que alguma
+    // invalidação tenha ocorrido depois de gen
+    void put(String key, FsNode node, long gen) {
+        if (stripes.length == 0) return;
+        Stripe s = stripe(key);
+        synchronized (s) {
+            if (generation.get() == gen) s.put(key, node == null ? ABSENT : node);
+        }
+    }
+
+    // Remove a chave e, com subtree, todas as que estão abaixo dela
+    void invalidate(String key, boolean subtree) {
+        generation.incrementAndGet();
+        if (stripes.length == 0) return;
+        if (!subtree) {
+            Stripe s = stripe(key);
+            synchronized (s) { s.remove(key); }
+            return;
+        }
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                if (key.equals("/")) { s.clear(); continue; }
+                Iterator<String> it = s.keySet().iterator();
+                while (it.hasNext()) {
+                    String k = it.next();
+                    if (k.equals(key) || isUnder(k, key)) it.remove();
+                }
+            }
+        }
+    }
+
+    // path está estritamente abaixo de dir (ambos normalizados)
+    static boolean isUnder(String path, String dir) {
+        if (dir.equals("/")) return path.length() > 1;
+        return path.length() > dir.length() && path.startsWith(dir) && path.charAt(dir.length()) == '/';
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public int capacity() { return capacity; }
+
+    public int size() {
+        int n = 0;
+        for (Stripe s : stripes) synchronized (s) { n += s.size(); }
+        return n;
+    }
+}
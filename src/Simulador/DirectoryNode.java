@@ -1,12 +1,32 @@
 package Simulador;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.LinkedHashMap;
 
 public class DirectoryNode extends FsNode implements Serializable {
     private static final long serialVersionUID = 1L;
-    private Map<String, FsNode> children = new LinkedHashMap<>();
+    // com FsConfig.sortedDirectories, acima deste número de filhos o diretório passa para
+    // o índice ordenado (ChildIndex); sem a opção a listagem segue sempre a ordem de criação
+    static final int SORTED_THRESHOLD = 1024;
+    // null até o primeiro filho: numa árvore grande boa parte dos diretórios fica vazia
+    private Map<String, FsNode> children;
+    // modo compacto (FsConfig.compactNodes): filhos numa ChildTable e nomes compartilhados
+    // (String.intern); passado aos subdiretórios quando entram nele
+    transient boolean compact;
+    // listagem em ordem de nome e índice ordenado nos diretórios grandes
+    // (FsConfig.sortedDirectories); passado aos subdiretórios como compact
+    transient boolean sorted;
+    // imagem nativa de onde os filhos ainda serão lidos (no primeiro acesso), ou null
+    private transient volatile NativeImage pending;
+    // inodes dos filhos como estão gravados na imagem nativa
+    transient int[] diskChildren;
 
     public DirectoryNode(String name) {
         super(name);
@@ -15,17 +35,144 @@ public class DirectoryNode extends FsNode implements Serializable {
     @Override
     public boolean isDirectory() { return true; }
 
-    public Map<String, FsNode> getChildren() { return children; }
+    public Map<String, FsNode> getChildren() {
+        load();
+        Map<String, FsNode> c = children;
+        return c != null ? c : Collections.emptyMap();
+    }
 
-    public FsNode get(String name) { return children.get(name); }
+    public FsNode get(String name) { return getChildren().get(name); }
     public void add(String name, FsNode node) {
+        load();
+        if (children == null) children = compact ? new ChildTable() : new LinkedHashMap<>();
+        if (compact) {
+            name = share(name, node);
+            if (node.isDirectory()) ((DirectoryNode) node).compact();
+        }
+        if (sorted && node.isDirectory()) ((DirectoryNode) node).sorted();
         children.put(name, node);
+        if (sorted && children.size() > SORTED_THRESHOLD) index();
         touch();
     }
     public FsNode remove(String name) {
-        FsNode r = children.remove(name);
+        load();
+        FsNode r = children == null ? null : children.remove(name);
         if (r != null) touch();
         return r;
     }
-    public boolean isEmpty() { return children.isEmpty(); }
+    public boolean isEmpty() { return getChildren().isEmpty(); }
+
+    // Nome compartilhado com os outros nós de mesmo nome, também no próprio nó
+    private static String share(String name, FsNode node) {
+        String s = name.intern();
+        if (s.equals(node.name)) node.name = s;
+        return s;
+    }
+
+    // Passa este diretório e os subdiretórios já carregados para o modo compacto
+    void compact() {
+        if (compact) return;
+        compact = true;
+        if (pending != null || children == null) return;
+        Map<String, FsNode> m = new ChildTable();
+        for (Map.Entry<String, FsNode> e : children.entrySet()) {
+            FsNode c = e.getValue();
+            m.put(share(e.getKey(), c), c);
+            if (c.isDirectory()) ((DirectoryNode) c).compact();
+        }
+        children = sorted && m.size() > SORTED_THRESHOLD ? new ChildIndex(m) : m;
+    }
+
+    // Passa este diretório e os subdiretórios já carregados para a ordem de nome
+    void sorted() {
+        if (sorted) return;
+        sorted = true;
+        if (pending != null || children == null) return;
+        for (FsNode c : children.values()) if (c.isDirectory()) ((DirectoryNode) c).sorted();
+        if (children.size() > SORTED_THRESHOLD) index();
+    }
+
+    // Nomes dos filhos na ordem da listagem: de criação ou, com sorted, de nome
+    public List<String> names() {
+        Map<String, FsNode> all = getChildren();
+        List<String> names = new ArrayList<>(all.keySet());
+        if (sorted && !(all instanceof ChildIndex)) Collections.sort(names);
+        return names;
+    }
+
+    // Até limit nomes maiores que after (null = do início), em ordem de nome e, com
+    // prefix, só os que começam com ele. No índice ordenado custa O(log n + limit);
+    // nos diretórios pequenos, ordena os nomes que passam no filtro
+    public List<String> list(String after, int limit, String prefix) {
+        Map<String, FsNode> all = getChildren();
+        if (all instanceof ChildIndex) return ((ChildIndex) all).page(after, limit, prefix);
+        List<String> names = new ArrayList<>();
+        for (String k : all.keySet()) {
+            if ((after == null || k.compareTo(after) > 0) && (prefix == null || k.startsWith(prefix))) names.add(k);
+        }
+        Collections.sort(names);
+        return names.size() > limit ? new ArrayList<>(names.subList(0, Math.max(limit, 0))) : names;
+    }
+
+    boolean isIndexed() { load(); return children instanceof ChildIndex; }
+
+    // Cópia para um snapshot: os mesmos filhos (nome → nó) num mapa próprio
+    DirectoryNode snapshotCopy() {
+        DirectoryNode c = new DirectoryNode(name);
+        Map<String, FsNode> all = getChildren();
+        c.compact = compact;
+        c.sorted = sorted;
+        c.children = all instanceof ChildIndex ? new ChildIndex(all)
+                : all.isEmpty() ? null : compact ? new ChildTable(all) : new LinkedHashMap<>(all);
+        c.createdAt = createdAt;
+        c.modifiedAt = modifiedAt;
+        c.snapEpoch = snapEpoch;
+        c.bornEpoch = bornEpoch;
+        return c;
+    }
+
+    private void index() {
+        if (!(children instanceof ChildIndex)) children = new ChildIndex(children);
+    }
+
+    // Marca o diretório para ser lido da imagem nativa no primeiro acesso
+    void loadLazily(NativeImage image) { pending = image; }
+
+    boolean isLoaded() { return pending == null; }
+
+    private void load() {
+        if (pending == null) return;
+        synchronized (this) {
+            NativeImage image = pending;
+            if (image == null) return;
+            try {
+                Map<String, FsNode> read = new LinkedHashMap<>();
+                image.readChildren(this, read);
+                if (!read.isEmpty()) children = read;
+                if (compact) {
+                    // os subdiretórios ainda não lidos ficam marcados e convertem na leitura
+                    compact = false;
+                    for (FsNode c : read.values()) if (c.isDirectory()) ((DirectoryNode) c).compact = true;
+                    pending = null;
+                    compact();
+                }
+                if (sorted) {
+                    // idem: os subdiretórios lidos só recebem a marca
+                    pending = null;
+                    sorted = false;
+                    sorted();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pending = null;
+        }
+    }
+
+    // O índice ordenado não volta da imagem: FsConfig.sortedDirectories decide na abertura
+    // (imagens antigas, em que ele ligava sozinho, voltam em ordem de nome no mapa comum)
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (children instanceof ChildIndex) children = new LinkedHashMap<>(children);
+    }
 }
@@ -1,26 +1,339 @@
 package Simulador;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * Arquivo com conteúdo em blocos de tamanho fixo (BLOCK_SIZE bytes), no heap ou fora
+ * dele (ByteBuffer direto). Leituras e escritas por intervalo tocam só os blocos
+ * envolvidos; read()/write(String) continuam disponíveis para texto UTF-8.
+ *
+ * Os blocos são compartilhados copy-on-write: copyFrom() só copia as referências, e um
+ * bloco compartilhado (ou registrado no BlockStore) é copiado na primeira escrita.
+ * write(String) registra os blocos novos no BlockStore, deduplicando conteúdo idêntico.
+ *
+ * Vindo da imagem nativa, o arquivo conhece só o tamanho até o primeiro acesso ao
+ * conteúdo; aí lê os ponteiros de bloco, e cada bloco é lido quando for usado.
+ *
+ * Com o cache de páginas (PageCache), um bloco pode estar no spill; read e write fixam
+ * (pin) cada bloco enquanto copiam o trecho dele.
+ */
 public class FileNode extends FsNode implements Serializable {
     private static final long serialVersionUID = 1L;
-    private StringBuilder content = new StringBuilder();
+    public static final int BLOCK_SIZE = 4096;
+
+    // "content" é o campo das versões antigas (StringBuilder); só é lido, nunca gravado.
+    // Sem "blocks", o conteúdo vem em bytes crus depois dos campos (formato anterior ao cow).
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("content", StringBuilder.class),
+        new ObjectStreamField("size", long.class),
+        new ObjectStreamField("offHeap", boolean.class),
+        new ObjectStreamField("blocks", Block[].class)
+    };
+
+    // lista vazia compartilhada até o primeiro bloco (arquivos vazios são comuns)
+    private static final List<Block> NO_BLOCKS = Collections.emptyList();
+    private transient List<Block> blocks = NO_BLOCKS;
+    private long size;
+    private boolean offHeap;
+    private transient BlockStore store;
+    // imagem nativa de onde os ponteiros de bloco ainda serão lidos, ou null
+    private transient volatile NativeImage pending;
+    // blocos na imagem nativa, por índice, e índices alterados desde o último checkpoint
+    transient int[] diskBlocks;
+    private transient BitSet dirtyBlocks;
 
     public FileNode(String name) {
+        this(name, false);
+    }
+
+    public FileNode(String name, boolean offHeap) {
         super(name);
+        this.offHeap = offHeap;
     }
 
     @Override
     public boolean isDirectory() { return false; }
 
-    public String read() { return content.toString(); }
-    public void write(String data) {
-        content.setLength(0);
-        content.append(data);
+    public long size() { return size; }
+
+    // Lê até len bytes a partir de offset; retorna quantos foram lidos (-1 no fim do arquivo)
+    public int read(long offset, byte[] dst, int off, int len) {
+        if (offset >= size) return -1;
+        loadContent();
+        int n = (int) Math.min(len, size - offset);
+        int done = 0;
+        while (done < n) {
+            long pos = offset + done;
+            Block blk = blocks.get((int) (pos / BLOCK_SIZE));
+            int inBlock = (int) (pos % BLOCK_SIZE);
+            int chunk = Math.min(n - done, BLOCK_SIZE - inBlock);
+            ByteBuffer b = blk.pin();
+            try {
+                b.position(inBlock);
+                b.get(dst, off + done, chunk);
+            } finally {
+                blk.unpin(false);
+            }
+            done += chunk;
+        }
+        return n;
+    }
+
+    // Grava len bytes em offset, estendendo o arquivo (com zeros) se preciso
+    public void write(long offset, byte[] src, int off, int len) {
+        writeRaw(offset, src, off, len);
         touch();
     }
-    public void append(String data) {
-        content.append(data);
+
+    private void writeRaw(long offset, byte[] src, int off, int len) {
+        loadContent();
+        long end = offset + len;
+        ensureBlocks(end);
+        int done = 0;
+        while (done < len) {
+            long pos = offset + done;
+            Block blk = writable((int) (pos / BLOCK_SIZE));
+            int inBlock = (int) (pos % BLOCK_SIZE);
+            int chunk = Math.min(len - done, BLOCK_SIZE - inBlock);
+            ByteBuffer b = blk.pin();
+            try {
+                b.position(inBlock);
+                b.put(src, off + done, chunk);
+            } finally {
+                blk.unpin(true);
+            }
+            done += chunk;
+        }
+        if (end > size) size = end;
+    }
+
+    // Bloco i pronto para escrita (com pin): se outro arquivo também o usa, troca por uma cópia
+    private Block writable(int i) {
+        markDirty(i);
+        Block b = blocks.get(i);
+        if (b.shared()) {
+            Block c = b.copy(offHeap);
+            if (store != null) store.admit(c);
+            blocks.set(i, c);
+            release(b);
+            b = c;
+        }
+        return b;
+    }
+
+    private void release(Block b) {
+        if (store != null) store.release(b);
+        else b.unref();
+    }
+
+    // Solta todos os blocos (arquivo removido ou conteúdo substituído)
+    void release() {
+        loadContent();
+        for (Block b : blocks) release(b);
+        blocks = NO_BLOCKS;
+        size = 0;
+    }
+
+    // Passa a usar o BlockStore e registra nele os blocos atuais (e no cache de páginas)
+    void attach(BlockStore store) {
+        this.store = store;
+        intern();
+        if (pending == null) for (Block b : blocks) store.admit(b);
+    }
+
+    private void intern() {
+        if (store == null || pending != null) return;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block b = blocks.get(i);
+            Block canonical = store.intern(b);
+            if (canonical != b) {
+                blocks.set(i, canonical);
+                release(b);
+            }
+        }
+    }
+
+    // Cópia da lista de blocos (para medir o espaço físico)
+    List<Block> blocks() {
+        loadContent();
+        return new ArrayList<>(blocks);
+    }
+
+    private void markDirty(int i) {
+        if (dirtyBlocks == null) dirtyBlocks = new BitSet();
+        dirtyBlocks.set(i);
+    }
+
+    // Índices de bloco alterados desde o último checkpoint da imagem nativa (ou null)
+    BitSet dirtyBlocks() { return dirtyBlocks; }
+    void clearDirtyBlocks() { dirtyBlocks = null; }
+
+    boolean isOffHeap() { return offHeap; }
+
+    // Marca o arquivo para ler o conteúdo da imagem nativa no primeiro acesso
+    void loadLazily(NativeImage image, long size) {
+        this.size = size;
+        this.pending = image;
+    }
+
+    boolean isContentLoaded() { return pending == null; }
+
+    private void loadContent() {
+        if (pending == null) return;
+        synchronized (this) {
+            NativeImage image = pending;
+            if (image == null) return;
+            int[] ptrs;
+            try {
+                ptrs = image.readBlockPointers(inode);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            List<Block> loaded = new ArrayList<>(ptrs.length);
+            for (int p : ptrs) {
+                Block b = new Block(image, p, offHeap);
+                if (store != null) store.admit(b);
+                loaded.add(b);
+            }
+            blocks = loaded;
+            diskBlocks = ptrs;
+            pending = null;
+        }
+    }
+
+    // Ajusta o tamanho; ao encolher, libera os blocos excedentes e zera o resto do último
+    public void truncate(long newSize) {
+        loadContent();
+        if (newSize < size) {
+            int keep = (int) ((newSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            while (blocks.size() > keep) release(blocks.remove(blocks.size() - 1));
+            int tail = (int) (newSize % BLOCK_SIZE);
+            if (tail != 0) {
+                Block blk = writable(keep - 1);
+                ByteBuffer b = blk.pin();
+                try {
+                    b.position(tail);
+                    while (b.hasRemaining()) b.put((byte) 0);
+                } finally {
+                    blk.unpin(true);
+                }
+            }
+        } else {
+            ensureBlocks(newSize);
+        }
+        size = newSize;
+        touch();
+    }
+
+    private void ensureBlocks(long end) {
+        long needed = (end + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blocks.size() < needed && blocks == NO_BLOCKS) blocks = new ArrayList<>((int) Math.min(needed, 1 << 16));
+        while (blocks.size() < needed) {
+            markDirty(blocks.size());
+            Block b = new Block(offHeap);
+            if (store != null) store.admit(b);
+            blocks.add(b);
+        }
+    }
+
+    // O conteúdo como visões dos próprios blocos (o último cortado no tamanho), para um
+    // write gather sem cópia; quem chama garante que o arquivo não muda enquanto isso
+    ByteBuffer[] buffers() {
+        loadContent();
+        int n = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        ByteBuffer[] out = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            ByteBuffer b = blocks.get(i).content();
+            b.limit((int) Math.min(BLOCK_SIZE, size - (long) i * BLOCK_SIZE));
+            out[i] = b;
+        }
+        return out;
+    }
+
+    public byte[] readBytes() {
+        byte[] out = new byte[(int) size];
+        read(0, out, 0, out.length);
+        return out;
+    }
+
+    // Substitui o conteúdo pelo de outro arquivo compartilhando os blocos (copy-on-write)
+    public void copyFrom(FileNode other) {
+        release();
+        other.loadContent();
+        if (store == null) store = other.store;
+        for (Block b : other.blocks) b.retain();
+        blocks = other.blocks.isEmpty() ? NO_BLOCKS : new ArrayList<>(other.blocks);
+        for (int i = 0; i < blocks.size(); i++) markDirty(i);
+        size = other.size;
         touch();
     }
+
+    // Cópia rasa para a imagem serializada: os mesmos blocos, sem retain() (a cópia nunca
+    // é alterada nem solta); chamada dentro da leitura otimista do arquivo
+    FileNode imageCopy() {
+        FileNode c = new FileNode(name, offHeap);
+        c.createdAt = createdAt;
+        c.modifiedAt = modifiedAt;
+        c.snapEpoch = snapEpoch;
+        c.bornEpoch = bornEpoch;
+        c.size = size;
+        c.blocks = blocks.isEmpty() ? NO_BLOCKS : new ArrayList<>(blocks);
+        return c;
+    }
+
+    public String read() { return new String(readBytes(), StandardCharsets.UTF_8); }
+    public void write(String data) {
+        release();
+        byte[] b = data.getBytes(StandardCharsets.UTF_8);
+        write(0, b, 0, b.length);
+        intern();
+    }
+    public void append(String data) {
+        byte[] b = data.getBytes(StandardCharsets.UTF_8);
+        write(size, b, 0, b.length);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        loadContent();
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("content", null);
+        f.put("size", size);
+        f.put("offHeap", offHeap);
+        // blocos compartilhados são gravados uma vez só no stream da imagem
+        f.put("blocks", blocks.toArray(new Block[0]));
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        blocks = NO_BLOCKS;
+        offHeap = f.get("offHeap", false);
+        Block[] shared = (Block[]) f.get("blocks", null);
+        if (shared != null) {
+            size = f.get("size", 0L);
+            for (Block b : shared) b.retain();
+            if (shared.length > 0) blocks = new ArrayList<>(Arrays.asList(shared));
+            return;
+        }
+        StringBuilder legacy = (StringBuilder) f.get("content", null);
+        if (legacy != null) {
+            byte[] b = legacy.toString().getBytes(StandardCharsets.UTF_8);
+            writeRaw(0, b, 0, b.length);
+            return;
+        }
+        long total = f.get("size", 0L);
+        byte[] buf = new byte[BLOCK_SIZE];
+        for (long pos = 0; pos < total; pos += BLOCK_SIZE) {
+            int n = (int) Math.min(BLOCK_SIZE, total - pos);
+            in.readFully(buf, 0, n);
+            writeRaw(pos, buf, 0, n);
+        }
+    }
 }
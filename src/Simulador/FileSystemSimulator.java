@@ -1,7 +1,20 @@
 package Simulador;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 public class FileSystemSimulator implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -9,18 +22,168 @@ public class FileSystemSimulator implements Serializable {
     private transient Journal journal;
     private String imagePath;
     private String journalPath;
+    // id da última entrada do journal cujo efeito já está na imagem
+    private String checkpointId;
+    private transient Checkpointer checkpointer;
+    private transient Object checkpointLock;
+    private transient Journal.Durability durability;
+    private transient long segmentBytes;
+    // escritores entram em modo leitura; o checkpoint entra em escrita para ter uma foto consistente
+    private transient ReentrantReadWriteLock gate;
+    // maior seq do journal já coberto pela imagem gravada
+    private transient volatile long imageSeq;
+    // conteúdo dos arquivos novos fora do heap (FsConfig.offHeapContent)
+    private transient boolean offHeap;
+    // caminho normalizado → nó; invalidado pelos doX que alteram a estrutura
+    private transient DentryCache dentries;
+    // blocos de conteúdo deduplicados, compartilhados entre arquivos
+    private transient BlockStore blockStore;
+    // limite de blocos em memória (FsConfig.pageCacheBytes), ou null
+    private transient PageCache pageCache;
+    // imagem em formato nativo (FsConfig.ImageFormat.NATIVE), ou null para a serializada
+    private transient NativeImage nativeImage;
+    // lote em aplicação (com o gate em escrita ou na recuperação), ou null; ver applyBatch
+    private transient Batch batch;
+    // latências por operação e fase, contadores de bytes (ver Metrics)
+    private transient Metrics metrics;
+    private transient ObjectName metricsName;
+    // chamadas gravadas em FsConfig.traceFile, ou null
+    private transient TraceRecorder trace;
+    // contagens da reaplicação do journal na abertura
+    private transient JournalReplay.Report recovery;
+    // seq da entrada gravada pela thread dentro de applyDeferred (ver awaitDurable)
+    private static final ThreadLocal<long[]> deferredSeq = new ThreadLocal<>();
+    // threads de rm -r e cp -r (treePool) e de du e find (queryPool), ver ParallelTree.
+    // Separadas porque uma consulta pode esperar pela trava de um escritor que espera pelo
+    // cp -r; na mesma pool, a thread parada nessa espera seria a que o cp precisa.
+    private transient ForkJoinPool treePool;
+    private transient ForkJoinPool queryPool;
+    // trigramas dos nomes e palavras do conteúdo, avisados pelos doX (ver SearchIndex)
+    private SearchIndex index = new SearchIndex();
+    // snapshots nomeados (gravados junto com a imagem) e a época do mais novo já criado
+    private ConcurrentSkipListMap<String, Snapshot> snapshots = new ConcurrentSkipListMap<>();
+    private int snapshotEpoch;
+    // nós que saíram da árvore mas ainda são vistos por algum snapshot; o conteúdo deles
+    // só é solto quando nenhum dos snapshots que os enxergam sobrar
+    private List<Retained> retained = new ArrayList<>();
+    // snapshots nomeados e fixados (pin) em ordem de época; trocado só com o gate em escrita
+    private transient volatile Snapshot[] active = new Snapshot[0];
+    private transient Set<Snapshot> pinned;
+    // snapshots soltos enquanto o checkpoint grava a imagem: as cópias deles podem estar
+    // sendo gravadas, então só são soltas no fim (ver forget); null fora da gravação
+    private transient List<Snapshot> forgetLater;
 
     public FileSystemSimulator(String imagePath, String journalPath) {
+        this(imagePath, journalPath, FsConfig.defaults());
+    }
+
+    // Com policy != null a imagem só é regravada pelo checkpointer; sem ela, a cada operação
+    public FileSystemSimulator(String imagePath, String journalPath, CheckpointPolicy policy) {
+        this(imagePath, journalPath, FsConfig.defaults().checkpointPolicy(policy));
+    }
+
+    public FileSystemSimulator(String imagePath, String journalPath, FsConfig config) {
         this.imagePath = imagePath;
         this.journalPath = journalPath;
-        this.journal = new Journal(journalPath);
-        if (!loadImage()) {
+        this.durability = config.getDurability();
+        this.segmentBytes = config.getJournalSegmentBytes();
+        this.offHeap = config.isOffHeapContent();
+        this.dentries = new DentryCache(config.getDentryCacheSize());
+        this.pageCache = openPageCache(config);
+        this.blockStore = new BlockStore(pageCache);
+        this.metrics = new Metrics(config.isMetricsEnabled());
+        this.treePool = new ForkJoinPool(config.getTreeParallelism());
+        this.queryPool = new ForkJoinPool(config.getTreeParallelism());
+        this.journal = new Journal(journalPath, durability, segmentBytes);
+        CheckpointPolicy policy = config.getCheckpointPolicy();
+        this.checkpointLock = new Object();
+        this.gate = new ReentrantReadWriteLock();
+        this.active = new Snapshot[0];
+        this.pinned = new HashSet<>();
+        if (config.getImageFormat() == FsConfig.ImageFormat.NATIVE) {
+            openNativeImage(config);
+        } else if (!loadImage()) {
+            // imagem nova: entradas antigas do journal não pertencem a ela
             root = new DirectoryNode("/");
+            index.build(root);
             persistImage();
         } else {
-            this.journal = new Journal(journalPath);
+            attachStore(root);
             try { recoverFromJournal(); } catch (Exception ex) { System.err.println("Recovery failed: " + ex.getMessage()); }
         }
+        // diretórios ainda não lidos da imagem nativa só são convertidos ao serem lidos
+        if (config.isCompactNodes()) root.compact();
+        if (config.isSortedDirectories()) root.sorted();
+        if (policy != null) {
+            checkpointer = new Checkpointer(this, policy);
+            checkpointer.start();
+        }
+        registerMetrics();
+        // depois da recuperação: o trace só tem as chamadas feitas pelos usuários
+        if (config.getTraceFile() != null) startTrace(config.getTraceFile());
+    }
+
+    private void startTrace(String path) {
+        try {
+            trace = new TraceRecorder(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        metrics.trace(trace);
+    }
+
+    // Medidores lidos sob demanda e publicação no JMX (Simulador:type=FileSystem,image="...")
+    private void registerMetrics() {
+        metrics.gauge("journal_bytes_gravados", () -> journal.bytesWritten());
+        metrics.gauge("journal_bytes_em_disco", () -> journal.diskUsage());
+        metrics.gauge("journal_segmentos", () -> journal.segmentCount());
+        metrics.gauge("journal_pendentes", () -> journal.unresolvedCount());
+        metrics.gauge("nos_em_memoria", () -> countNodes(root));
+        metrics.gauge("recuperacao_reaplicadas", () -> recovery == null ? 0 : recovery.replayed);
+        metrics.gauge("recuperacao_ja_aplicadas", () -> recovery == null ? 0 : recovery.skipped);
+        metrics.gauge("recuperacao_falhas", () -> recovery == null ? 0 : recovery.failed);
+        if (nativeImage != null) {
+            metrics.gauge("recuperacao_paginas_imagem", () -> Math.max(nativeImage.walRecovered(), 0));
+            metrics.gauge("recuperacao_log_imagem_descartado", () -> nativeImage.walRecovered() < 0 ? 1 : 0);
+        }
+        if (pageCache != null) {
+            metrics.gauge("cache_acertos", pageCache::hits);
+            metrics.gauge("cache_faltas", pageCache::misses);
+            metrics.gauge("cache_acertos_por_mil", pageCache::hitsPerMille);
+            metrics.gauge("cache_despejos", pageCache::evictions);
+            metrics.gauge("cache_gravacoes_spill", pageCache::writeBacks);
+            metrics.gauge("cache_bytes_residentes", pageCache::residentBytes);
+            metrics.gauge("cache_bytes_capacidade", pageCache::capacityBytes);
+            metrics.gauge("cache_bytes_spill", pageCache::spillBytes);
+        }
+        if (!metrics.isEnabled()) return;
+        try {
+            ObjectName name = new ObjectName("Simulador:type=FileSystem,image=" + ObjectName.quote(imagePath));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            System.err.println("Métricas não publicadas no JMX: " + e.getMessage());
+        }
+    }
+
+    public Metrics metrics() { return metrics; }
+
+    private PageCache openPageCache(FsConfig config) {
+        if (config.getPageCacheBytes() <= 0) return null;
+        try {
+            return new PageCache(config.getPageCacheBytes(), Paths.get(imagePath + ".spill").toAbsolutePath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Nós em memória; um diretório da imagem nativa ainda não lido conta só ele mesmo
+    private static long countNodes(FsNode n) {
+        if (!n.isDirectory() || !((DirectoryNode) n).isLoaded()) return 1;
+        DirectoryNode d = (DirectoryNode) n;
+        long c = 1;
+        for (FsNode child : optimisticRead(d, () -> new ArrayList<>(d.getChildren().values()))) c += countNodes(child);
+        return c;
     }
 
     // Carrega o sistema de arquivos salvo em disco (fs.img)
@@ -30,6 +193,23 @@ public class FileSystemSimulator implements Serializable {
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
             FileSystemSimulator loaded = (FileSystemSimulator) ois.readObject();
             this.root = loaded.root;
+            this.checkpointId = loaded.checkpointId;
+            // imagens anteriores ao índice o montam agora, antes de reaplicar o journal
+            this.index = loaded.index != null ? loaded.index : new SearchIndex();
+            if (!index.isReady()) index.build(root);
+            // imagens anteriores aos snapshots não têm os campos
+            if (loaded.snapshots != null) {
+                this.snapshots = loaded.snapshots;
+                this.snapshotEpoch = loaded.snapshotEpoch;
+                // imagens anteriores guardavam só os nós: valem para todos os snapshots
+                this.retained = new ArrayList<>();
+                for (Object o : (List<?>) loaded.retained) {
+                    retained.add(o instanceof Retained ? (Retained) o : new Retained((FsNode) o, snapshotEpoch));
+                }
+                for (Snapshot s : snapshots.values()) for (FsNode c : s.copies()) attachStore(c);
+                for (Retained r : retained) attachStore(r.node);
+                refreshActive();
+            }
             return true;
         } catch (Exception e) {
             System.err.println("Erro carregando imagem: " + e.getMessage());
@@ -37,257 +217,1583 @@ public class FileSystemSimulator implements Serializable {
         }
     }
 
+    // Abre a imagem nativa sem ler a árvore (os nós são carregados sob demanda) e reaplica o
+    // sufixo do journal. Uma imagem serializada existente é convertida uma única vez.
+    private void openNativeImage(FsConfig config) {
+        Path path = Paths.get(imagePath).toAbsolutePath();
+        try {
+            if (Files.exists(path) && !NativeImage.isNative(path.toFile()) && loadImage()) {
+                if (!snapshots.isEmpty()) System.err.println("Snapshots não são convertidos: " + snapshots.keySet());
+                for (Snapshot s : snapshots.values()) s.release();
+                snapshots.clear();
+                for (Retained r : retained) releaseContent(r.node);
+                retained.clear();
+                refreshActive();
+                attachStore(root);
+                recoverFromJournal();
+                Path tmp = path.resolveSibling(path.getFileName() + ".native");
+                try (NativeImage converted = NativeImage.create(tmp, blockStore,
+                        config.getNativeImageInodes(), config.getNativeImageBlocks())) {
+                    converted.prepare(root, journal.lastSeq());
+                    converted.commit();
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                // a imagem nativa não tem índice de busca (ver grep)
+                index.close();
+                index = new SearchIndex();
+                System.err.println("Imagem convertida para o formato nativo");
+            }
+            if (!Files.exists(path)) {
+                nativeImage = NativeImage.create(path, blockStore,
+                        config.getNativeImageInodes(), config.getNativeImageBlocks());
+                root = nativeImage.loadRoot();
+                checkpoint();
+            } else {
+                nativeImage = NativeImage.open(path, blockStore);
+                int wal = nativeImage.walRecovered();
+                if (wal != 0) {
+                    System.err.println("Imagem nativa: log de checkpoint "
+                            + (wal > 0 ? "reaplicado (" + wal + " páginas)" : "incompleto descartado"));
+                }
+                root = nativeImage.loadRoot();
+                imageSeq = nativeImage.checkpointSeq();
+                checkpointId = Long.toString(imageSeq);
+                recoverFromJournal();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     // Salva todo o sistema de arquivos no arquivo de imagem
-    private synchronized void persistImage() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(imagePath))) {
-            oos.writeObject(this);
+    private void persistImage() {
+        try {
+            checkpoint();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    // Grava em arquivo temporário e renomeia atomicamente, para nunca deixar fs.img pela
+    // metade; a serialização vai direto para o arquivo. Retorna os bytes gravados.
+    private long writeImage(Image image) throws IOException {
+        Path target = Paths.get(imagePath).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             ObjectOutputStream oos = new ImageOutput(new BufferedOutputStream(fos, 1 << 16), image)) {
+            oos.writeObject(this);
+            oos.flush();
+            fos.getFD().sync();
+        }
+        long bytes = Files.size(tmp);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return bytes;
+    }
+
+    // O que o checkpoint serializado grava, capturado com os escritores parados: a árvore
+    // vai como o snapshot view a vê, e o resto como estava naquele instante
+    private static final class Image {
+        final Snapshot view;
+        final String checkpointId;
+        final int snapshotEpoch;
+        final ConcurrentSkipListMap<String, Snapshot> snapshots;
+        final List<Retained> retained;
+        SearchIndex index;
+
+        Image(Snapshot view, String checkpointId, int snapshotEpoch,
+              ConcurrentSkipListMap<String, Snapshot> snapshots, List<Retained> retained) {
+            this.view = view;
+            this.checkpointId = checkpointId;
+            this.snapshotEpoch = snapshotEpoch;
+            this.snapshots = snapshots;
+            this.retained = retained;
+        }
+    }
+
+    // Troca cada nó pelo estado dele em image.view enquanto serializa: os escritores
+    // alteram a árvore viva durante a gravação
+    private static final class ImageOutput extends ObjectOutputStream {
+        final Image image;
+
+        ImageOutput(OutputStream out, Image image) throws IOException {
+            super(out);
+            this.image = image;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            return obj instanceof FsNode ? image.view.imageState((FsNode) obj) : obj;
+        }
+    }
+
+    // Numa ImageOutput, grava o estado capturado no checkpoint no lugar dos campos vivos
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (!(out instanceof ImageOutput)) {
+            out.defaultWriteObject();
+            return;
+        }
+        Image image = ((ImageOutput) out).image;
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("root", root);
+        f.put("imagePath", imagePath);
+        f.put("journalPath", journalPath);
+        f.put("checkpointId", image.checkpointId);
+        f.put("index", image.index);
+        f.put("snapshots", image.snapshots);
+        f.put("snapshotEpoch", image.snapshotEpoch);
+        f.put("retained", image.retained);
+        out.writeFields();
+    }
+
+    // Grava um checkpoint. Com o gate em escrita toda entrada já gravada no journal foi
+    // aplicada ou abortada, então a imagem cobre exatamente até o último seq do journal;
+    // na imagem serializada os escritores só param para fixar um snapshot (pin) e o resto
+    // do estado, e a árvore é gravada depois, como esse snapshot a vê.
+    public void checkpoint() throws IOException {
+        checkpointCovering(Long.MAX_VALUE);
+    }
+
+    // Imagem nativa inutilizável até reabrir (checkpoints falham sempre)
+    boolean imageFailed() {
+        return nativeImage != null && nativeImage.failed();
+    }
+
+    private void checkpointCovering(long seq) throws IOException {
+        synchronized (checkpointLock) {
+            if (seq != Long.MAX_VALUE && imageSeq >= seq) return;
+            ensureJournal();
+            Metrics.Timer t = metrics.start("CHECKPOINT");
+            long covered;
+            Image image = null;
+            gate.writeLock().lock();
+            try {
+                t.phase(Metrics.Phase.RESOLVE);
+                covered = journal.lastSeq();
+                checkpointId = Long.toString(covered);
+                if (nativeImage != null) {
+                    // só os nós alterados desde o último checkpoint
+                    nativeImage.prepare(root, covered);
+                } else {
+                    Snapshot view = pin();
+                    List<Retained> kept;
+                    synchronized (retained) { kept = new ArrayList<>(retained); }
+                    image = new Image(view, checkpointId, snapshotEpoch, new ConcurrentSkipListMap<>(snapshots), kept);
+                    forgetLater = new ArrayList<>();
+                    index.hold();
+                }
+                if (checkpointer != null) checkpointer.reset();
+            } finally {
+                gate.writeLock().unlock();
+            }
+            t.phase(Metrics.Phase.APPLY);
+            if (nativeImage != null) {
+                metrics.addImageBytes(nativeImage.commit());
+            } else {
+                try {
+                    image.index = index.heldCopy();
+                    metrics.addImageBytes(writeImage(image));
+                } finally {
+                    imageWritten(image);
+                }
+            }
+            t.phase(Metrics.Phase.PERSIST);
+            imageSeq = covered;
+            journal.retire(Long.toString(covered));
+            t.phase(Metrics.Phase.JOURNAL);
+            t.stop();
+        }
+    }
+
+    // Grava um checkpoint e compacta o journal; retorna os bytes recuperados
+    public long compact() throws IOException {
+        synchronized (checkpointLock) {
+            checkpoint();
+            return journal.compact(checkpointId);
+        }
+    }
+
+    // Para o checkpointer, grava um checkpoint final e fecha o journal
+    public void close() throws IOException {
+        if (trace != null) {
+            metrics.trace(null);
+            trace.close();
+            trace = null;
+        }
+        if (checkpointer != null) {
+            checkpointer.stop();
+            checkpoint();
+        }
+        index.close();
+        if (journal != null) journal.close();
+        if (nativeImage != null) nativeImage.close();
+        if (pageCache != null) pageCache.close();
+        treePool.shutdown();
+        queryPool.shutdown();
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException ignored) {
+                // já removido
+            }
+            metricsName = null;
+        }
+    }
+
+    private interface Apply { void run() throws IOException; }
+
+    // Trava os nós do plano, registra a operação no journal e a aplica. A espera pelo
+    // force() do journal e a gravação da imagem acontecem depois de soltar as travas.
+    private void mutate(LockPlan plan, Apply apply, long bytes, String type, String... kv) throws IOException {
+        mutate(plan, apply, bytes, type, null, kv);
+    }
+
+    // idem, gravando data junto da entrada do journal (trecho de WRITE_AT)
+    private void mutate(LockPlan plan, Apply apply, long bytes, String type, byte[] data, String... kv) throws IOException {
+        Metrics.Timer t = metrics.start(type, data, kv);
+        Journal.Entry e;
+        gate.readLock().lock();
+        try {
+            plan.acquire(root);
+            t.phase(Metrics.Phase.RESOLVE);
+            try {
+                e = log(type, data, kv);
+                t.phase(Metrics.Phase.JOURNAL);
+                try {
+                    apply.run();
+                } catch (IOException | RuntimeException ex) {
+                    journal.markAbort(e.id);
+                    throw ex;
+                }
+                t.phase(Metrics.Phase.APPLY);
+                journal.markCommit(e.id);
+                t.phase(Metrics.Phase.JOURNAL);
+            } finally {
+                plan.release();
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+        afterApply(e.seq, bytes);
+        t.phase(Metrics.Phase.PERSIST);
+        awaitDurable(e.seq);
+        t.phase(Metrics.Phase.JOURNAL);
+        t.stop();
+    }
+
+    // Inicia uma transação: as operações acumuladas só são aplicadas no commit()
+    public Transaction begin() {
+        return new Transaction(this);
+    }
+
+    // Com a espera adiada (AsyncFileSystem), guarda o seq para quem chama em vez de esperar
+    private void awaitDurable(long seq) throws IOException {
+        long[] deferred = deferredSeq.get();
+        if (deferred != null) deferred[0] = seq;
+        else journal.awaitDurable(seq);
+    }
+
+    // Aplica a operação sem esperar o force() do journal; retorna o seq da entrada gravada,
+    // a passar para durable(), ou 0 se nenhuma foi gravada
+    long applyDeferred(Op op) throws IOException {
+        return deferred(() -> apply(op));
+    }
+
+    long applyDeferred(List<Op> ops) throws IOException {
+        return deferred(() -> apply(ops));
+    }
+
+    private long deferred(Apply apply) throws IOException {
+        long[] seq = new long[1];
+        deferredSeq.set(seq);
+        try {
+            apply.run();
+        } finally {
+            deferredSeq.remove();
+        }
+        return seq[0];
+    }
+
+    // Completa quando a entrada seq estiver em disco, com um force() para o grupo todo
+    CompletableFuture<Void> durable(long seq) {
+        if (seq == 0) return CompletableFuture.completedFuture(null);
+        ensureJournal();
+        return journal.durable(seq);
+    }
+
+    // Aplica uma operação avulsa pelo método correspondente (uma entrada no journal)
+    public void apply(Op op) throws IOException {
+        Map<String,String> p = op.params;
+        switch (op.type) {
+            case "MKDIR": mkdir(p.get("path"));
+            break;
+            case "RMDIR": rmdir(p.get("path"));
+            break;
+            case "TOUCH": touch(p.get("path"));
+            break;
+            case "WRITE": writeFile(p.get("path"), p.get("content"));
+            break;
+            case "RM": rm(p.get("path"));
+            break;
+            case "MV": mv(p.get("src"), p.get("dst"));
+            break;
+            case "CP": cp(p.get("src"), p.get("dst"));
+            break;
+            case "WRITE_AT": write(p.get("path"), Long.parseLong(p.get("offset")), op.data);
+            break;
+            case "TRUNCATE": truncate(p.get("path"), Long.parseLong(p.get("size")));
+            break;
+            case "BATCH": apply(Journal.decodeBatch(op.data));
+            break;
+        }
+    }
+
+    // Aplica as operações como uma unidade: uma única entrada BATCH no journal, uma única
+    // gravação da imagem e tudo-ou-nada (se uma falha, as anteriores são desfeitas e o
+    // lote é abortado). O lote exclui os outros escritores; leitores concorrentes podem
+    // enxergá-lo pela metade.
+    public void apply(List<Op> ops) throws IOException {
+        if (ops.isEmpty()) return;
+        long bytes = 0;
+        for (Op op : ops) {
+            if (op.type.equals("BATCH")) throw new IOException("Lote dentro de lote não é suportado");
+            bytes += op.bytes();
+        }
+        mutateExclusive(() -> applyBatch(ops, true, false), bytes, "BATCH", Journal.encodeBatch(ops),
+                "ops", Integer.toString(ops.size()));
+    }
+
+    // Como mutate, mas com o gate em escrita: nenhum outro escritor no meio (lotes e snapshots)
+    private void mutateExclusive(Apply apply, long bytes, String type, byte[] data, String... kv) throws IOException {
+        Metrics.Timer t = metrics.start(type, data, kv);
+        Journal.Entry e;
+        gate.writeLock().lock();
+        try {
+            t.phase(Metrics.Phase.RESOLVE);
+            e = log(type, data, kv);
+            t.phase(Metrics.Phase.JOURNAL);
+            try {
+                apply.run();
+            } catch (IOException | RuntimeException ex) {
+                journal.markAbort(e.id);
+                throw ex;
+            }
+            t.phase(Metrics.Phase.APPLY);
+            journal.markCommit(e.id);
+            t.phase(Metrics.Phase.JOURNAL);
+        } finally {
+            gate.writeLock().unlock();
+        }
+        afterApply(e.seq, bytes);
+        t.phase(Metrics.Phase.PERSIST);
+        awaitDurable(e.seq);
+        t.phase(Metrics.Phase.JOURNAL);
+        t.stop();
+    }
+
+    // Desfazer do lote em aplicação. Os doX registram em undo como reverter cada alteração
+    // (marks separa as operações) e adiam a liberação dos blocos do que saiu da árvore;
+    // arquivos alterados guardam antes uma cópia copy-on-write do conteúdo.
+    private static class Batch {
+        final List<Apply> undo = new ArrayList<>();
+        final List<Integer> marks = new ArrayList<>();
+        final List<FsNode> released = new ArrayList<>();
+        final Map<FileNode, FileNode> saved = new IdentityHashMap<>();
+        final Set<FsNode> created = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    // Aplica as operações em ordem e, se uma falhar, desfaz tudo na ordem inversa; retorna
+    // quantas foram aplicadas (com idempotent, as já presentes na árvore são puladas). Com
+    // lock, cada operação (e o desfazer dela) trava em escrita os nós que altera, para os
+    // leitores; outros escritores já estão de fora pelo gate.
+    private int applyBatch(List<Op> ops, boolean lock, boolean idempotent) throws IOException {
+        Batch b = new Batch();
+        batch = b;
+        int applied = 0;
+        try {
+            for (Op op : ops) {
+                b.marks.add(b.undo.size());
+                LockPlan plan = lock ? planFor(op) : null;
+                if (plan != null) plan.acquire(root);
+                try {
+                    // na recuperação, operações cujo efeito já está na árvore são puladas
+                    if (idempotent && alreadyApplied(op)) continue;
+                    applyOp(op);
+                    applied++;
+                } finally {
+                    if (plan != null) plan.release();
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            batch = null;
+            for (int i = b.marks.size() - 1; i >= 0; i--) {
+                LockPlan plan = lock ? planFor(ops.get(i)) : null;
+                if (plan != null) plan.acquire(root);
+                try {
+                    for (int u = b.undo.size() - 1; u >= b.marks.get(i); u--) b.undo.remove(u).run();
+                } finally {
+                    if (plan != null) plan.release();
+                }
+            }
+            throw ex;
+        } finally {
+            batch = null;
+            for (FileNode copy : b.saved.values()) copy.release();
+        }
+        for (FsNode n : b.released) dropped(n);
+        return applied;
+    }
+
+    // Pai e nó de cada caminho alterado pela operação (a origem do cp só é lida)
+    private static LockPlan planFor(Op op) {
+        LockPlan plan = new LockPlan();
+        for (String key : new String[] {"path", "src", "dst"}) {
+            String path = op.params.get(key);
+            if (path == null || (key.equals("src") && op.type.equals("CP"))) continue;
+            String[] parts = splitPath(path);
+            plan.add(parts, Math.max(0, parts.length - 1), true).add(parts, parts.length, true);
+        }
+        return plan;
+    }
+
+    private void onUndo(Apply a) {
+        if (batch != null) batch.undo.add(a);
+    }
+
+    // Solta os blocos do que saiu da árvore; num lote, só quando ele for confirmado
+    private void discard(FsNode n) {
+        if (batch != null) batch.released.add(n);
+        else dropped(n);
+    }
+
+    // Solta o conteúdo do que saiu da árvore, menos o que algum snapshot ainda enxerga
+    private void dropped(FsNode n) {
+        drop(n, snapshotEpoch);
+    }
+
+    // Nó que saiu da árvore quando a época era removed e ainda visto por algum snapshot
+    private static final class Retained implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final FsNode node;
+        final int removed;
+
+        Retained(FsNode node, int removed) {
+            this.node = node;
+            this.removed = removed;
+        }
+    }
+
+    // Percorre o que saiu da árvore: um nó que algum snapshot ativo enxerga (criado antes
+    // dele, que por sua vez é anterior à remoção) fica em retained com a subárvore; o resto
+    // (criado depois do snapshot mais novo, por exemplo) é solto já
+    private void drop(FsNode n, int removed) {
+        for (Snapshot s : active) {
+            if (n.bornEpoch < s.epoch && s.epoch <= removed) {
+                synchronized (retained) { retained.add(new Retained(n, removed)); }
+                return;
+            }
+        }
+        if (!n.isDirectory()) {
+            ((FileNode) n).release();
+        } else if (((DirectoryNode) n).isLoaded()) {
+            for (FsNode c : ((DirectoryNode) n).getChildren().values()) drop(c, removed);
+        }
+    }
+
+    // Antes de alterar n (travado em escrita): guarda o estado atual dele nos snapshots
+    // criados depois da última vez que foi guardado (ou da criação dele)
+    private void preserve(FsNode n) {
+        Snapshot[] snaps = active;
+        if (snaps.length == 0 || n.snapEpoch >= snaps[snaps.length - 1].epoch) return;
+        for (Snapshot s : snaps) if (s.epoch > n.snapEpoch) s.preserve(n);
+        n.snapEpoch = snaps[snaps.length - 1].epoch;
+    }
+
+    // Guarda (uma vez) o conteúdo do arquivo antes da primeira alteração: para os
+    // snapshots e, num lote, para o desfazer
+    private void saveContent(FileNode f) {
+        preserve(f);
+        if (batch == null || batch.created.contains(f) || batch.saved.containsKey(f)) return;
+        FileNode copy = new FileNode(f.getName(), f.isOffHeap());
+        copy.copyFrom(f);
+        long modified = f.getModifiedAt();
+        batch.saved.put(f, copy);
+        onUndo(() -> {
+            f.copyFrom(copy);
+            f.modifiedAt = modified;
+            index.changed(f);
+        });
+    }
+
+    // Chamado após aplicar uma operação em memória: grava a imagem (modo legado) ou avisa o checkpointer.
+    // No modo legado, se outra thread já gravou uma imagem que cobre seq, não é preciso gravar de novo.
+    private void afterApply(long seq, long bytes) throws IOException {
+        if (checkpointer == null) checkpointCovering(seq);
+        else checkpointer.record(bytes);
+    }
+
+    private Journal.Entry log(String type, byte[] data, String... kv) throws IOException {
+        ensureJournal();
+        Map<String,String> params = new HashMap<>();
+        for (int i = 0; i + 1 < kv.length; i += 2) params.put(kv[i], kv[i + 1]);
+        return journal.append(type, params, data);
+    }
+
     // Garante que o journal está inicializado
-    private void ensureJournal() { if (journal == null) journal = new Journal(journalPath); }
+    private void ensureJournal() {
+        if (journal == null) {
+            journal = new Journal(journalPath, durability == null ? Journal.Durability.SYNC_BATCH : durability,
+                    segmentBytes > 0 ? segmentBytes : Journal.DEFAULT_SEGMENT_BYTES);
+        }
+    }
+
 
+    // Forma canônica de um caminho ("/a/b"): sem espaços nas pontas, com barra inicial e
+    // sem barra final. Um caminho que já está na forma canônica é devolvido sem cópia.
+    static String normalize(String path) {
+        int len = path.length();
+        if (len > 0 && path.charAt(0) == '/' && (len == 1 || (path.charAt(len - 1) != '/' && path.charAt(len - 1) > ' '))
+                && path.indexOf("//") < 0) {
+            return path;
+        }
+        String p = path.trim().replaceAll("/{2,}", "/");
+        int end = p.length();
+        while (end > 1 && p.charAt(end - 1) == '/') end--;
+        p = p.substring(0, end);
+        return p.startsWith("/") ? p : "/" + p;
+    }
 
     // Divide um caminho em partes individuais
-    private String[] splitPath(String path) {
-        String p = path.trim();
-        if (p.equals("/")) return new String[0];
-        if (p.startsWith("/")) p = p.substring(1);
-        return p.split("/");
+    private static String[] splitPath(String path) {
+        String key = normalize(path);
+        if (key.length() == 1) return new String[0];
+        int n = 1;
+        for (int i = 1; i < key.length(); i++) if (key.charAt(i) == '/') n++;
+        String[] parts = new String[n];
+        int start = 1;
+        for (int i = 0; i < n; i++) {
+            int end = key.indexOf('/', start);
+            if (end < 0) end = key.length();
+            parts[i] = key.substring(start, end);
+            start = end + 1;
+        }
+        return parts;
+    }
+
+    // Último componente do caminho
+    private static String baseName(String path) {
+        String key = normalize(path);
+        return key.substring(key.lastIndexOf('/') + 1);
     }
 
 
     // Navega até o diretório pai do caminho informado
     private DirectoryNode traverseParent(String path) {
-        String[] parts = splitPath(path);
-        DirectoryNode cur = root;
-        for (int i = 0; i < parts.length - 1; i++) {
-            FsNode n = cur.get(parts[i]);
-            if (n == null || !n.isDirectory()) return null;
-            cur = (DirectoryNode) n;
+        String key = normalize(path);
+        int slash = key.lastIndexOf('/');
+        if (key.length() == 1 || slash == 0) return root;
+        FsNode n = resolve(key.substring(0, slash), false);
+        return n != null && n.isDirectory() ? (DirectoryNode) n : null;
+    }
+
+
+    // Navega até o nó do caminho informado (chamado com as travas do plano, ou na recuperação)
+    private FsNode traverse(String path) {
+        return resolve(path, false);
+    }
+
+
+    // Navegação dos leitores, sem segurar travas: em cada nível tenta uma leitura otimista
+    // e só trava o diretório (em leitura) se um escritor mexeu nele no meio do caminho
+    private FsNode lookup(String path) {
+        return resolve(path, true);
+    }
+
+    // Consulta o dentry cache; numa falta percorre a árvore a partir da raiz e guarda o
+    // resultado, inclusive quando o caminho não existe
+    private FsNode resolve(String path, boolean optimistic) {
+        String key = normalize(path);
+        if (key.length() == 1) return root;
+        Object hit = dentries.get(key);
+        if (hit != null) return hit == DentryCache.ABSENT ? null : (FsNode) hit;
+        long gen = dentries.generation();
+        FsNode cur = root;
+        int start = 1;
+        while (true) {
+            if (!cur.isDirectory()) { cur = null; break; }
+            int end = key.indexOf('/', start);
+            if (end < 0) end = key.length();
+            DirectoryNode dir = (DirectoryNode) cur;
+            String name = key.substring(start, end);
+            cur = optimistic ? optimisticRead(dir, () -> dir.get(name)) : dir.get(name);
+            if (cur == null || end == key.length()) break;
+            start = end + 1;
         }
+        dentries.put(key, cur, gen);
         return cur;
     }
 
+    // Contadores do dentry cache
+    public DentryCache dentryCache() { return dentries; }
 
-    // Navega até o diretório pai do caminho informado
-    private FsNode traverse(String path) {
-        if (path.equals("/")) return root;
-        String[] parts = splitPath(path);
-        DirectoryNode cur = root;
-        for (int i = 0; i < parts.length; i++) {
-            FsNode n = cur.get(parts[i]);
-            if (n == null) return null;
-            if (i == parts.length - 1) return n;
-            if (!n.isDirectory()) return null;
-            cur = (DirectoryNode) n;
+    // Executa a leitura sem travar e valida o carimbo; se houve escrita concorrente, refaz travado
+    static <T> T optimisticRead(FsNode node, Supplier<T> read) {
+        StampedLock lock = node.lock();
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T value = read.get();
+                if (lock.validate(stamp)) return value;
+            } catch (RuntimeException ignored) {
+                // estrutura lida no meio de uma escrita; cai para a leitura travada
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlockRead(stamp);
         }
-        return null;
     }
 
 
     // Cria um novo diretório e registra a operação no journal
-    public synchronized void mkdir(String path) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("path", path);
-        journal.appendPending("MKDIR", params);
+    public void mkdir(String path) throws IOException {
+        String[] parts = splitPath(path);
+        LockPlan plan = new LockPlan().add(parts, parts.length - 1, true);
+        mutate(plan, () -> doMkdir(path), path.length(), "MKDIR", "path", path);
+    }
 
+    private void doMkdir(String path) throws IOException {
         DirectoryNode parent = traverseParent(path);
         if (parent == null) throw new IOException("Caminho inválido");
-        String[] parts = splitPath(path);
-        String name = parts[parts.length - 1];
+        String name = baseName(path);
         if (parent.get(name) != null) throw new IOException("Já existe");
-        parent.add(name, new DirectoryNode(name));
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
+        DirectoryNode dir = newDir(name);
+        preserve(parent);
+        parent.add(name, dir);
+        index.linked(parent, dir);
+        dentries.invalidate(normalize(path), false);
+        onUndo(() -> {
+            parent.remove(name);
+            index.unlinked(dir);
+            dentries.invalidate(normalize(path), false);
+        });
     }
 
     // Remove um diretório vazio e registra no journal
-    public synchronized void rmdir(String path) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("path", path);
-        journal.appendPending("RMDIR", params);
+    public void rmdir(String path) throws IOException {
+        String[] parts = splitPath(path);
+        LockPlan plan = new LockPlan().add(parts, parts.length - 1, true).add(parts, parts.length, true);
+        mutate(plan, () -> doRmdir(path), path.length(), "RMDIR", "path", path);
+    }
 
+    private void doRmdir(String path) throws IOException {
         FsNode node = traverse(path);
         if (node == null || !node.isDirectory()) throw new IOException("Não existe ou não é diretório");
         DirectoryNode dir = (DirectoryNode) node;
         if (!dir.isEmpty()) throw new IOException("Diretório não está vazio");
         DirectoryNode parent = traverseParent(path);
-        String[] parts = splitPath(path);
-        parent.remove(parts[parts.length -1]);
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
+        String name = baseName(path);
+        preserve(parent);
+        parent.remove(name);
+        index.unlinked(dir);
+        // vazio: entradas negativas abaixo dele continuam corretas
+        dentries.invalidate(normalize(path), false);
+        onUndo(() -> {
+            parent.add(name, dir);
+            index.linked(parent, dir);
+            dentries.invalidate(normalize(path), false);
+        });
     }
 
 
     // Cria um arquivo vazio e registra no journal
-    public synchronized void touch(String path) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("path", path);
-        journal.appendPending("TOUCH", params);
+    public void touch(String path) throws IOException {
+        String[] parts = splitPath(path);
+        LockPlan plan = new LockPlan().add(parts, parts.length - 1, true);
+        mutate(plan, () -> doTouch(path), path.length(), "TOUCH", "path", path);
+    }
 
+    // Retorna o nó existente ou o arquivo criado
+    private FsNode doTouch(String path) throws IOException {
         DirectoryNode parent = traverseParent(path);
         if (parent == null) throw new IOException("Caminho inválido");
-        String[] parts = splitPath(path);
-        String name = parts[parts.length - 1];
-        if (parent.get(name) == null) parent.add(name, new FileNode(name));
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
+        String name = baseName(path);
+        FsNode n = parent.get(name);
+        if (n != null) return n;
+        n = newFile(name);
+        preserve(parent);
+        parent.add(name, n);
+        index.linked(parent, n);
+        dentries.invalidate(normalize(path), false);
+        if (batch != null) {
+            FsNode created = n;
+            batch.created.add(n);
+            onUndo(() -> {
+                parent.remove(name);
+                index.unlinked(created);
+                dentries.invalidate(normalize(path), false);
+            });
+        }
+        return n;
+    }
+
+    private FileNode newFile(String name) {
+        FileNode f = new FileNode(name, offHeap);
+        f.attach(blockStore);
+        f.snapEpoch = f.bornEpoch = snapshotEpoch;
+        return f;
+    }
+
+    private DirectoryNode newDir(String name) {
+        DirectoryNode d = new DirectoryNode(name);
+        d.snapEpoch = d.bornEpoch = snapshotEpoch;
+        return d;
+    }
+
+    // Registra no BlockStore os blocos dos arquivos carregados da imagem
+    private void attachStore(FsNode n) {
+        if (n.isDirectory()) {
+            for (FsNode child : ((DirectoryNode) n).getChildren().values()) attachStore(child);
+        } else {
+            ((FileNode) n).attach(blockStore);
+        }
+    }
+
+    // Solta os blocos de uma subárvore que saiu da árvore; o que nunca foi carregado da
+    // imagem nativa não tem blocos em memória
+    private static void releaseContent(FsNode n) {
+        if (n.isDirectory()) {
+            if (!((DirectoryNode) n).isLoaded()) return;
+            for (FsNode child : ((DirectoryNode) n).getChildren().values()) releaseContent(child);
+        } else {
+            ((FileNode) n).release();
+        }
     }
 
 
     // Escreve conteúdo em um arquivo e registra no journal
-    public synchronized void writeFile(String path, String content) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("path", path); params.put("content", content);
-        journal.appendPending("WRITE", params);
+    public void writeFile(String path, String content) throws IOException {
+        mutateFile(path, () -> doWriteFile(path, content), path.length() + content.length(),
+                "WRITE", null, "path", path, "content", content);
+    }
 
+    // Operação sobre o conteúdo de um arquivo: se ele existe, só ele fica em escrita;
+    // se não existe (será criado), o diretório pai também
+    private void mutateFile(String path, Apply apply, long bytes, String type, byte[] data, String... kv) throws IOException {
+        String[] parts = splitPath(path);
+        while (true) {
+            boolean exists = lookup(path) != null;
+            LockPlan plan = new LockPlan().add(parts, parts.length - 1, !exists).add(parts, parts.length, exists);
+            try {
+                mutate(plan, () -> {
+                    if (exists && plan.nodeAt(parts, parts.length) == null) throw new Retry();
+                    apply.run();
+                }, bytes, type, data, kv);
+                return;
+            } catch (Retry r) {
+                // o arquivo sumiu entre a consulta e a trava; tenta de novo travando o pai
+            }
+        }
+    }
+
+    // O plano de travas ficou desatualizado; a operação é abortada e refeita
+    private static class Retry extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private void doWriteFile(String path, String content) throws IOException {
         FsNode n = traverse(path);
-        if (n == null) { touch(path); n = traverse(path); }
+        if (n == null) n = doTouch(path);
         if (n.isDirectory()) throw new IOException("É diretório");
         FileNode f = (FileNode) n;
+        saveContent(f);
         f.write(content);
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
+        index.changed(f);
     }
 
 
-    // Lê o conteúdo de um arquivo
-    public synchronized String readFile(String path) throws IOException {
+    // Grava bytes a partir de offset (criando o arquivo se preciso); o journal guarda só esse trecho
+    public void write(String path, long offset, byte[] data) throws IOException {
+        if (offset < 0) throw new IOException("Posição inválida");
+        mutateFile(path, () -> doWriteAt(path, offset, data), path.length() + data.length,
+                "WRITE_AT", data, "path", path, "offset", Long.toString(offset));
+    }
+
+    private void doWriteAt(String path, long offset, byte[] data) throws IOException {
         FsNode n = traverse(path);
+        if (n == null) n = doTouch(path);
+        if (n.isDirectory()) throw new IOException("É diretório");
+        saveContent((FileNode) n);
+        ((FileNode) n).write(offset, data, 0, data.length);
+        index.changed((FileNode) n);
+    }
+
+    // Ajusta o tamanho do arquivo; ao crescer, o trecho novo fica zerado
+    public void truncate(String path, long size) throws IOException {
+        if (size < 0) throw new IOException("Tamanho inválido");
+        mutateFile(path, () -> doTruncate(path, size), path.length(),
+                "TRUNCATE", null, "path", path, "size", Long.toString(size));
+    }
+
+    private void doTruncate(String path, long size) throws IOException {
+        FsNode n = traverse(path);
+        if (n == null || n.isDirectory()) throw new IOException("Arquivo não existe");
+        saveContent((FileNode) n);
+        ((FileNode) n).truncate(size);
+        index.changed((FileNode) n);
+    }
+
+    // Lê até len bytes a partir de offset; retorna um vetor menor (ou vazio) perto do fim
+    public byte[] read(String path, long offset, int len) throws IOException {
+        Metrics.Timer t = metrics.start("READ_AT");
+        if (t.traced()) t.args("path", path, "offset", Long.toString(offset), "len", Integer.toString(len));
+        FileNode f = fileAt(path);
+        t.phase(Metrics.Phase.RESOLVE);
+        byte[] out = optimisticRead(f, () -> {
+            byte[] buf = new byte[(int) Math.max(0, Math.min(len, f.size() - offset))];
+            f.read(offset, buf, 0, buf.length);
+            return buf;
+        });
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return out;
+    }
+
+    private FileNode fileAt(String path) throws IOException {
+        FsNode n = lookup(path);
         if (n == null || n.isDirectory()) throw new IOException("Arquivo não existe");
-        return ((FileNode) n).read();
+        return (FileNode) n;
+    }
+
+    // Leitura sequencial bloco a bloco, sem carregar o arquivo inteiro
+    public InputStream openInputStream(String path) throws IOException {
+        FileNode f = fileAt(path);
+        return new InputStream() {
+            private long pos;
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                int n = optimisticRead(f, () -> f.read(pos, b, off, Math.min(len, FileNode.BLOCK_SIZE)));
+                if (n > 0) pos += n;
+                return n;
+            }
+        };
+    }
+
+    // Escrita sequencial: esvazia (ou cria) o arquivo e grava um WRITE_AT a cada bloco cheio
+    public OutputStream openOutputStream(String path) throws IOException {
+        writeFile(path, "");
+        return new OutputStream() {
+            private final byte[] buf = new byte[FileNode.BLOCK_SIZE];
+            private int count;
+            private long pos;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == buf.length) flush();
+                buf[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == buf.length) flush();
+                    int n = Math.min(len, buf.length - count);
+                    System.arraycopy(b, off, buf, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (count == 0) return;
+                FileSystemSimulator.this.write(path, pos, Arrays.copyOf(buf, count));
+                pos += count;
+                count = 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+
+    // Lê o conteúdo de um arquivo
+    public String readFile(String path) throws IOException {
+        Metrics.Timer t = metrics.start("READ");
+        if (t.traced()) t.args("path", path);
+        FsNode n = lookup(path);
+        if (n == null || n.isDirectory()) throw new IOException("Arquivo não existe");
+        t.phase(Metrics.Phase.RESOLVE);
+        FileNode f = (FileNode) n;
+        String out = optimisticRead(f, f::read);
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return out;
     }
 
 
     // Remove um arquivo ou diretório e registra no journal
-    public synchronized void rm(String path) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("path", path);
-        journal.appendPending("RM", params);
+    public void rm(String path) throws IOException {
+        String[] parts = splitPath(path);
+        LockPlan plan = new LockPlan().add(parts, parts.length - 1, true).add(parts, parts.length, true);
+        mutate(plan, () -> doRm(path), path.length(), "RM", "path", path);
+    }
+
+    // rm -r: tira a subárvore numa única entrada RM do journal e, depois de soltar as
+    // travas, libera o conteúdo dela em paralelo, contando os nós em task. O cancelamento
+    // só vale antes da remoção; a liberação vai até o fim.
+    public void rm(String path, TreeTask task) throws IOException {
+        task.checkCancelled();
+        String[] parts = splitPath(path);
+        LockPlan plan = new LockPlan().add(parts, parts.length - 1, true).add(parts, parts.length, true);
+        FsNode[] removed = new FsNode[1];
+        mutate(plan, () -> removed[0] = detach(path), path.length(), "RM", "path", path);
+        if (active.length > 0) {
+            // ainda visível nos snapshots
+            dropped(removed[0]);
+            return;
+        }
+        ParallelTree.fold(treePool, removed[0], normalize(path), task, new ParallelTree.Fold<Void>() {
+            @Override public Void create() { return null; }
+            @Override public void dir(Void acc, DirectoryNode d, String p) {}
+            @Override public void merge(Void into, Void from) {}
+            // o que nunca foi carregado da imagem nativa não tem blocos em memória (e, já
+            // fora da árvore, o inode dele pode ter sido reaproveitado por um checkpoint)
+            @Override public void file(Void acc, FileNode f, String dir) {
+                if (f.isContentLoaded()) f.release();
+            }
+            @Override public boolean descend(DirectoryNode d) { return d.isLoaded(); }
+            @Override public boolean cancellable() { return false; }
+        });
+    }
+
+    private void doRm(String path) throws IOException {
+        discard(detach(path));
+    }
 
+    // Tira o nó da árvore sem soltar o conteúdo dele
+    private FsNode detach(String path) throws IOException {
         DirectoryNode parent = traverseParent(path);
         if (parent == null) throw new IOException("Caminho inválido");
-        String[] parts = splitPath(path);
-        FsNode rem = parent.remove(parts[parts.length - 1]);
+        String name = baseName(path);
+        preserve(parent);
+        FsNode rem = parent.remove(name);
         if (rem == null) throw new IOException("Não encontrado");
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
+        index.unlinked(rem);
+        dentries.invalidate(normalize(path), rem.isDirectory());
+        onUndo(() -> {
+            parent.add(name, rem);
+            index.linked(parent, rem);
+            dentries.invalidate(normalize(path), rem.isDirectory());
+        });
+        return rem;
     }
 
 
     // Lista os arquivos e diretórios dentro de um caminho
-    public synchronized List<String> ls(String path) throws IOException {
-        FsNode n = traverse(path);
+    public List<String> ls(String path) throws IOException {
+        Metrics.Timer t = metrics.start("LS");
+        if (t.traced()) t.args("path", path);
+        FsNode n = lookup(path);
         if (n == null) throw new IOException("Caminho inválido");
         if (!n.isDirectory()) throw new IOException("Não é diretório");
+        t.phase(Metrics.Phase.RESOLVE);
         DirectoryNode d = (DirectoryNode)n;
-        return new ArrayList<>(d.getChildren().keySet());
+        List<String> out = optimisticRead(d, d::names);
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return out;
+    }
+
+    // Página da listagem em ordem de nome: até limit nomes maiores que startAfter
+    // (null = do início) e, com prefix, só os que começam com ele. O último nome da
+    // página é o cursor da seguinte; uma página menor que limit é a última
+    public List<String> ls(String path, String startAfter, int limit, String prefix) throws IOException {
+        if (limit <= 0) throw new IllegalArgumentException("Limite inválido: " + limit);
+        Metrics.Timer t = metrics.start("LS_PAGE");
+        if (t.traced()) t.args("path", path, "after", startAfter, "limit", Integer.toString(limit), "prefix", prefix);
+        FsNode n = lookup(path);
+        if (n == null) throw new IOException("Caminho inválido");
+        if (!n.isDirectory()) throw new IOException("Não é diretório");
+        t.phase(Metrics.Phase.RESOLVE);
+        DirectoryNode d = (DirectoryNode)n;
+        List<String> out = optimisticRead(d, () -> d.list(startAfter, limit, prefix));
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return out;
+    }
+
+    public List<String> ls(String path, String startAfter, int limit) throws IOException {
+        return ls(path, startAfter, limit, null);
     }
 
 
     // Move ou renomeia arquivo/diretório e registra no journal
-    public synchronized void mv(String src, String dst) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("src", src); params.put("dst", dst);
-        journal.appendPending("MV", params);
+    public void mv(String src, String dst) throws IOException {
+        String[] sps = splitPath(src);
+        String[] dps = splitPath(dst);
+        LockPlan plan = new LockPlan()
+                .add(sps, sps.length - 1, true).add(sps, sps.length, true)
+                .add(dps, dps.length - 1, true).add(dps, dps.length, true);
+        mutate(plan, () -> doMv(src, dst), src.length() + dst.length(), "MV", "src", src, "dst", dst);
+    }
 
-        DirectoryNode psrc = traverseParent(src);
-        DirectoryNode pdst = traverseParent(dst);
+    private void doMv(String src, String dst) throws IOException {
+        String skey = normalize(src);
+        String dkey = normalize(dst);
+        if (DentryCache.isUnder(dkey, skey)) {
+            throw new IOException("Não é possível mover um diretório para dentro dele mesmo");
+        }
+        DirectoryNode psrc = traverseParent(skey);
+        DirectoryNode pdst = traverseParent(dkey);
         if (psrc == null || pdst == null) throw new IOException("Caminho inválido");
-        String[] sps = splitPath(src);
-        String sname = sps[sps.length-1];
+        String sname = baseName(skey);
+        preserve(psrc);
+        preserve(pdst);
         FsNode node = psrc.remove(sname);
         if (node == null) throw new IOException("Origem não existe");
-        String[] dps = splitPath(dst);
-        String dname = dps[dps.length-1];
+        String dname = baseName(dkey);
+        FsNode replaced = pdst.get(dname);
         node.setName(dname);
         pdst.add(dname, node);
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
+        if (replaced != null) index.unlinked(replaced);
+        index.moved(node, pdst);
+        if (replaced != null) discard(replaced);
+        // renomear um diretório muda o caminho de toda a subárvore, na origem e no destino
+        boolean subtree = node.isDirectory() || (replaced != null && replaced.isDirectory());
+        dentries.invalidate(skey, node.isDirectory());
+        dentries.invalidate(dkey, subtree);
+        onUndo(() -> {
+            pdst.remove(dname);
+            if (replaced != null) pdst.add(dname, replaced);
+            node.setName(sname);
+            psrc.add(sname, node);
+            index.moved(node, psrc);
+            if (replaced != null) index.linked(pdst, replaced);
+            dentries.invalidate(skey, node.isDirectory());
+            dentries.invalidate(dkey, subtree);
+        });
     }
 
 
     // Copia um arquivo ou diretório e registra no journal
-    public synchronized void cp(String src, String dst) throws IOException {
-        ensureJournal();
-        Map<String,String> params = new HashMap<>();
-        params.put("src", src); params.put("dst", dst);
-        journal.appendPending("CP", params);
+    public void cp(String src, String dst) throws IOException {
+        cp(src, dst, new TreeTask());
+    }
+
+    // cp -r: a cópia é feita em paralelo, contando os nós em task, e entra no journal como
+    // uma única entrada CP. Cancelada, a cópia parcial é descartada e a entrada abortada.
+    public void cp(String src, String dst, TreeTask task) throws IOException {
+        String[] sps = splitPath(src);
+        String[] dps = splitPath(dst);
+        LockPlan plan = new LockPlan()
+                .addSubtree(sps, sps.length)
+                .add(dps, dps.length - 1, true).add(dps, dps.length, true);
+        mutate(plan, () -> doCp(src, dst, task), src.length() + dst.length(), "CP", "src", src, "dst", dst);
+    }
 
+    private void doCp(String src, String dst, TreeTask task) throws IOException {
         FsNode n = traverse(src);
         if (n == null) throw new IOException("Origem não existe");
         DirectoryNode pdst = traverseParent(dst);
         if (pdst == null) throw new IOException("Destino inválido");
-        String[] dps = splitPath(dst);
-        String dname = dps[dps.length-1];
+        String dname = baseName(dst);
+        FsNode replaced = pdst.get(dname);
+        // a cópia é montada inteira antes de entrar na árvore, então copiar um
+        // diretório para dentro dele mesmo não copia a própria cópia
+        FsNode copy = ParallelTree.copy(treePool, n, dname, task, this::newDir, this::newFile);
+        if (task.isCancelled()) {
+            releaseContent(copy);
+            throw new CancellationException("Cópia cancelada");
+        }
+        preserve(pdst);
+        pdst.add(dname, copy);
+        if (replaced != null) index.unlinked(replaced);
+        index.linked(pdst, copy);
+        if (replaced != null) discard(replaced);
+        boolean subtree = n.isDirectory() || (replaced != null && replaced.isDirectory());
+        dentries.invalidate(normalize(dst), subtree);
+        onUndo(() -> {
+            pdst.remove(dname);
+            index.unlinked(copy);
+            releaseContent(copy);
+            if (replaced != null) pdst.add(dname, replaced);
+            if (replaced != null) index.linked(pdst, replaced);
+            dentries.invalidate(normalize(dst), subtree);
+        });
+    }
 
-        if (n.isDirectory()) {
-            DirectoryNode dcopy = new DirectoryNode(dname);
-            DirectoryNode orig = (DirectoryNode) n;
-            for (Map.Entry<String, FsNode> e : orig.getChildren().entrySet()) {
-                FsNode child = e.getValue();
-                if (child.isDirectory()) {
-                    dcopy.add(child.getName(), new DirectoryNode(child.getName()));
-                } else {
-                    FileNode fn = new FileNode(child.getName());
-                    fn.write(((FileNode)child).read());
-                    dcopy.add(fn.getName(), fn);
-                }
+
+    // Espaço de uma subárvore: soma dos tamanhos dos arquivos (lógico) e dos blocos
+    // distintos que eles ocupam (físico); um bloco compartilhado conta uma vez só
+    public static class Usage {
+        public long files;
+        public long logicalBytes;
+        public long physicalBytes;
+    }
+
+    public Usage usage(String path) throws IOException {
+        return usage(path, new TreeTask());
+    }
+
+    // du em paralelo; os blocos vistos ficam num conjunto compartilhado entre as threads
+    public Usage usage(String path, TreeTask task) throws IOException {
+        Metrics.Timer t = metrics.start("DU");
+        if (t.traced()) t.args("path", path);
+        FsNode n = lookup(path);
+        if (n == null) throw new IOException("Caminho inválido");
+        t.phase(Metrics.Phase.RESOLVE);
+        Set<Block> seen = ConcurrentHashMap.newKeySet();
+        Usage u = ParallelTree.fold(queryPool, n, normalize(path), task, new ParallelTree.Fold<Usage>() {
+            @Override public Usage create() { return new Usage(); }
+            @Override public void dir(Usage acc, DirectoryNode d, String p) {}
+            @Override public void file(Usage acc, FileNode f, String dir) {
+                acc.files++;
+                acc.logicalBytes += f.size();
+                seen.addAll(optimisticRead(f, f::blocks));
+            }
+            @Override public void merge(Usage into, Usage from) {
+                into.files += from.files;
+                into.logicalBytes += from.logicalBytes;
+            }
+        });
+        u.physicalBytes = (long) seen.size() * FileNode.BLOCK_SIZE;
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return u;
+    }
+
+
+    // Caminhos da subárvore (incluindo o próprio path) que atendem aos critérios, em ordem.
+    // Com um glob de nome, os candidatos vêm do índice de nomes, sem percorrer a subárvore
+    // (só na imagem serializada, ver grep).
+    public List<String> find(String path, FindQuery query, TreeTask task) throws IOException {
+        Metrics.Timer t = metrics.start("FIND");
+        if (t.traced()) t.args("path", path, "criteria", query.criteria());
+        FsNode n = lookup(path);
+        if (n == null) throw new IOException("Caminho inválido");
+        t.phase(Metrics.Phase.RESOLVE);
+        if (query.nameGlob() != null && nativeImage == null) {
+            SearchIndex idx = index();
+            List<FsNode> hits = idx.byName(query.nameGlob(), query.namePattern());
+            task.visit(hits.size());
+            List<String> out = indexed(idx, hits, normalize(path), query);
+            t.phase(Metrics.Phase.APPLY);
+            t.stop();
+            return out;
+        }
+        List<String> out = ParallelTree.fold(queryPool, n, normalize(path), task, new ParallelTree.Fold<List<String>>() {
+            @Override public List<String> create() { return new ArrayList<>(); }
+            @Override public void dir(List<String> acc, DirectoryNode d, String p) {
+                if (query.matches(d)) acc.add(p);
+            }
+            @Override public void file(List<String> acc, FileNode f, String dir) {
+                if (query.matches(f)) acc.add(ParallelTree.child(dir, f.getName()));
+            }
+            @Override public void merge(List<String> into, List<String> from) { into.addAll(from); }
+        });
+        Collections.sort(out);
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return out;
+    }
+
+
+    // Copia a árvore do host em hostDir para fsPath (criado se não existir), em lotes
+    // grandes do journal; arquivos já existentes são sobrescritos (ver BulkTransfer)
+    public BulkTransfer.Report importTree(Path hostDir, String fsPath, TreeTask task) throws IOException {
+        Metrics.Timer t = metrics.start("IMPORT");
+        if (t.traced()) t.args("host", hostDir.toString(), "path", fsPath);
+        BulkTransfer.Report r = BulkTransfer.importTree(this, hostDir, fsPath, treePool.getParallelism(), task);
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return r;
+    }
+
+    // Grava a subárvore fsPath, como estava num instante, no diretório hostDir do host
+    public BulkTransfer.Report exportTree(String fsPath, Path hostDir, TreeTask task) throws IOException {
+        Metrics.Timer t = metrics.start("EXPORT");
+        if (t.traced()) t.args("path", fsPath, "host", hostDir.toString());
+        BulkTransfer.Report r = BulkTransfer.exportTree(this, fsPath, hostDir, treePool.getParallelism(), task);
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return r;
+    }
+
+    // Nó do caminho (leitura sem travas), ou null
+    FsNode node(String path) { return lookup(path); }
+
+    // Versão fixa da árvore para uma leitura longa; com a imagem nativa, que não tem
+    // snapshots, a árvore viva (cada nó lido de forma consistente, mas não o conjunto)
+    Snapshot view() throws IOException {
+        return nativeImage != null ? new Snapshot(null, 0, root) : pin();
+    }
+
+    // Snapshots (ver Snapshot): criar, apagar e restaurar entram no journal e param os
+    // escritores só pelo tempo da operação; a leitura de um snapshot não trava a árvore.
+    // Exigem a imagem serializada, onde são gravados junto com a árvore.
+    public void createSnapshot(String name) throws IOException {
+        checkSnapshots();
+        mutateExclusive(() -> doSnapshot(name), name.length(), "SNAPSHOT", null, "name", name);
+    }
+
+    public void deleteSnapshot(String name) throws IOException {
+        checkSnapshots();
+        mutateExclusive(() -> doDeleteSnapshot(name), name.length(), "SNAPSHOT_DELETE", null, "name", name);
+    }
+
+    // Volta a árvore ao estado do snapshot (que continua existindo)
+    public void restoreSnapshot(String name) throws IOException {
+        checkSnapshots();
+        mutateExclusive(() -> doRestore(name), name.length(), "RESTORE", null, "name", name);
+    }
+
+    public Snapshot snapshot(String name) throws IOException {
+        Snapshot s = snapshots.get(name);
+        if (s == null) throw new IOException("Snapshot não existe: " + name);
+        return s;
+    }
+
+    // Snapshots nomeados, em ordem de nome
+    public List<Snapshot> snapshots() { return new ArrayList<>(snapshots.values()); }
+
+    // Versão sem nome da árvore atual, fora do journal, para uma leitura consistente
+    // (backup, diff); vale até o close()
+    public Snapshot pin() throws IOException {
+        checkSnapshots();
+        gate.writeLock().lock();
+        try {
+            Snapshot s = new Snapshot(null, ++snapshotEpoch, root);
+            s.pinnedBy(this);
+            pinned.add(s);
+            refreshActive();
+            return s;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    void unpin(Snapshot s) {
+        gate.writeLock().lock();
+        try {
+            if (pinned.remove(s)) forget(s);
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    // Diferenças entre dois snapshots; null é a árvore atual (ver Snapshot.diff)
+    public List<String> diff(String from, String to) throws IOException {
+        Metrics.Timer t = metrics.start("DIFF");
+        if (t.traced()) t.args("from", from, "to", to);
+        try (Snapshot now = from == null || to == null ? pin() : null) {
+            t.phase(Metrics.Phase.RESOLVE);
+            List<String> out = Snapshot.diff(from == null ? now : snapshot(from), to == null ? now : snapshot(to));
+            t.phase(Metrics.Phase.APPLY);
+            t.stop();
+            return out;
+        }
+    }
+
+    private void checkSnapshots() throws IOException {
+        if (nativeImage != null) throw new IOException("Snapshots exigem a imagem serializada");
+    }
+
+    private void doSnapshot(String name) throws IOException {
+        if (name.isEmpty() || name.contains(" ")) throw new IOException("Nome de snapshot inválido: " + name);
+        if (snapshots.containsKey(name)) throw new IOException("Snapshot já existe: " + name);
+        snapshots.put(name, new Snapshot(name, ++snapshotEpoch, root));
+        refreshActive();
+    }
+
+    private void doDeleteSnapshot(String name) throws IOException {
+        Snapshot s = snapshots.remove(name);
+        if (s == null) throw new IOException("Snapshot não existe: " + name);
+        forget(s);
+    }
+
+    // Fim da gravação da imagem: solta o snapshot dela e os que foram soltos no meio
+    private void imageWritten(Image image) {
+        gate.writeLock().lock();
+        try {
+            List<Snapshot> later = forgetLater;
+            forgetLater = null;
+            pinned.remove(image.view);
+            forget(image.view);
+            for (Snapshot s : later) forget(s);
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    // Solta as cópias do snapshot e o que saiu da árvore e só ele ainda enxergava; com o
+    // gate em escrita
+    private void forget(Snapshot s) {
+        refreshActive();
+        if (forgetLater != null) {
+            forgetLater.add(s);
+            return;
+        }
+        s.release();
+        List<Retained> old;
+        synchronized (retained) {
+            old = new ArrayList<>(retained);
+            retained.clear();
+        }
+        for (Retained r : old) drop(r.node, r.removed);
+    }
+
+    private void refreshActive() {
+        List<Snapshot> all = new ArrayList<>(snapshots.values());
+        all.addAll(pinned);
+        all.sort(Comparator.comparingInt(s -> s.epoch));
+        active = all.toArray(new Snapshot[0]);
+    }
+
+    private void doRestore(String name) throws IOException {
+        Snapshot s = snapshot(name);
+        restoreDir(s, root);
+        dentries.invalidate("/", true);
+    }
+
+    // Deixa o diretório vivo d como ele está no snapshot: nós que não mudaram desde então
+    // ficam, arquivos alterados voltam ao conteúdo guardado e o que foi trocado, movido ou
+    // apagado é copiado (copy-on-write) da versão do snapshot. Leitores não passam pelo
+    // gate, então cada nó fica travado em escrita enquanto muda.
+    private void restoreDir(Snapshot s, DirectoryNode d) {
+        Map<String, FsNode> target = s.children(d);
+        Map<String, FsNode> current = new LinkedHashMap<>(d.getChildren());
+        for (Map.Entry<String, FsNode> c : current.entrySet()) {
+            if (target.get(c.getKey()) != c.getValue()) changing(d, () -> {
+                FsNode gone = d.remove(c.getKey());
+                index.unlinked(gone);
+                dropped(gone);
+            });
+        }
+        for (Map.Entry<String, FsNode> e : target.entrySet()) {
+            FsNode n = e.getValue();
+            if (current.get(e.getKey()) != n) {
+                FsNode copy = materialize(s, n, e.getKey());
+                changing(d, () -> d.add(e.getKey(), copy));
+                index.linked(d, copy);
+            } else if (n.isDirectory()) {
+                restoreDir(s, (DirectoryNode) n);
+            } else if (s.isPreserved(n)) {
+                FileNode f = (FileNode) n, old = (FileNode) s.state(n);
+                changing(f, () -> {
+                    f.copyFrom(old);
+                    f.modifiedAt = old.getModifiedAt();
+                });
+                index.changed(f);
             }
-            pdst.add(dname, dcopy);
+        }
+    }
+
+    private void changing(FsNode n, Runnable change) {
+        long stamp = n.lock().writeLock();
+        try {
+            preserve(n);
+            change.run();
+        } finally {
+            n.lock().unlockWrite(stamp);
+        }
+    }
+
+    // Cópia nova da versão do snapshot de n (arquivos compartilham os blocos)
+    private FsNode materialize(Snapshot s, FsNode n, String name) {
+        if (!n.isDirectory()) {
+            FileNode f = newFile(name);
+            s.read(n, v -> {
+                f.copyFrom((FileNode) v);
+                f.modifiedAt = v.getModifiedAt();
+                return f;
+            });
+            return f;
+        }
+        DirectoryNode d = newDir(name);
+        for (Map.Entry<String, FsNode> c : s.children(n).entrySet()) d.add(c.getKey(), materialize(s, c.getValue(), c.getKey()));
+        return d;
+    }
+
+
+    // Arquivos da subárvore com todas as palavras (letras e dígitos, sem diferença de
+    // maiúsculas), pelo índice invertido do conteúdo; em ordem de caminho. A imagem nativa
+    // não guarda o índice (montá-lo leria a árvore inteira, que ela carrega sob demanda):
+    // nela o grep, como o find por nome, percorre a subárvore em paralelo.
+    public List<String> grep(String path, String words) throws IOException {
+        Metrics.Timer t = metrics.start("GREP");
+        if (t.traced()) t.args("path", path, "words", words);
+        FsNode n = lookup(path);
+        if (n == null) throw new IOException("Caminho inválido");
+        t.phase(Metrics.Phase.RESOLVE);
+        List<String> out;
+        if (nativeImage != null) {
+            out = scan(n, normalize(path), words);
         } else {
-            FileNode fn = (FileNode) n;
-            FileNode copy = new FileNode(dname);
-            copy.write(fn.read());
-            pdst.add(dname, copy);
+            SearchIndex idx = index();
+            out = indexed(idx, idx.byWords(words), normalize(path), null);
+        }
+        t.phase(Metrics.Phase.APPLY);
+        t.stop();
+        return out;
+    }
+
+    // Índice pronto para consulta; remontado, com os escritores parados, se a thread dele
+    // o descartou depois de um erro
+    private SearchIndex index() {
+        if (!index.isReady()) {
+            gate.writeLock().lock();
+            try {
+                if (!index.isReady()) index.build(root);
+            } finally {
+                gate.writeLock().unlock();
+            }
+        }
+        return index;
+    }
+
+    // grep sem índice: lê e tokeniza cada arquivo (os acima de SearchIndex.MAX_CONTENT
+    // ficam de fora, como no índice)
+    private List<String> scan(FsNode n, String path, String words) {
+        Set<String> wanted = SearchIndex.tokenize(words);
+        if (wanted.isEmpty()) return new ArrayList<>();
+        List<String> out = ParallelTree.fold(queryPool, n, path, new TreeTask(), new ParallelTree.Fold<List<String>>() {
+            @Override public List<String> create() { return new ArrayList<>(); }
+            @Override public void dir(List<String> acc, DirectoryNode d, String p) {}
+            @Override public void file(List<String> acc, FileNode f, String dir) {
+                if (f.size() > SearchIndex.MAX_CONTENT) return;
+                String text = new String(optimisticRead(f, f::readBytes), StandardCharsets.UTF_8);
+                if (SearchIndex.tokenize(text).containsAll(wanted)) acc.add(ParallelTree.child(dir, f.getName()));
+            }
+            @Override public void merge(List<String> into, List<String> from) { into.addAll(from); }
+        });
+        Collections.sort(out);
+        return out;
+    }
+
+    // Caminhos dos nós achados no índice que estão em base e passam em query, em ordem.
+    // Um nó movido no meio da consulta pode ter o caminho montado errado: só fica o que
+    // ainda é achado pelo caminho.
+    private List<String> indexed(SearchIndex idx, List<? extends FsNode> hits, String base, FindQuery query) {
+        List<String> out = new ArrayList<>();
+        for (FsNode n : hits) {
+            String p = idx.path(n);
+            if (p == null || !(p.equals(base) || DentryCache.isUnder(p, base))) continue;
+            if ((query == null || query.matches(n)) && lookup(p) == n) out.add(p);
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+
+    // Aplica uma operação diretamente na árvore, sem gerar nova entrada no journal
+    private void applyOp(Op op) throws IOException {
+        Map<String,String> p = op.params;
+        switch (op.type) {
+            case "MKDIR": doMkdir(p.get("path"));
+            break;
+            case "RMDIR": doRmdir(p.get("path"));
+            break;
+            case "TOUCH": doTouch(p.get("path"));
+            break;
+            case "WRITE": doWriteFile(p.get("path"), p.get("content"));
+            break;
+            case "RM": doRm(p.get("path"));
+            break;
+            case "MV": doMv(p.get("src"), p.get("dst"));
+            break;
+            case "CP": doCp(p.get("src"), p.get("dst"), new TreeTask());
+            break;
+            case "WRITE_AT": doWriteAt(p.get("path"), Long.parseLong(p.get("offset")), op.data);
+            break;
+            case "TRUNCATE": doTruncate(p.get("path"), Long.parseLong(p.get("size")));
+            break;
+            case "BATCH": applyBatch(Journal.decodeBatch(op.data), false, false);
+            break;
+            case "SNAPSHOT": doSnapshot(p.get("name"));
+            break;
+            case "SNAPSHOT_DELETE": doDeleteSnapshot(p.get("name"));
+            break;
+            case "RESTORE": doRestore(p.get("name"));
+            break;
         }
-        persistImage();
-        List<Journal.Entry> pend = journal.pending();
-        if (!pend.isEmpty()) journal.markCommit(pend.get(pend.size()-1).id);
     }
 
 
-    // Reexecuta operações pendentes do journal para recuperar estado consistente
+    // Reaplica o journal direto na árvore (JournalReplay): com checkpointId, o sufixo
+    // posterior à imagem; sem ele (imagens antigas), as entradas pendentes. Depois grava
+    // um único checkpoint e resolve as entradas que estavam PENDING.
     private void recoverFromJournal() throws IOException {
         ensureJournal();
-        List<Journal.Entry> pending = journal.pending();
-        for (Journal.Entry e : pending) {
-            try {
-                switch (e.type) {
-                    case "MKDIR": mkdir(e.params.get("path"));
-                    break;
-                    case "RMDIR": rmdir(e.params.get("path"));
-                    break;
-                    case "TOUCH": touch(e.params.get("path"));
-                    break;
-                    case "WRITE": writeFile(e.params.get("path"), e.params.get("content"));
-                    break;
-                    case "RM": rm(e.params.get("path"));
-                    break;
-                    case "MV": mv(e.params.get("src"), e.params.get("dst"));
-                    break;
-                    case "CP": cp(e.params.get("src"), e.params.get("dst"));
-                    break;
-                }
-                journal.markCommit(e.id);
-            } catch (Exception ex) {
-                System.err.println("Erro ao reaplicar entrada do journal: " + ex.getMessage());
+        List<Journal.Entry> entries = checkpointId != null ? journal.entriesAfter(checkpointId) : journal.pending();
+        if (entries.isEmpty()) return;
+        JournalReplay.Report r = JournalReplay.run(entries, this::replayOp);
+        checkpoint();
+        journal.markResolved(r.committed, r.aborted);
+        recovery = r;
+        System.err.println(r);
+    }
+
+    // Resultado da última recuperação feita na abertura, ou null se não havia o que reaplicar
+    public JournalReplay.Report lastRecovery() { return recovery; }
+
+    // Aplica uma operação do journal; false se o efeito dela já estava na árvore
+    private boolean replayOp(Op op) throws IOException {
+        if (op.type.equals("BATCH")) return applyBatch(Journal.decodeBatch(op.data), false, true) > 0;
+        if (alreadyApplied(op)) return false;
+        applyOp(op);
+        return true;
+    }
+
+    // O estado posterior da operação já está na árvore: reaplicá-la não mudaria nada
+    // (ou falharia só porque ela já foi aplicada, como MKDIR de um diretório existente)
+    private boolean alreadyApplied(Op op) {
+        Map<String,String> p = op.params;
+        FsNode n = p.containsKey("path") ? traverse(p.get("path")) : null;
+        switch (op.type) {
+            case "MKDIR": return n != null && n.isDirectory();
+            case "RMDIR":
+            case "RM": return n == null;
+            case "TOUCH": return n != null;
+            case "WRITE": return n instanceof FileNode && sameContent((FileNode) n, 0, p.get("content").getBytes(StandardCharsets.UTF_8), true);
+            case "WRITE_AT": return n instanceof FileNode && sameContent((FileNode) n, Long.parseLong(p.get("offset")), op.data, false);
+            case "TRUNCATE": return n instanceof FileNode && ((FileNode) n).size() == Long.parseLong(p.get("size"));
+            case "MV": return traverse(p.get("src")) == null && traverse(p.get("dst")) != null;
+            case "SNAPSHOT": return snapshots.containsKey(p.get("name"));
+            case "SNAPSHOT_DELETE": return !snapshots.containsKey(p.get("name"));
+            case "CP": {
+                FsNode src = traverse(p.get("src"));
+                FsNode dst = traverse(p.get("dst"));
+                return src instanceof FileNode && dst instanceof FileNode
+                        && sameContent((FileNode) dst, 0, ((FileNode) src).readBytes(), true);
             }
+            default: return false;
         }
     }
+
+    // Os bytes a partir de offset são iguais a data (e, com whole, o arquivo termina neles)
+    private static boolean sameContent(FileNode f, long offset, byte[] data, boolean whole) {
+        if (whole ? f.size() != offset + data.length : f.size() < offset + data.length) return false;
+        byte[] cur = new byte[data.length];
+        if (data.length > 0) f.read(offset, cur, 0, cur.length);
+        return Arrays.equals(cur, data);
+    }
 }
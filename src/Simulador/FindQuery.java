@@ -0,0 +1,102 @@
+package Simulador;
+
+import java.util.regex.Pattern;
+
+/**
+ * Critérios do find: nome por glob (* ? e [abc], sobre o último componente), tipo,
+ * faixa de tamanho e de modificação (FsNode.modifiedAt, em ms desde a época). Um
+ * critério não definido aceita tudo; com faixa de tamanho, só arquivos passam.
+ */
+public class FindQuery {
+    public enum Type { ANY, FILE, DIRECTORY }
+
+    private Pattern name;
+    private String glob;
+    private Type type = Type.ANY;
+    private long minSize = -1;
+    private long maxSize = Long.MAX_VALUE;
+    private long modifiedAfter = Long.MIN_VALUE;
+    private long modifiedBefore = Long.MAX_VALUE;
+
+    public static FindQuery any() { return new FindQuery(); }
+
+    public FindQuery name(String glob) { this.name = glob(glob); this.glob = glob; return this; }
+    public FindQuery type(Type t) { this.type = t; return this; }
+    public FindQuery minSize(long bytes) { this.minSize = bytes; return this; }
+    public FindQuery maxSize(long bytes) { this.maxSize = bytes; return this; }
+    public FindQuery modifiedAfter(long millis) { this.modifiedAfter = millis; return this; }
+    public FindQuery modifiedBefore(long millis) { this.modifiedBefore = millis; return this; }
+
+    // Critérios na forma do shell: [name=GLOB] [type=f|d] [minsize=N] [maxsize=N]
+    // [mmin=N] (alterados nos últimos N minutos) [after=MS] [before=MS] (ms desde a
+    // época), separados por espaços
+    public static FindQuery parse(String opts) {
+        FindQuery q = any();
+        for (String o : opts.trim().split("\\s+")) {
+            if (o.isEmpty()) continue;
+            if (o.startsWith("name=")) q.name(o.substring(5));
+            else if (o.equals("type=f")) q.type(Type.FILE);
+            else if (o.equals("type=d")) q.type(Type.DIRECTORY);
+            else if (o.startsWith("minsize=")) q.minSize(Long.parseLong(o.substring(8)));
+            else if (o.startsWith("maxsize=")) q.maxSize(Long.parseLong(o.substring(8)));
+            else if (o.startsWith("mmin=")) q.modifiedAfter(System.currentTimeMillis() - Long.parseLong(o.substring(5)) * 60_000);
+            else if (o.startsWith("after=")) q.modifiedAfter(Long.parseLong(o.substring(6)));
+            else if (o.startsWith("before=")) q.modifiedBefore(Long.parseLong(o.substring(7)));
+            else throw new IllegalArgumentException("Opção desconhecida: " + o);
+        }
+        return q;
+    }
+
+    // Os critérios definidos na forma de parse (gravada no trace do find)
+    String criteria() {
+        StringBuilder sb = new StringBuilder();
+        if (glob != null) sb.append(" name=").append(glob);
+        if (type != Type.ANY) sb.append(type == Type.FILE ? " type=f" : " type=d");
+        if (minSize >= 0) sb.append(" minsize=").append(minSize);
+        if (maxSize != Long.MAX_VALUE) sb.append(" maxsize=").append(maxSize);
+        if (modifiedAfter != Long.MIN_VALUE) sb.append(" after=").append(modifiedAfter);
+        if (modifiedBefore != Long.MAX_VALUE) sb.append(" before=").append(modifiedBefore);
+        return sb.toString().trim();
+    }
+
+    // glob do nome e a expressão dele, ou null (ver SearchIndex.byName)
+    String nameGlob() { return glob; }
+    Pattern namePattern() { return name; }
+
+    boolean matches(FsNode n) {
+        if (type == Type.FILE && n.isDirectory()) return false;
+        if (type == Type.DIRECTORY && !n.isDirectory()) return false;
+        if (minSize >= 0 || maxSize != Long.MAX_VALUE) {
+            if (n.isDirectory()) return false;
+            long size = ((FileNode) n).size();
+            if (size < minSize || size > maxSize) return false;
+        }
+        long m = n.getModifiedAt();
+        if (m <= modifiedAfter || m >= modifiedBefore) return false;
+        return name == null || name.matcher(n.getName()).matches();
+    }
+
+    private static Pattern glob(String glob) {
+        StringBuilder re = new StringBuilder();
+        boolean inClass = false;
+        for (char c : glob.toCharArray()) {
+            if (inClass) {
+                if (c == ']') inClass = false;
+                if (c == '\\') re.append('\\');
+                // [!abc] é a negação do glob
+                re.append(c == '!' && re.charAt(re.length() - 1) == '[' ? '^' : c);
+            } else if (c == '*') {
+                re.append(".*");
+            } else if (c == '?') {
+                re.append('.');
+            } else if (c == '[') {
+                inClass = true;
+                re.append('[');
+            } else {
+                re.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (inClass) throw new IllegalArgumentException("Glob inválido: " + glob);
+        return Pattern.compile(re.toString());
+    }
+}
@@ -0,0 +1,273 @@
+package Simulador;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static Simulador.FsProtocol.*;
+
+/**
+ * Cliente do FsServer. Cada método manda uma requisição e devolve um CompletableFuture
+ * sem esperar a resposta, então várias requisições seguem pela conexão ao mesmo tempo
+ * (pipelining); await() espera uma delas. Requisições de várias threads são gravadas
+ * juntas: quem encontra a conexão livre grava as que se acumularam enquanto isso.
+ *
+ * As respostas são lidas por uma thread do cliente, que completa os futuros: callbacks
+ * que bloqueiam devem usar as variantes *Async do CompletableFuture. No máximo
+ * maxInFlight requisições ficam sem resposta; acima disso a submissão bloqueia.
+ */
+public class FsClient implements Closeable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final DataInputStream in;
+    private final Thread reader;
+    private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Semaphore permits;
+    // quadros esperando gravação e se alguém os está gravando (sob queue)
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private boolean writing;
+    private volatile IOException failure;
+
+    public FsClient(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress().getHostAddress(), port, FsServer.MAX_IN_FLIGHT);
+    }
+
+    public FsClient(String host, int port, int maxInFlight) throws IOException {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Limite inválido: " + maxInFlight);
+        this.permits = new Semaphore(maxInFlight);
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.reader = new Thread(this::readReplies, "fs-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // ---- alterações ----
+
+    public CompletableFuture<Void> apply(Op op) { return apply(List.of(op)); }
+
+    // Lote tudo-ou-nada, numa única requisição
+    public CompletableFuture<Void> apply(List<Op> ops) {
+        return call(request(APPLY).bytes(Journal.encodeBatch(ops))).thenApply(b -> null);
+    }
+
+    public CompletableFuture<Void> mkdir(String path) { return apply(Op.mkdir(path)); }
+    public CompletableFuture<Void> rmdir(String path) { return apply(Op.rmdir(path)); }
+    public CompletableFuture<Void> touch(String path) { return apply(Op.touch(path)); }
+    public CompletableFuture<Void> writeFile(String path, String content) { return apply(Op.writeFile(path, content)); }
+    public CompletableFuture<Void> write(String path, long offset, byte[] data) { return apply(Op.write(path, offset, data)); }
+    public CompletableFuture<Void> truncate(String path, long size) { return apply(Op.truncate(path, size)); }
+    public CompletableFuture<Void> rm(String path) { return apply(Op.rm(path)); }
+    public CompletableFuture<Void> mv(String src, String dst) { return apply(Op.mv(src, dst)); }
+    public CompletableFuture<Void> cp(String src, String dst) { return apply(Op.cp(src, dst)); }
+
+    // rm -r e cp -r
+    public CompletableFuture<Void> rmTree(String path) { return call(request(RM_TREE).string(path)).thenApply(b -> null); }
+    public CompletableFuture<Void> cpTree(String src, String dst) {
+        return call(request(CP_TREE).string(src).string(dst)).thenApply(b -> null);
+    }
+
+    // ---- leituras e consultas ----
+
+    public CompletableFuture<String> readFile(String path) {
+        return call(request(READ_FILE).string(path)).thenApply(FsProtocol::string);
+    }
+
+    public CompletableFuture<byte[]> read(String path, long offset, int len) {
+        return call(request(READ).string(path).writeLong(offset).writeInt(len)).thenApply(FsProtocol::bytes);
+    }
+
+    public CompletableFuture<List<String>> ls(String path) {
+        return call(request(LS).string(path)).thenApply(FsProtocol::strings);
+    }
+
+    public CompletableFuture<List<String>> ls(String path, String startAfter, int limit, String prefix) {
+        return call(request(LS_PAGE).string(path).string(startAfter).writeInt(limit).string(prefix)).thenApply(FsProtocol::strings);
+    }
+
+    public CompletableFuture<FileSystemSimulator.Usage> usage(String path) {
+        return call(request(USAGE).string(path)).thenApply(b -> {
+            FileSystemSimulator.Usage u = new FileSystemSimulator.Usage();
+            u.files = b.getLong();
+            u.logicalBytes = b.getLong();
+            u.physicalBytes = b.getLong();
+            return u;
+        });
+    }
+
+    // criteria no formato de FindQuery.parse ("name=*.log type=f")
+    public CompletableFuture<List<String>> find(String path, String criteria) {
+        return call(request(FIND).string(path).string(criteria)).thenApply(FsProtocol::strings);
+    }
+
+    public CompletableFuture<List<String>> grep(String path, String words) {
+        return call(request(GREP).string(path).string(words)).thenApply(FsProtocol::strings);
+    }
+
+    // ---- snapshots, transferência e manutenção ----
+
+    public CompletableFuture<Void> createSnapshot(String name) { return snapshot("create", name); }
+    public CompletableFuture<Void> deleteSnapshot(String name) { return snapshot("delete", name); }
+    public CompletableFuture<Void> restoreSnapshot(String name) { return snapshot("restore", name); }
+
+    private CompletableFuture<Void> snapshot(String action, String name) {
+        return call(request(SNAPSHOT).string(action).string(name)).thenApply(b -> null);
+    }
+
+    public CompletableFuture<List<String>> snapshots() {
+        return call(request(SNAPSHOTS)).thenApply(FsProtocol::strings);
+    }
+
+    // to null compara com a árvore atual
+    public CompletableFuture<List<String>> diff(String from, String to) {
+        return call(request(DIFF).string(from).string(to)).thenApply(FsProtocol::strings);
+    }
+
+    // Diretórios locais do lado do servidor (que roda na mesma máquina)
+    public CompletableFuture<String> importTree(String hostDir, String fsPath) {
+        return call(request(IMPORT).string(hostDir).string(fsPath)).thenApply(FsProtocol::string);
+    }
+
+    public CompletableFuture<String> exportTree(String fsPath, String hostDir) {
+        return call(request(EXPORT).string(fsPath).string(hostDir)).thenApply(FsProtocol::string);
+    }
+
+    public CompletableFuture<Void> checkpoint() { return call(request(CHECKPOINT)).thenApply(b -> null); }
+
+    public CompletableFuture<Long> compact() { return call(request(COMPACT)).thenApply(ByteBuffer::getLong); }
+
+    // Métricas do servidor e vazão de cada conexão
+    public CompletableFuture<String> stats() { return call(request(STATS)).thenApply(FsProtocol::string); }
+
+    // Espera o resultado; erros do servidor voltam como IOException ou IllegalArgumentException
+    public static <T> T await(CompletableFuture<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido esperando o servidor");
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        }
+    }
+
+    // Requisições sem resposta
+    public int outstanding() { return pending.size(); }
+
+    // ---- conexão ----
+
+    private Message request(byte code) { return new Message(ids.incrementAndGet(), code); }
+
+    private CompletableFuture<ByteBuffer> call(Message w) {
+        CompletableFuture<ByteBuffer> f = new CompletableFuture<>();
+        ByteBuffer frame;
+        try {
+            frame = w.frame();
+            permits.acquire();
+        } catch (IllegalArgumentException e) {
+            f.completeExceptionally(e);
+            return f;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            f.completeExceptionally(e);
+            return f;
+        }
+        pending.put(w.id, f);
+        // depois de registrar: ou esta thread vê a falha, ou fail() vê o futuro
+        IOException failed = failure;
+        if (failed != null) {
+            if (pending.remove(w.id) != null) permits.release();
+            f.completeExceptionally(failed);
+            return f;
+        }
+        boolean write;
+        synchronized (queue) {
+            queue.add(frame);
+            write = !writing;
+            writing = true;
+        }
+        if (write) drain();
+        return f;
+    }
+
+    // Grava os quadros acumulados até a fila esvaziar
+    private void drain() {
+        while (true) {
+            ByteBuffer[] batch;
+            synchronized (queue) {
+                if (queue.isEmpty()) {
+                    writing = false;
+                    return;
+                }
+                batch = queue.toArray(new ByteBuffer[0]);
+                queue.clear();
+            }
+            try {
+                for (ByteBuffer b : batch) out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+                out.flush();
+            } catch (IOException e) {
+                synchronized (queue) {
+                    queue.clear();
+                    writing = false;
+                }
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    private void readReplies() {
+        try {
+            while (true) {
+                int len = in.readInt();
+                if (len < HEADER - 4 || len > MAX_FRAME) throw new IOException("Resposta inválida: " + len + " bytes");
+                int id = in.readInt();
+                byte status = in.readByte();
+                byte[] body = new byte[len - (HEADER - 4)];
+                in.readFully(body);
+                CompletableFuture<ByteBuffer> f = pending.remove(id);
+                if (f == null) continue;
+                permits.release();
+                ByteBuffer b = ByteBuffer.wrap(body);
+                if (status == OK) f.complete(b);
+                else if (status == IO_ERROR) f.completeExceptionally(new IOException(FsProtocol.string(b)));
+                else f.completeExceptionally(new IllegalArgumentException(FsProtocol.string(b)));
+            }
+        } catch (IOException e) {
+            fail(socket.isClosed() ? new IOException("Cliente encerrado") : e);
+        }
+    }
+
+    // Conexão perdida: falha as requisições em andamento e as próximas
+    private void fail(IOException e) {
+        if (failure == null) failure = e;
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<ByteBuffer> f = pending.remove(id);
+            if (f == null) continue;
+            permits.release();
+            f.completeExceptionally(failure);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package Simulador;
+
+/**
+ * Opções de construção do FileSystemSimulator.
+ * Os valores padrão reproduzem o comportamento original (imagem gravada a cada operação).
+ */
+public class FsConfig {
+    // Formato de fs.img: grafo Java serializado (regravado inteiro) ou imagem nativa em blocos
+    public enum ImageFormat { SERIALIZED, NATIVE }
+
+    private CheckpointPolicy checkpointPolicy;
+    private Journal.Durability durability = Journal.Durability.SYNC_BATCH;
+    private long journalSegmentBytes = Journal.DEFAULT_SEGMENT_BYTES;
+    private boolean offHeapContent;
+    private int dentryCacheSize = DentryCache.DEFAULT_CAPACITY;
+    private ImageFormat imageFormat = ImageFormat.SERIALIZED;
+    private int nativeImageInodes = NativeImage.DEFAULT_INODES;
+    private int nativeImageBlocks = NativeImage.DEFAULT_BLOCKS;
+    private boolean metrics = true;
+    private int treeParallelism = Runtime.getRuntime().availableProcessors();
+    private long pageCacheBytes;
+    private boolean compactNodes;
+    private boolean sortedDirectories;
+    private String traceFile;
+
+    public static FsConfig defaults() { return new FsConfig(); }
+
+    public CheckpointPolicy getCheckpointPolicy() { return checkpointPolicy; }
+    public FsConfig checkpointPolicy(CheckpointPolicy p) { this.checkpointPolicy = p; return this; }
+
+    public Journal.Durability getDurability() { return durability; }
+    public FsConfig durability(Journal.Durability d) { this.durability = d; return this; }
+
+    public long getJournalSegmentBytes() { return journalSegmentBytes; }
+    public FsConfig journalSegmentBytes(long bytes) { this.journalSegmentBytes = bytes; return this; }
+
+    // conteúdo dos arquivos novos em ByteBuffers diretos, fora do heap
+    public boolean isOffHeapContent() { return offHeapContent; }
+    public FsConfig offHeapContent(boolean offHeap) { this.offHeapContent = offHeap; return this; }
+
+    // número máximo de caminhos no dentry cache; 0 desativa
+    public int getDentryCacheSize() { return dentryCacheSize; }
+    public FsConfig dentryCacheSize(int entries) { this.dentryCacheSize = entries; return this; }
+
+    public ImageFormat getImageFormat() { return imageFormat; }
+    public FsConfig imageFormat(ImageFormat f) { this.imageFormat = f; return this; }
+
+    // capacidade de uma imagem nativa nova (número de nós e de blocos de 4 KB)
+    public int getNativeImageInodes() { return nativeImageInodes; }
+    public int getNativeImageBlocks() { return nativeImageBlocks; }
+    public FsConfig nativeImageCapacity(int inodes, int blocks) {
+        this.nativeImageInodes = inodes;
+        this.nativeImageBlocks = blocks;
+        return this;
+    }
+
+    // histogramas de latência e contadores (Metrics); desligados não custam nada
+    public boolean isMetricsEnabled() { return metrics; }
+    public FsConfig metrics(boolean enabled) { this.metrics = enabled; return this; }
+
+    // threads das operações recursivas (du, find, rm -r, cp -r)
+    public int getTreeParallelism() { return treeParallelism; }
+    public FsConfig treeParallelism(int threads) { this.treeParallelism = threads; return this; }
+
+    // conteúdo em memória limitado a tantos bytes; o resto vai para <imagem>.spill (0: sem limite)
+    public long getPageCacheBytes() { return pageCacheBytes; }
+    public FsConfig pageCacheBytes(long bytes) { this.pageCacheBytes = bytes; return this; }
+
+    // diretórios com os filhos em vetores (ChildTable) e nomes compartilhados entre os nós
+    public boolean isCompactNodes() { return compactNodes; }
+    public FsConfig compactNodes(boolean enabled) { this.compactNodes = enabled; return this; }
+
+    // ls em ordem de nome e índice ordenado (ChildIndex) nos diretórios grandes; sem a
+    // opção, ls segue a ordem de criação em qualquer tamanho
+    public boolean isSortedDirectories() { return sortedDirectories; }
+    public FsConfig sortedDirectories(boolean enabled) { this.sortedDirectories = enabled; return this; }
+
+    // grava cada chamada, com tempo, thread e latência, neste arquivo (ver TraceReplay); null desliga
+    public String getTraceFile() { return traceFile; }
+    public FsConfig traceFile(String path) { this.traceFile = path; return this; }
+}
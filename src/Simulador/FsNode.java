@@ -1,12 +1,30 @@
 package Simulador;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.StampedLock;
 
 public abstract class FsNode implements Serializable {
     private static final long serialVersionUID = 1L;
     protected String name;
     protected long createdAt;
     protected long modifiedAt;
+    // trava do nó: leitores usam leitura otimista, escritores travam (ver LockPlan)
+    // criada no primeiro uso: a maior parte dos nós de uma árvore grande nunca é travada
+    private transient volatile StampedLock lock;
+    private static final AtomicReferenceFieldUpdater<FsNode, StampedLock> LOCK =
+            AtomicReferenceFieldUpdater.newUpdater(FsNode.class, StampedLock.class, "lock");
+    // inode na imagem nativa (0 = ainda não gravado) e alteração desde o último checkpoint dela
+    transient int inode;
+    transient volatile boolean dirty;
+    // época do snapshot mais novo que já tem o estado deste nó guardado (ver Snapshot);
+    // vai na imagem com os snapshots, senão a primeira escrita após recarregar guardaria
+    // cópias à toa (imagens antigas voltam com 0, o que só custa essas cópias)
+    int snapEpoch;
+    // valor de snapshotEpoch na criação: snapshots até essa época não enxergam o nó
+    int bornEpoch;
+    // posição no SearchIndex (0 = fora dele)
+    transient int searchId;
 
     public FsNode(String name) {
         this.name = name;
@@ -17,6 +35,16 @@ public abstract class FsNode implements Serializable {
     public String getName() { return name; }
     public void setName(String n) { name = n; touch(); }
     public long getModifiedAt() { return modifiedAt; }
-    public void touch() { modifiedAt = System.currentTimeMillis(); }
+    public void touch() {
+        modifiedAt = System.currentTimeMillis();
+        dirty = true;
+    }
     public abstract boolean isDirectory();
+
+    public StampedLock lock() {
+        StampedLock l = lock;
+        if (l != null) return l;
+        LOCK.compareAndSet(this, null, new StampedLock());
+        return lock;
+    }
 }
@@ -0,0 +1,148 @@
+package Simulador;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocolo binário entre FsServer e FsClient. Cada mensagem é um quadro
+ *
+ *   int tamanho (do resto) | int id | byte código | corpo
+ *
+ * Na requisição o código é a operação; na resposta, o estado (OK ou o tipo do erro), com
+ * o id da requisição. O cliente pode mandar várias requisições sem esperar as respostas,
+ * que voltam na ordem em que terminam. No corpo, textos e bytes vão como int tamanho
+ * (-1 = null) seguido dos bytes (UTF-8), listas como int n seguido dos itens.
+ *
+ * As alterações vão todas em APPLY, com as operações no formato das entradas BATCH do
+ * journal (Journal.encodeBatch): uma só é aplicada como apply(Op), várias como um lote
+ * tudo-ou-nada.
+ */
+final class FsProtocol {
+    // maior quadro aceito; acima disso a conexão é encerrada
+    static final int MAX_FRAME = 64 << 20;
+    static final int HEADER = 9;
+
+    // ---- requisições ----
+    static final byte APPLY = 1;        // ops → nada
+    static final byte READ_FILE = 2;    // path → texto
+    static final byte READ = 3;         // path, long offset, int len → bytes
+    static final byte LS = 4;           // path → lista
+    static final byte LS_PAGE = 5;      // path, depoisDe, int limite, prefixo → lista
+    static final byte RM_TREE = 6;      // path → nada (rm -r)
+    static final byte CP_TREE = 7;      // src, dst → nada (cp -r)
+    static final byte USAGE = 8;        // path → long arquivos, long lógicos, long físicos
+    static final byte FIND = 9;         // path, critérios (FindQuery.parse) → lista
+    static final byte GREP = 10;        // path, palavras → lista
+    static final byte SNAPSHOT = 11;    // ação (create|delete|restore), nome → nada
+    static final byte SNAPSHOTS = 12;   // → lista de nomes
+    static final byte DIFF = 13;        // de, para → lista
+    static final byte IMPORT = 14;      // diretório local, path → texto (relatório)
+    static final byte EXPORT = 15;      // path, diretório local → texto (relatório)
+    static final byte CHECKPOINT = 16;  // → nada
+    static final byte COMPACT = 17;     // → long bytes recuperados
+    static final byte STATS = 18;       // → texto (métricas e conexões)
+
+    // ---- estado da resposta ----
+    static final byte OK = 0;
+    static final byte IO_ERROR = 1;      // corpo: mensagem da IOException
+    static final byte INVALID = 2;       // corpo: mensagem (argumento inválido, estado, protocolo)
+
+    private FsProtocol() {}
+
+    // Corpo de uma mensagem; frame() devolve o quadro completo, pronto para gravar
+    static final class Message {
+        final int id;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Message(int id, byte code) {
+            this.id = id;
+            try {
+                out.writeInt(0);
+                out.writeInt(id);
+                out.writeByte(code);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Message string(String s) {
+            return bytes(s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Message bytes(byte[] b) {
+            try {
+                if (b == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Message strings(List<String> list) {
+            writeInt(list.size());
+            for (String s : list) string(s);
+            return this;
+        }
+
+        Message writeInt(int v) {
+            try {
+                out.writeInt(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Message writeLong(long v) {
+            try {
+                out.writeLong(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        ByteBuffer frame() {
+            ByteBuffer b = ByteBuffer.wrap(bytes.toByteArray());
+            if (b.remaining() - 4 > MAX_FRAME) throw new IllegalArgumentException("Mensagem grande demais: " + b.remaining() + " bytes");
+            b.putInt(0, b.remaining() - 4);
+            return b;
+        }
+    }
+
+    // ---- leitura do corpo ----
+
+    static String string(ByteBuffer b) {
+        byte[] v = bytes(b);
+        return v == null ? null : new String(v, StandardCharsets.UTF_8);
+    }
+
+    static byte[] bytes(ByteBuffer b) {
+        int n = b.getInt();
+        if (n < 0) return null;
+        if (n > b.remaining()) throw new IllegalArgumentException("Mensagem truncada");
+        byte[] v = new byte[n];
+        b.get(v);
+        return v;
+    }
+
+    static List<String> strings(ByteBuffer b) {
+        int n = b.getInt();
+        if (n < 0 || n > b.remaining() / 4) throw new IllegalArgumentException("Mensagem truncada");
+        List<String> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(string(b));
+        return out;
+    }
+}
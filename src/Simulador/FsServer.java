@@ -0,0 +1,504 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static Simulador.FsProtocol.*;
+
+/**
+ * Servidor TCP local (só no loopback) que compartilha um FileSystemSimulator entre
+ * processos pelo FsProtocol. Uma única thread com um Selector aceita, lê e grava todas as
+ * conexões; cada requisição decodificada vai para um AsyncFileSystem, que a executa fora
+ * dessa thread na ordem por caminho e completa as alterações pelo group commit do journal.
+ * A resposta entra na fila da conexão e é gravada pela thread do Selector, junto com as
+ * outras que estiverem prontas.
+ *
+ * Cada conexão pode ter até MAX_IN_FLIGHT requisições em andamento; acima disso ela deixa
+ * de ser lida até metade das respostas voltar. Do mesmo jeito, a conexão que encontra o
+ * limite do AsyncFileSystem deixa de ser lida até alguma operação terminar; a thread do
+ * Selector nunca espera o journal e segue gravando as respostas.
+ * Cada conexão conta requisições e bytes; connections() informa a vazão de cada uma e o
+ * ouvinte do construtor a recebe quando ela é encerrada.
+ *
+ * Operações que percorrem árvores (rm -r, cp -r, import e export) rodam num pool próprio
+ * de LONG_THREADS threads, para não ocuparem as threads das demais requisições. Import e
+ * export leem e gravam no disco do host, então só são atendidos com uma raiz (hostRoot):
+ * os caminhos pedidos são resolvidos dentro dela e os que escapam dela são recusados.
+ */
+public class FsServer implements Closeable {
+    static final int MAX_IN_FLIGHT = 1024;
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int MAX_GATHER = 256;
+    static final int LONG_THREADS = 2;
+
+    private final FileSystemSimulator fs;
+    private final AsyncFileSystem async;
+    private final ExecutorService longOps;
+    // diretório do host para import/export; null os desliga
+    private final Path hostRoot;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread loop;
+    private final Consumer<Stats> onClose;
+    // conexões com respostas para gravar, avisadas por quem completa as requisições
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeup = new AtomicBoolean();
+    // conexões paradas no limite do AsyncFileSystem (só a thread do Selector) e o aviso
+    // de que uma vaga foi devolvida
+    private final ArrayDeque<Connection> stalled = new ArrayDeque<>();
+    private final AtomicBoolean freed = new AtomicBoolean();
+    private final Set<Connection> open = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private volatile boolean closed;
+
+    public FsServer(FileSystemSimulator fs, int port) throws IOException {
+        this(fs, port, s -> {});
+    }
+
+    // port 0 escolhe uma porta livre (ver port()); onClose recebe a vazão de cada conexão encerrada
+    public FsServer(FileSystemSimulator fs, int port, Consumer<Stats> onClose) throws IOException {
+        this(fs, port, null, onClose);
+    }
+
+    // hostRoot: diretório do host onde import e export podem ler e gravar (null recusa os dois)
+    public FsServer(FileSystemSimulator fs, int port, Path hostRoot, Consumer<Stats> onClose) throws IOException {
+        this.fs = fs;
+        this.onClose = onClose;
+        this.hostRoot = hostRoot != null ? hostRoot.toRealPath() : null;
+        if (this.hostRoot != null && !Files.isDirectory(this.hostRoot)) {
+            throw new IOException("Raiz do servidor não é um diretório: " + hostRoot);
+        }
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.async = new AsyncFileSystem(fs);
+        this.longOps = Executors.newFixedThreadPool(LONG_THREADS, r -> {
+            Thread t = new Thread(r, "fs-server-longa");
+            t.setDaemon(true);
+            return t;
+        });
+        fs.metrics().gauge("servidor_conexoes", open::size);
+        fs.metrics().gauge("servidor_requisicoes", requests::sum);
+        loop = new Thread(this::run, "fs-server");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public int port() { return server.socket().getLocalPort(); }
+
+    /** Vazão de uma conexão desde que foi aberta (ou até ser encerrada). */
+    public static final class Stats {
+        public final String remote;
+        public final long requests;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final double seconds;
+
+        Stats(String remote, long requests, long bytesIn, long bytesOut, double seconds) {
+            this.remote = remote;
+            this.requests = requests;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.seconds = seconds;
+        }
+
+        public double requestsPerSecond() { return seconds == 0 ? 0 : requests / seconds; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d requisições em %.1f s (%.0f req/s), %d bytes recebidos, %d enviados",
+                    remote, requests, seconds, requestsPerSecond(), bytesIn, bytesOut);
+        }
+    }
+
+    public List<Stats> connections() {
+        List<Stats> out = new ArrayList<>();
+        for (Connection c : open) out.add(c.stats());
+        return out;
+    }
+
+    private final class Connection {
+        final SocketChannel ch;
+        final String remote;
+        final long opened = System.nanoTime();
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+        // respostas prontas (qualquer thread) e as já tiradas da fila e ainda não gravadas
+        final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ByteBuffer> unsent = new ArrayDeque<>();
+        final AtomicBoolean queued = new AtomicBoolean();
+        final AtomicInteger inFlight = new AtomicInteger();
+        // sem leitura: por MAX_IN_FLIGHT (paused) ou pelo limite do AsyncFileSystem (stalled)
+        boolean paused, stalled;
+        // escritos só pela thread do Selector
+        volatile long requests, bytesIn, bytesOut;
+
+        Connection(SocketChannel ch) throws IOException {
+            this.ch = ch;
+            this.remote = String.valueOf(ch.getRemoteAddress());
+        }
+
+        Stats stats() {
+            return new Stats(remote, requests, bytesIn, bytesOut, (System.nanoTime() - opened) / 1e9);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                wakeup.set(false);
+                for (Connection c; (c = ready.poll()) != null; ) flush(c);
+                if (freed.getAndSet(false)) resumeStalled();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey k = it.next();
+                    it.remove();
+                    if (!k.isValid()) continue;
+                    if (k.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) k.attachment();
+                    if (k.isWritable()) flush(c);
+                    if (k.isValid() && k.isReadable()) read(c);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!closed) System.err.println("Servidor parado: " + e.getMessage());
+        }
+    }
+
+    private void accept() throws IOException {
+        for (SocketChannel ch; (ch = server.accept()) != null; ) {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection c = new Connection(ch);
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            open.add(c);
+        }
+    }
+
+    private void read(Connection c) {
+        try {
+            int n = c.ch.read(c.in);
+            if (n < 0) {
+                drop(c);
+                return;
+            }
+            c.bytesIn += n;
+        } catch (IOException e) {
+            drop(c);
+            return;
+        }
+        parse(c);
+    }
+
+    // Despacha os quadros completos do buffer de leitura, até o limite de requisições em andamento
+    private void parse(Connection c) {
+        ByteBuffer in = c.in;
+        in.flip();
+        int need = 0;
+        while (in.remaining() >= 4) {
+            if (c.inFlight.get() >= MAX_IN_FLIGHT) {
+                pause(c);
+                break;
+            }
+            if (!async.tryReserve()) {
+                stall(c);
+                break;
+            }
+            int len = in.getInt(in.position());
+            if (len < HEADER - 4 || len > MAX_FRAME) {
+                System.err.println("Quadro inválido de " + c.remote + ": " + len + " bytes");
+                async.cancelReservation();
+                drop(c);
+                return;
+            }
+            if (in.remaining() < 4 + len) {
+                async.cancelReservation();
+                need = 4 + len;
+                break;
+            }
+            ByteBuffer frame = in.slice();
+            frame.limit(4 + len).position(4);
+            in.position(in.position() + 4 + len);
+            dispatch(c, frame.getInt(), frame.get(), frame);
+            // requisição recusada antes de chegar ao AsyncFileSystem
+            async.cancelReservation();
+        }
+        in.compact();
+        if (need > in.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(need);
+            in.flip();
+            c.in = bigger.put(in);
+        } else if (need == 0 && in.position() == 0 && in.capacity() > READ_BUFFER) {
+            // quadro grande já lido: volta ao tamanho normal
+            c.in = ByteBuffer.allocate(READ_BUFFER);
+        }
+    }
+
+    private void pause(Connection c) {
+        c.paused = true;
+        c.key.interestOps(c.key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    // Sem vaga no AsyncFileSystem: para de ler c até uma operação terminar (resumeStalled)
+    private void stall(Connection c) {
+        if (c.stalled) return;
+        c.stalled = true;
+        c.key.interestOps(c.key.interestOps() & ~SelectionKey.OP_READ);
+        stalled.add(c);
+        async.whenAvailable(() -> {
+            freed.set(true);
+            if (wakeup.compareAndSet(false, true)) selector.wakeup();
+        });
+    }
+
+    // Volta a ler as conexões paradas no limite; as que não acharem vaga param de novo
+    private void resumeStalled() {
+        List<Connection> all = new ArrayList<>(stalled);
+        stalled.clear();
+        for (Connection c : all) {
+            c.stalled = false;
+            if (!c.key.isValid()) continue;
+            if (!c.paused) c.key.interestOps(c.key.interestOps() | SelectionKey.OP_READ);
+            parse(c);
+        }
+    }
+
+    private void dispatch(Connection c, int id, byte code, ByteBuffer body) {
+        c.requests++;
+        requests.increment();
+        c.inFlight.incrementAndGet();
+        CompletableFuture<Message> result;
+        try {
+            result = execute(id, code, body);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((w, ex) -> {
+            ByteBuffer frame;
+            try {
+                frame = ex == null ? w.frame() : error(id, ex);
+            } catch (RuntimeException e) {
+                frame = error(id, e);
+            }
+            reply(c, frame);
+        });
+    }
+
+    // Decodifica o corpo (nesta thread, antes de o buffer ser reaproveitado) e submete a operação
+    private CompletableFuture<Message> execute(int id, byte code, ByteBuffer b) {
+        switch (code) {
+            case APPLY: {
+                List<Op> ops = Journal.decodeBatch(FsProtocol.bytes(b));
+                CompletableFuture<Void> done = ops.size() == 1 ? async.apply(ops.get(0)) : async.apply(ops);
+                return done.thenApply(v -> ok(id));
+            }
+            case READ_FILE:
+                return async.readFile(FsProtocol.string(b)).thenApply(s -> ok(id).string(s));
+            case READ: {
+                String path = FsProtocol.string(b);
+                long offset = b.getLong();
+                int len = b.getInt();
+                return async.read(path, offset, len).thenApply(d -> ok(id).bytes(d));
+            }
+            case LS:
+                return async.ls(FsProtocol.string(b)).thenApply(l -> ok(id).strings(l));
+            case LS_PAGE: {
+                String path = FsProtocol.string(b), after = FsProtocol.string(b);
+                int limit = b.getInt();
+                String prefix = FsProtocol.string(b);
+                return async.call(List.of(path), () -> ok(id).strings(fs.ls(path, after, limit, prefix)));
+            }
+            case RM_TREE: {
+                String path = FsProtocol.string(b);
+                return async.call(List.of(path), longOps, () -> {
+                    fs.rm(path, new TreeTask());
+                    return ok(id);
+                });
+            }
+            case CP_TREE: {
+                String src = FsProtocol.string(b), dst = FsProtocol.string(b);
+                return async.call(List.of(src, dst), longOps, () -> {
+                    fs.cp(src, dst, new TreeTask());
+                    return ok(id);
+                });
+            }
+            case USAGE: {
+                String path = FsProtocol.string(b);
+                return async.call(List.of(path), () -> {
+                    FileSystemSimulator.Usage u = fs.usage(path);
+                    return ok(id).writeLong(u.files).writeLong(u.logicalBytes).writeLong(u.physicalBytes);
+                });
+            }
+            case FIND: {
+                String path = FsProtocol.string(b);
+                FindQuery query = FindQuery.parse(FsProtocol.string(b));
+                return async.call(List.of(path), () -> ok(id).strings(fs.find(path, query, new TreeTask())));
+            }
+            case GREP: {
+                String path = FsProtocol.string(b), words = FsProtocol.string(b);
+                return async.call(List.of(path), () -> ok(id).strings(fs.grep(path, words)));
+            }
+            case SNAPSHOT: {
+                String action = FsProtocol.string(b), name = FsProtocol.string(b);
+                return async.call(List.of(), () -> {
+                    switch (action) {
+                        case "create": fs.createSnapshot(name); break;
+                        case "delete": fs.deleteSnapshot(name); break;
+                        case "restore": fs.restoreSnapshot(name); break;
+                        default: throw new IllegalArgumentException("Ação de snapshot desconhecida: " + action);
+                    }
+                    return ok(id);
+                });
+            }
+            case SNAPSHOTS:
+                return async.call(List.of(), () -> {
+                    List<String> names = new ArrayList<>();
+                    for (Snapshot s : fs.snapshots()) names.add(s.name());
+                    return ok(id).strings(names);
+                });
+            case DIFF: {
+                String from = FsProtocol.string(b), to = FsProtocol.string(b);
+                return async.call(List.of(), () -> ok(id).strings(fs.diff(from, to)));
+            }
+            case IMPORT: {
+                String host = FsProtocol.string(b), path = FsProtocol.string(b);
+                return async.call(List.of(path), longOps,
+                        () -> ok(id).string(fs.importTree(hostPath(host), path, new TreeTask()).toString()));
+            }
+            case EXPORT: {
+                String path = FsProtocol.string(b), host = FsProtocol.string(b);
+                return async.call(List.of(path), longOps,
+                        () -> ok(id).string(fs.exportTree(path, hostPath(host), new TreeTask()).toString()));
+            }
+            case CHECKPOINT:
+                return async.call(List.of(), () -> {
+                    fs.checkpoint();
+                    return ok(id);
+                });
+            case COMPACT:
+                return async.call(List.of(), () -> ok(id).writeLong(fs.compact()));
+            case STATS:
+                return async.call(List.of(), () -> {
+                    StringBuilder sb = new StringBuilder(fs.metrics().report());
+                    for (Stats s : connections()) sb.append(System.lineSeparator()).append(s);
+                    return ok(id).string(sb.toString());
+                });
+            default:
+                throw new IllegalArgumentException("Operação desconhecida: " + code);
+        }
+    }
+
+    private static Message ok(int id) { return new Message(id, OK); }
+
+    // Caminho do host pedido por um cliente, resolvido dentro de hostRoot. A parte que já
+    // existe é conferida pelo caminho real, então um link simbólico não leva para fora.
+    private Path hostPath(String host) throws IOException {
+        if (hostRoot == null) throw new IOException("Import e export desativados neste servidor (sem raiz no host)");
+        Path p = hostRoot.resolve(host).normalize();
+        Path existing = p;
+        while (existing != null && !Files.exists(existing)) existing = existing.getParent();
+        if (!p.startsWith(hostRoot) || existing == null || !existing.toRealPath().startsWith(hostRoot)) {
+            throw new IOException("Caminho fora da raiz do servidor: " + host);
+        }
+        return p;
+    }
+
+    private static ByteBuffer error(int id, Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        String msg = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+        return new Message(id, ex instanceof IOException ? IO_ERROR : INVALID).string(msg).frame();
+    }
+
+    // Chamado pela thread que completou a requisição: enfileira e acorda o Selector uma vez
+    private void reply(Connection c, ByteBuffer frame) {
+        c.replies.add(frame);
+        c.inFlight.decrementAndGet();
+        if (c.queued.compareAndSet(false, true)) {
+            ready.add(c);
+            if (wakeup.compareAndSet(false, true)) selector.wakeup();
+        }
+    }
+
+    // Grava as respostas prontas de c e volta a ler dela se estava parada
+    private void flush(Connection c) {
+        c.queued.set(false);
+        if (!c.key.isValid()) return;
+        for (ByteBuffer r; (r = c.replies.poll()) != null; ) c.unsent.add(r);
+        try {
+            while (!c.unsent.isEmpty()) {
+                ByteBuffer[] batch = new ByteBuffer[Math.min(MAX_GATHER, c.unsent.size())];
+                Iterator<ByteBuffer> it = c.unsent.iterator();
+                for (int i = 0; i < batch.length; i++) batch[i] = it.next();
+                long n = c.ch.write(batch);
+                c.bytesOut += n;
+                while (!c.unsent.isEmpty() && !c.unsent.peek().hasRemaining()) c.unsent.poll();
+                if (n == 0) break;
+            }
+        } catch (IOException e) {
+            drop(c);
+            return;
+        }
+        int ops = c.key.interestOps();
+        ops = c.unsent.isEmpty() ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE;
+        boolean resume = c.paused && c.inFlight.get() < MAX_IN_FLIGHT / 2;
+        if (resume) {
+            c.paused = false;
+            if (!c.stalled) ops |= SelectionKey.OP_READ;
+        }
+        c.key.interestOps(ops);
+        if (resume) parse(c);
+    }
+
+    private void drop(Connection c) {
+        if (!open.remove(c)) return;
+        c.key.cancel();
+        try {
+            c.ch.close();
+        } catch (IOException e) {
+            // já fechada pelo outro lado
+        }
+        onClose.accept(c.stats());
+    }
+
+    // Para de aceitar e fecha as conexões, depois espera as operações já submetidas;
+    // o FileSystemSimulator continua aberto e é fechado por quem o criou
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection c : open) drop(c);
+        server.close();
+        selector.close();
+        async.close();
+        longOps.shutdown();
+    }
+}
@@ -1,81 +1,443 @@
 package Simulador;
 
 import java.io.*;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
 
 /**
- * Journal simples sem dependências externas.
- * Formato por linha:
- * id \t type \t status \t ts \t paramsEncoded
+ * Journal append-only sem dependências externas, em formato binário.
  *
- * paramsEncoded = chave1=valor1&chave2=valor2 (valores URL-encoded)
+ * Cabeçalho: "SFJB" + int versão
+ * Registro:  int tamanho | int crc32c(corpo) | corpo
+ * Corpo PENDING: byte 1 | long seq | long ts | byte opcode | byte nParams |
+ *                (byte tamChave, chave UTF-8, int tamValor, valor UTF-8)* |
+ *                int tamDados, dados   (opcional; -1 sem dados, ex.: WRITE_AT)
+ * Corpo COMMIT:  byte 2 | long seq   (marcador de commit da entrada seq)
+ * Corpo ABORT:   byte 3 | long seq   (a operação falhou e não foi aplicada)
+ *
+ * Uma entrada BATCH leva nos dados um lote de operações (int n, e cada uma com opcode,
+ * parâmetros e dados como acima), confirmado ou abortado por um único marcador.
+ *
+ * O journal é dividido em segmentos (path.000001, path.000002, ...). Quando o segmento
+ * ativo passa de segmentBytes abre-se o próximo; um segmento antigo é apagado quando
+ * todas as suas entradas foram resolvidas (commit/abort) e estão cobertas pela imagem.
+ *
+ * A leitura percorre cada segmento por um MappedByteBuffer e para no primeiro registro
+ * incompleto ou com CRC inválido (cauda rasgada por uma queda), que é descartado
+ * na próxima abertura para escrita. Um journal de arquivo único (texto ou binário) das
+ * versões anteriores é convertido uma única vez na abertura.
  */
 public class Journal {
+    private static final byte[] MAGIC = {'S', 'F', 'J', 'B'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte KIND_PENDING = 1;
+    private static final byte KIND_COMMIT = 2;
+    private static final byte KIND_ABORT = 3;
+    // segmento compactado ainda sendo gravado
+    private static final String TMP_SUFFIX = ".tmp";
+    public static final long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+
     private final File file;
+    private final Durability durability;
+    private final long segmentBytes;
+    private FileChannel channel;
+    private long nextSeq = 1;
+
+    // segmentos vivos, do mais antigo ao ativo (o último)
+    private final List<Segment> segments = new ArrayList<>();
+    // entradas PENDING ainda sem commit/abort, e o segmento onde estão
+    private final Map<Long, Segment> unresolved = new HashMap<>();
+
+    // controle do group commit
+    private final Object syncLock = new Object();
+    private volatile long writtenSeq;
+    private volatile long durableSeq;
+    // pedidos de durable() ainda não cobertos por um force(), e a thread que os atende
+    private final Object waitLock = new Object();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private boolean flushScheduled;
+    private ExecutorService flusher;
+    // bytes de registros gravados desde a abertura
+    private long bytesWritten;
+
+    // Nível de durabilidade de cada entrada PENDING
+    public enum Durability {
+        SYNC_EACH,   // force() a cada operação
+        SYNC_BATCH,  // um force() para um lote de operações concorrentes (group commit)
+        OS_BUFFERED  // deixa o sistema operacional decidir quando gravar
+    }
 
     public static class Entry {
         public String id;
+        public long seq;
         public String type;
         public Map<String,String> params;
         public String status;
         public long ts;
+        // bytes da operação (ex.: o trecho gravado por WRITE_AT), ou null
+        public byte[] data;
     }
 
     public Journal(String path) {
+        this(path, Durability.SYNC_BATCH);
+    }
+
+    public Journal(String path, Durability durability) {
+        this(path, durability, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public Journal(String path, Durability durability, long segmentBytes) {
         this.file = new File(path);
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+    }
+
+    private static class Segment {
+        final int index;
+        final File file;
+        long maxSeq;
+        int unresolved;
+
+        Segment(int index, File file) { this.index = index; this.file = file; }
+    }
+
+    // abre o canal (uma única vez), migra formatos antigos e descarta uma cauda rasgada
+    private void ensureOpen() throws IOException {
+        if (channel != null) return;
+        Scan scan = scan();
+        for (Entry e : scan.entries) {
+            if ("PENDING".equals(e.status)) {
+                Segment seg = segmentOf(e.seq);
+                unresolved.put(e.seq, seg);
+                seg.unresolved++;
+            }
+        }
+        if (!scan.entries.isEmpty()) nextSeq = scan.entries.get(scan.entries.size() - 1).seq + 1;
+        if (segments.isEmpty()) segments.add(new Segment(1, segmentFile(1)));
+        Segment active = segments.get(segments.size() - 1);
+        channel = FileChannel.open(active.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            channel.truncate(0);
+            channel.write(header(), 0);
+            scan.validEnd = HEADER_SIZE;
+        } else if (scan.validEnd < channel.size()) {
+            System.err.println("Journal: descartando " + (channel.size() - scan.validEnd) + " bytes de registro incompleto");
+            channel.truncate(scan.validEnd);
+        }
+        channel.position(scan.validEnd);
+    }
+
+    private Segment segmentOf(long seq) {
+        for (Segment seg : segments) if (seq <= seg.maxSeq) return seg;
+        return segments.get(segments.size() - 1);
+    }
+
+    private File segmentFile(int index) {
+        return new File(file.getPath() + String.format(".%06d", index));
     }
 
-    // append entrada PENDING
-    public synchronized void appendPending(String type, Map<String,String> params) throws IOException {
+    // descobre os segmentos em disco; um journal de arquivo único vira o segmento 0
+    private void loadSegments() throws IOException {
+        segments.clear();
+        if (file.exists()) {
+            migrateTextFormat();
+            Files.move(file.toPath(), segmentFile(0).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + ".";
+        File[] found = dir.listFiles((d, n) -> n.startsWith(prefix) && n.length() == prefix.length() + 6
+                && n.substring(prefix.length()).chars().allMatch(Character::isDigit));
+        if (found == null) return;
+        // compactação interrompida antes do rename: o segmento incompleto não vale
+        File[] partial = dir.listFiles((d, n) -> n.startsWith(prefix) && n.endsWith(TMP_SUFFIX));
+        if (partial != null) for (File f : partial) Files.deleteIfExists(f.toPath());
+        Arrays.sort(found);
+        for (File f : found) segments.add(new Segment(Integer.parseInt(f.getName().substring(prefix.length())), f));
+    }
+
+    // fecha o segmento ativo e abre o próximo
+    private void roll() throws IOException {
+        if (durability != Durability.OS_BUFFERED) channel.force(false);
+        channel.close();
+        int index = segments.get(segments.size() - 1).index + 1;
+        Segment next = new Segment(index, segmentFile(index));
+        next.maxSeq = nextSeq - 1;
+        segments.add(next);
+        channel = FileChannel.open(next.file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(header());
+    }
+
+    // grava uma entrada PENDING sem esperar pelo disco; use awaitDurable para isso
+    public Entry append(String type, Map<String,String> params) throws IOException {
+        return append(type, params, null);
+    }
+
+    // idem, com um bloco de bytes gravado junto da entrada
+    public synchronized Entry append(String type, Map<String,String> params, byte[] data) throws IOException {
+        ensureOpen();
         Entry e = new Entry();
-        e.id = UUID.randomUUID().toString();
+        e.seq = nextSeq++;
+        e.id = Long.toString(e.seq);
         e.type = type;
         e.params = params == null ? new HashMap<>() : new HashMap<>(params);
         e.status = "PENDING";
         e.ts = System.currentTimeMillis();
-        try (FileWriter fw = new FileWriter(file, true);
-             BufferedWriter bw = new BufferedWriter(fw)) {
-            bw.write(serialize(e));
-            bw.newLine();
+        e.data = data;
+        if (channel.position() >= segmentBytes) roll();
+        writeRecord(encodePending(e));
+        if (durability == Durability.SYNC_EACH) channel.force(false);
+        Segment active = segments.get(segments.size() - 1);
+        active.maxSeq = e.seq;
+        active.unresolved++;
+        unresolved.put(e.seq, active);
+        writtenSeq = e.seq;
+        return e;
+    }
+
+    // append entrada PENDING já durável; retorna o id gerado
+    public String appendPending(String type, Map<String,String> params) throws IOException {
+        Entry e = append(type, params);
+        awaitDurable(e.seq);
+        return e.id;
+    }
+
+    // bloqueia até a entrada seq estar em disco; quem espera enquanto outro thread
+    // executa force() entra no próximo lote, e um único force() cobre todos eles
+    public void awaitDurable(long seq) throws IOException {
+        if (durability != Durability.SYNC_BATCH) return;
+        synchronized (syncLock) {
+            if (durableSeq >= seq) return;
+            forceWritten();
         }
     }
 
-    // marcar commit (altera status para COMMIT reescrevendo o arquivo)
-    public synchronized void markCommit(String id) throws IOException {
-        List<Entry> all = readAll();
-        boolean changed = false;
-        for (Entry e : all) {
-            if (e.id.equals(id) && !"COMMIT".equals(e.status)) {
-                e.status = "COMMIT";
-                changed = true;
+    // force() de tudo o que já foi gravado; chamado com syncLock
+    private void forceWritten() throws IOException {
+        long target = writtenSeq;
+        FileChannel ch;
+        synchronized (this) { ch = channel; }
+        try {
+            if (ch != null) ch.force(false);
+        } catch (ClosedChannelException e) {
+            // fechado no meio por roll() ou close(), que fazem force() antes de fechar: o que
+            // foi gravado até target já está em disco
+        }
+        durableSeq = target;
+    }
+
+    private static class Waiter {
+        final long seq;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Waiter(long seq) { this.seq = seq; }
+    }
+
+    // awaitDurable sem bloquear: o futuro completa quando a entrada seq estiver em disco.
+    // Os pedidos se acumulam enquanto um force() está em andamento, e o seguinte (na
+    // thread journal-flush) cobre todos eles de uma vez
+    public CompletableFuture<Void> durable(long seq) {
+        if (durability != Durability.SYNC_BATCH || durableSeq >= seq) return CompletableFuture.completedFuture(null);
+        Waiter w = new Waiter(seq);
+        synchronized (waitLock) {
+            waiters.add(w);
+            if (flushScheduled) return w.done;
+            flushScheduled = true;
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "journal-flush");
+                    t.setDaemon(true);
+                    return t;
+                });
             }
+            flusher.execute(this::flushWaiters);
         }
-        if (changed) {
-            try (FileWriter fw = new FileWriter(file, false);
-                 BufferedWriter bw = new BufferedWriter(fw)) {
-                for (Entry e : all) {
-                    bw.write(serialize(e));
-                    bw.newLine();
+        return w.done;
+    }
+
+    // Um force() por rodada; termina quando não sobra pedido
+    private void flushWaiters() {
+        while (true) {
+            IOException error = null;
+            synchronized (syncLock) {
+                try {
+                    if (durableSeq < writtenSeq) forceWritten();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            List<Waiter> ready = new ArrayList<>();
+            boolean more;
+            synchronized (waitLock) {
+                for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                    Waiter w = it.next();
+                    if (error != null || w.seq <= durableSeq) {
+                        ready.add(w);
+                        it.remove();
+                    }
                 }
+                more = !waiters.isEmpty();
+                if (!more) flushScheduled = false;
             }
+            for (Waiter w : ready) {
+                if (error != null) w.done.completeExceptionally(error);
+                else w.done.complete(null);
+            }
+            if (!more) return;
         }
     }
 
-    // lê todas as entradas
-    public synchronized List<Entry> readAll() throws IOException {
-        List<Entry> list = new ArrayList<>();
-        if (!file.exists()) return list;
-        try (FileReader fr = new FileReader(file);
-             BufferedReader br = new BufferedReader(fr)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                Entry e = deserialize(line);
-                if (e != null) list.add(e);
-            }
+    // marca commit acrescentando um registro que aponta para a entrada PENDING
+    public synchronized void markCommit(String id) throws IOException {
+        resolve(KIND_COMMIT, Long.parseLong(id));
+    }
+
+    // marca a entrada como abortada: a operação falhou e não deve ser reaplicada. Nos modos
+    // duráveis o marcador vai para o disco antes de retornar: o PENDING pode já estar lá
+    // (force() de SYNC_EACH ou de outro thread em SYNC_BATCH), e sem o ABORT a recuperação
+    // reaplicaria a operação que falhou
+    public synchronized void markAbort(String id) throws IOException {
+        resolve(KIND_ABORT, Long.parseLong(id));
+        if (durability != Durability.OS_BUFFERED) channel.force(false);
+    }
+
+    // Confirma e aborta várias entradas com uma única escrita (fim da recuperação)
+    public synchronized void markResolved(List<Long> committed, List<Long> aborted) throws IOException {
+        if (committed.isEmpty() && aborted.isEmpty()) return;
+        ensureOpen();
+        List<ByteBuffer> bodies = new ArrayList<>(committed.size() + aborted.size());
+        for (long seq : committed) bodies.add(marker(KIND_COMMIT, seq));
+        for (long seq : aborted) bodies.add(marker(KIND_ABORT, seq));
+        writeRecords(bodies);
+        for (ByteBuffer b : bodies) {
+            Segment seg = unresolved.remove(b.getLong(1));
+            if (seg != null) seg.unresolved--;
+        }
+        if (durability != Durability.OS_BUFFERED) channel.force(false);
+    }
+
+    private void resolve(byte kind, long seq) throws IOException {
+        ensureOpen();
+        writeRecord(marker(kind, seq));
+        Segment seg = unresolved.remove(seq);
+        if (seg != null) seg.unresolved--;
+    }
+
+    private static ByteBuffer marker(byte kind, long seq) {
+        ByteBuffer body = ByteBuffer.allocate(9);
+        body.put(kind).putLong(seq);
+        body.flip();
+        return body;
+    }
+
+    // Apaga, do mais antigo em diante, os segmentos totalmente resolvidos e cobertos pela
+    // imagem (entradas com seq <= checkpointId). Retorna os bytes liberados.
+    public synchronized long retire(String checkpointId) throws IOException {
+        long covered = parseSeq(checkpointId);
+        if (covered < 0) return 0;
+        ensureOpen();
+        long freed = 0;
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            if (oldest.unresolved > 0 || oldest.maxSeq > covered) break;
+            freed += oldest.file.length();
+            Files.deleteIfExists(oldest.file.toPath());
+            segments.remove(0);
         }
-        return list;
+        return freed;
+    }
+
+    // Compactação online: reescreve num segmento novo só o que ainda importa para a
+    // recuperação (entradas não cobertas pela imagem ou ainda sem commit) e apaga o resto.
+    public synchronized long compact(String checkpointId) throws IOException {
+        long covered = parseSeq(checkpointId);
+        if (covered < 0) return 0;
+        ensureOpen();
+        List<Entry> live = new ArrayList<>();
+        for (Entry e : scan().entries) {
+            if (e.seq > covered || "PENDING".equals(e.status)) live.add(e);
+        }
+        long before = diskUsage();
+        List<Segment> old = new ArrayList<>(segments);
+        if (durability != Durability.OS_BUFFERED) channel.force(false);
+        channel.close();
+        // o segmento compactado é montado sob outro nome e só entra com o rename; uma queda
+        // antes dos deletes deixa entradas repetidas, que scan() ignora
+        int index = segments.get(segments.size() - 1).index + 1;
+        Segment active = new Segment(index, segmentFile(index));
+        Path tmp = Paths.get(active.file.getPath() + TMP_SUFFIX);
+        channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(header());
+        unresolved.clear();
+        for (Entry e : live) {
+            writeRecord(encodePending(e));
+            if ("COMMIT".equals(e.status)) writeRecord(marker(KIND_COMMIT, e.seq));
+            else if ("ABORT".equals(e.status)) writeRecord(marker(KIND_ABORT, e.seq));
+            else { unresolved.put(e.seq, active); active.unresolved++; }
+        }
+        active.maxSeq = nextSeq - 1;
+        channel.force(false);
+        channel.close();
+        Files.move(tmp, active.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(active.file.toPath(), StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        segments.add(active);
+        for (Segment seg : old) {
+            Files.deleteIfExists(seg.file.toPath());
+            segments.remove(seg);
+        }
+        return before - diskUsage();
+    }
+
+    // bytes ocupados pelos segmentos vivos
+    public synchronized long diskUsage() {
+        long total = 0;
+        for (Segment seg : segments) total += seg.file.length();
+        return total;
+    }
+
+    public synchronized int segmentCount() { return segments.size(); }
+
+    public synchronized long bytesWritten() { return bytesWritten; }
+
+    // entradas PENDING ainda sem commit/abort
+    public synchronized int unresolvedCount() { return unresolved.size(); }
+
+    private static long parseSeq(String id) {
+        if (id == null) return -1;
+        if (id.isEmpty()) return 0;
+        try { return Long.parseLong(id); } catch (NumberFormatException ex) { return -1; }
+    }
+
+    // fecha o canal do journal
+    public synchronized void close() throws IOException {
+        synchronized (waitLock) {
+            // pedidos já aceitos ainda são atendidos (o canal fechado conta como em disco)
+            if (flusher != null) flusher.shutdown();
+            flusher = null;
+        }
+        if (channel == null) return;
+        if (durability != Durability.OS_BUFFERED) channel.force(false);
+        channel.close();
+        channel = null;
+    }
+
+    public Durability getDurability() { return durability; }
+
+    // lê todas as entradas, já com o status resolvido pelos marcadores de commit
+    public synchronized List<Entry> readAll() throws IOException {
+        return scan().entries;
     }
 
     // retorna somente as pendentes
@@ -85,69 +447,217 @@ public class Journal {
         return out;
     }
 
-    /* ---------- helpers de serialização simples ---------- */
+    // retorna as entradas gravadas depois da entrada com o id informado (sufixo do journal)
+    public synchronized List<Entry> entriesAfter(String id) throws IOException {
+        List<Entry> all = readAll();
+        all.removeIf(e -> "ABORT".equals(e.status));
+        if (id == null) return all;
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i).id.equals(id)) return new ArrayList<>(all.subList(i + 1, all.size()));
+        }
+        long covered = parseSeq(id);
+        if (covered >= 0) all.removeIf(e -> e.seq <= covered);
+        return all;
+    }
 
-    private String serialize(Entry e) throws UnsupportedEncodingException {
-        StringBuilder sb = new StringBuilder();
-        sb.append(escape(e.id)).append("\t");
-        sb.append(escape(e.type)).append("\t");
-        sb.append(escape(e.status)).append("\t");
-        sb.append(e.ts).append("\t");
-        sb.append(encodeParams(e.params));
-        return sb.toString();
+    // seq da última entrada gravada (0 se o journal estiver vazio)
+    public synchronized long lastSeq() throws IOException {
+        ensureOpen();
+        return nextSeq - 1;
     }
 
-    private Entry deserialize(String line) {
-        try {
-            String[] parts = line.split("\t", 5);
-            if (parts.length < 5) return null;
+    /* ---------- formato binário ---------- */
+
+    private static class Scan {
+        List<Entry> entries = new ArrayList<>();
+        long validEnd = HEADER_SIZE;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+        h.put(MAGIC).putInt(VERSION);
+        h.flip();
+        return h;
+    }
+
+    private void writeRecord(ByteBuffer body) throws IOException {
+        writeRecords(Collections.singletonList(body));
+    }
+
+    // Grava os registros com um único write
+    private void writeRecords(List<ByteBuffer> bodies) throws IOException {
+        int n = 0;
+        for (ByteBuffer body : bodies) n += 8 + body.remaining();
+        ByteBuffer rec = ByteBuffer.allocate(n);
+        CRC32C crc = new CRC32C();
+        for (ByteBuffer body : bodies) {
+            crc.reset();
+            crc.update(body.duplicate());
+            rec.putInt(body.remaining()).putInt((int) crc.getValue()).put(body.duplicate());
+        }
+        rec.flip();
+        bytesWritten += rec.remaining();
+        while (rec.hasRemaining()) channel.write(rec);
+    }
+
+    private static ByteBuffer encodePending(Entry e) {
+        ByteBuffer b = ByteBuffer.allocate(1 + 8 + 8 + opSize(e.type, e.params, e.data));
+        b.put(KIND_PENDING).putLong(e.seq).putLong(e.ts);
+        putOp(b, e.type, e.params, e.data);
+        b.flip();
+        return b;
+    }
+
+    // opcode | nParams | (tamChave, chave, tamValor, valor)* | tamDados, dados
+    private static int opSize(String type, Map<String,String> params, byte[] data) {
+        int n = 1 + 1 + 4 + (data == null ? 0 : data.length);
+        for (Map.Entry<String,String> p : params.entrySet()) {
+            n += 1 + p.getKey().getBytes(StandardCharsets.UTF_8).length + 4
+                    + (p.getValue() == null ? "" : p.getValue()).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return n;
+    }
+
+    private static void putOp(ByteBuffer b, String type, Map<String,String> params, byte[] data) {
+        b.put((byte) OpCode.fromName(type).code).put((byte) params.size());
+        for (Map.Entry<String,String> p : params.entrySet()) {
+            byte[] k = p.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] v = (p.getValue() == null ? "" : p.getValue()).getBytes(StandardCharsets.UTF_8);
+            b.put((byte) k.length).put(k);
+            b.putInt(v.length).put(v);
+        }
+        if (data == null) b.putInt(-1);
+        else b.putInt(data.length).put(data);
+    }
+
+    // Dados de uma entrada BATCH: int n | n operações no formato de putOp
+    static byte[] encodeBatch(List<Op> ops) {
+        int n = 4;
+        for (Op op : ops) n += opSize(op.type, op.params, op.data);
+        ByteBuffer b = ByteBuffer.allocate(n);
+        b.putInt(ops.size());
+        for (Op op : ops) putOp(b, op.type, op.params, op.data);
+        return b.array();
+    }
+
+    static List<Op> decodeBatch(byte[] data) {
+        ByteBuffer b = ByteBuffer.wrap(data);
+        int n = b.getInt();
+        List<Op> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
             Entry e = new Entry();
-            e.id = unescape(parts[0]);
-            e.type = unescape(parts[1]);
-            e.status = unescape(parts[2]);
-            e.ts = Long.parseLong(parts[3]);
-            e.params = decodeParams(parts[4]);
-            return e;
-        } catch (Exception ex) {
-            System.err.println("Falha ao desserializar linha do journal: " + ex.getMessage());
-            return null;
-        }
-    }
-
-    private String encodeParams(Map<String,String> params) throws UnsupportedEncodingException {
-        if (params == null || params.isEmpty()) return "";
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        for (Map.Entry<String,String> en : params.entrySet()) {
-            if (!first) sb.append("&");
-            sb.append(URLEncoder.encode(en.getKey(), "UTF-8"));
-            sb.append("=");
-            sb.append(URLEncoder.encode(en.getValue() == null ? "" : en.getValue(), "UTF-8"));
-            first = false;
-        }
-        return sb.toString();
-    }
-
-    private Map<String,String> decodeParams(String s) throws UnsupportedEncodingException {
-        Map<String,String> map = new HashMap<>();
-        if (s == null || s.isEmpty()) return map;
-        String[] pairs = s.split("&");
-        for (String p : pairs) {
-            String[] kv = p.split("=", 2);
-            if (kv.length == 2) {
-                String k = URLDecoder.decode(kv[0], "UTF-8");
-                String v = URLDecoder.decode(kv[1], "UTF-8");
-                map.put(k, v);
+            getOp(b, e);
+            ops.add(Op.from(e));
+        }
+        return ops;
+    }
+
+    // percorre os segmentos em ordem; validEnd refere-se ao último (o ativo)
+    private Scan scan() throws IOException {
+        if (channel == null) loadSegments();
+        Scan out = new Scan();
+        Map<Long, Entry> bySeq = new HashMap<>();
+        for (Segment seg : segments) {
+            out.validEnd = scanSegment(seg, out.entries, bySeq);
+        }
+        return out;
+    }
+
+    // percorre os registros válidos; para no primeiro tamanho impossível ou CRC divergente
+    private long scanSegment(Segment seg, List<Entry> entries, Map<Long, Entry> bySeq) throws IOException {
+        long validEnd = HEADER_SIZE;
+        if (!seg.file.exists() || seg.file.length() < HEADER_SIZE) return validEnd;
+        try (FileChannel ch = FileChannel.open(seg.file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            map.position(HEADER_SIZE);
+            CRC32C crc = new CRC32C();
+            while (map.remaining() >= 8) {
+                int start = map.position();
+                int len = map.getInt();
+                int sum = map.getInt();
+                if (len <= 0 || len > map.remaining()) break;
+                ByteBuffer body = map.slice();
+                body.limit(len);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != sum) { map.position(start); break; }
+                map.position(start + 8 + len);
+                byte kind = body.get();
+                if (kind == KIND_PENDING) {
+                    Entry e = decodePending(body);
+                    // cópia de uma compactação que caiu antes de apagar os segmentos antigos
+                    if (bySeq.containsKey(e.seq)) {
+                        validEnd = map.position();
+                        continue;
+                    }
+                    entries.add(e);
+                    bySeq.put(e.seq, e);
+                    seg.maxSeq = Math.max(seg.maxSeq, e.seq);
+                } else if (kind == KIND_COMMIT || kind == KIND_ABORT) {
+                    Entry e = bySeq.get(body.getLong());
+                    if (e != null) e.status = kind == KIND_COMMIT ? "COMMIT" : "ABORT";
+                }
+                validEnd = map.position();
             }
         }
-        return map;
+        return validEnd;
     }
 
-    private String escape(String s) throws UnsupportedEncodingException {
-        return s == null ? "" : URLEncoder.encode(s, "UTF-8");
+    private static Entry decodePending(ByteBuffer b) {
+        Entry e = new Entry();
+        e.seq = b.getLong();
+        e.id = Long.toString(e.seq);
+        e.ts = b.getLong();
+        e.status = "PENDING";
+        getOp(b, e);
+        return e;
     }
 
-    private String unescape(String s) throws UnsupportedEncodingException {
-        return s == null ? "" : URLDecoder.decode(s, "UTF-8");
+    private static void getOp(ByteBuffer b, Entry e) {
+        e.type = OpCode.fromCode(b.get() & 0xff).name();
+        int n = b.get() & 0xff;
+        e.params = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            e.params.put(utf8(b, b.get() & 0xff), utf8(b, b.getInt()));
+        }
+        // registros anteriores ao campo de dados terminam nos parâmetros
+        if (b.remaining() >= 4) {
+            int len = b.getInt();
+            if (len >= 0) {
+                e.data = new byte[len];
+                b.get(e.data);
+            }
+        }
+    }
+
+    private static String utf8(ByteBuffer b, int len) {
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Converte uma única vez um journal em texto para o formato binário (tmp + rename)
+    private void migrateTextFormat() throws IOException {
+        if (!LegacyTextJournal.isText(file, MAGIC)) return;
+        List<Entry> old = LegacyTextJournal.readAll(file);
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".migrate");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileChannel prev = channel;
+            channel = out;
+            try {
+                out.write(header());
+                for (Entry e : old) {
+                    writeRecord(encodePending(e));
+                    if ("COMMIT".equals(e.status)) writeRecord(marker(KIND_COMMIT, e.seq));
+                }
+                out.force(false);
+            } finally {
+                channel = prev;
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.err.println("Journal: " + old.size() + " entradas migradas do formato texto");
     }
 }
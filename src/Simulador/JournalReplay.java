@@ -0,0 +1,66 @@
+package Simulador;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reaplicação do journal na inicialização. As entradas vão direto para a árvore em
+ * memória, sem gerar novas entradas nem gravar a imagem; quem chama grava um único
+ * checkpoint no fim e resolve de uma vez as entradas que estavam PENDING.
+ *
+ * Cada operação é idempotente: antes de aplicar, o alvo verifica se o estado posterior
+ * dela já está na árvore (diretório já criado, arquivo já removido, conteúdo já igual)
+ * e, nesse caso, a entrada conta como ignorada. Uma entrada que falha é contada, marcada
+ * como abortada e não volta a ser tentada na próxima inicialização.
+ */
+public final class JournalReplay {
+    // máximo de falhas descritas individualmente no log
+    private static final int MAX_LOGGED = 10;
+
+    interface Target {
+        // Aplica a operação; retorna false se o efeito dela já estava presente
+        boolean replay(Op op) throws IOException;
+    }
+
+    public static class Report {
+        public int replayed;
+        public int skipped;
+        public int failed;
+        public long millis;
+        // entradas que estavam PENDING, a confirmar ou abortar no journal
+        final List<Long> committed = new ArrayList<>();
+        final List<Long> aborted = new ArrayList<>();
+
+        public int total() { return replayed + skipped + failed; }
+
+        @Override
+        public String toString() {
+            return "Journal: " + replayed + " entradas reaplicadas, " + skipped + " já aplicadas, "
+                    + failed + " com falha (" + millis + " ms)";
+        }
+    }
+
+    private JournalReplay() {}
+
+    static Report run(List<Journal.Entry> entries, Target target) {
+        long start = System.nanoTime();
+        Report r = new Report();
+        for (Journal.Entry e : entries) {
+            boolean ok = true;
+            try {
+                if (target.replay(Op.from(e))) r.replayed++;
+                else r.skipped++;
+            } catch (IOException | RuntimeException ex) {
+                ok = false;
+                if (r.failed++ < MAX_LOGGED) {
+                    System.err.println("Erro ao reaplicar entrada " + e.id + " (" + e.type + "): " + ex.getMessage());
+                }
+            }
+            if ("PENDING".equals(e.status)) (ok ? r.committed : r.aborted).add(e.seq);
+        }
+        if (r.failed > MAX_LOGGED) System.err.println("... e mais " + (r.failed - MAX_LOGGED) + " entradas com falha");
+        r.millis = (System.nanoTime() - start) / 1_000_000;
+        return r;
+    }
+}
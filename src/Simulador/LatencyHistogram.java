@@ -0,0 +1,74 @@
+package Simulador;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências em nanossegundos com faixas log-lineares, no estilo do
+ * HdrHistogram: cada potência de 2 é dividida em SUB faixas iguais, então o valor
+ * informado por um percentil erra no máximo 1/SUB para cima. Gravar é um incremento
+ * atômico, sem trava e sem alocação.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    // Valores menores que SUB são exatos; acima, a faixa é (expoente, SUB_BITS bits seguintes)
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    // Maior valor que cai na faixa i
+    static long upperBound(int i) {
+        if (i < SUB) return i;
+        int shift = i / SUB - 1;
+        long low = (long) (SUB + i % SUB) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    long count() { return count.sum(); }
+    long max() { return max.get(); }
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Menor limite de faixa que cobre a fração p (0..1) das amostras; nunca acima do máximo
+    long percentile(double p) {
+        long n = 0;
+        long[] snap = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) n += snap[i] = counts.get(i);
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snap[i];
+            if (seen >= target) return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,86 @@
+package Simulador;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Leitor do journal em texto usado pelas versões anteriores, mantido só para a migração
+ * para o formato binário. Aceita os dois layouts de linha:
+ * id \t type \t status \t ts \t params      (original, status reescrito no lugar)
+ * P \t id \t type \t ts \t params / C \t id  (append-only com marcadores de commit)
+ */
+class LegacyTextJournal {
+
+    // Indica se o arquivo está no formato texto (não começa com o cabeçalho binário)
+    static boolean isText(File file, byte[] magic) throws IOException {
+        if (!file.exists() || file.length() == 0) return false;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] head = new byte[magic.length];
+            int n = in.read(head);
+            return n < magic.length || !Arrays.equals(head, magic);
+        }
+    }
+
+    // Lê todas as entradas na ordem do arquivo; o seq é atribuído pela posição
+    static List<Journal.Entry> readAll(File file) throws IOException {
+        Map<String, Journal.Entry> byId = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("C\t")) {
+                    Journal.Entry e = byId.get(unescape(line.substring(2)));
+                    if (e != null) e.status = "COMMIT";
+                    continue;
+                }
+                Journal.Entry e = deserialize(line);
+                if (e != null) byId.put(e.id, e);
+            }
+        }
+        List<Journal.Entry> out = new ArrayList<>(byId.values());
+        for (int i = 0; i < out.size(); i++) {
+            Journal.Entry e = out.get(i);
+            e.seq = i + 1;
+            e.id = Long.toString(e.seq);
+        }
+        return out;
+    }
+
+    private static Journal.Entry deserialize(String line) {
+        try {
+            String[] parts = line.split("\t", 5);
+            if (parts.length < 5) return null;
+            Journal.Entry e = new Journal.Entry();
+            int o = parts[0].equals("P") ? 1 : 0;
+            e.id = unescape(parts[o]);
+            e.type = unescape(parts[o + 1]);
+            if (o == 1) {
+                e.status = "PENDING";
+                e.ts = Long.parseLong(parts[3]);
+            } else {
+                e.status = unescape(parts[2]);
+                e.ts = Long.parseLong(parts[3]);
+            }
+            e.params = decodeParams(parts[4]);
+            return e;
+        } catch (Exception ex) {
+            System.err.println("Falha ao desserializar linha do journal: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static Map<String,String> decodeParams(String s) throws UnsupportedEncodingException {
+        Map<String,String> map = new HashMap<>();
+        if (s == null || s.isEmpty()) return map;
+        for (String p : s.split("&")) {
+            String[] kv = p.split("=", 2);
+            if (kv.length == 2) map.put(URLDecoder.decode(kv[0], "UTF-8"), URLDecoder.decode(kv[1], "UTF-8"));
+        }
+        return map;
+    }
+
+    private static String unescape(String s) throws UnsupportedEncodingException {
+        return s == null ? "" : URLDecoder.decode(s, "UTF-8");
+    }
+}
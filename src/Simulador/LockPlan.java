@@ -0,0 +1,138 @@
+package Simulador;
+
+import java.util.*;
+
+/**
+ * Conjunto de nós a travar para uma operação de escrita, com o modo de cada um.
+ *
+ * Toda operação trava os diretórios do caminho em modo leitura, de cima para baixo, e em
+ * modo escrita só os nós que altera. Como quem escreve mantém o caminho inteiro travado,
+ * uma trava de escrita num diretório congela a subárvore dele; é isso que mantém a ordem
+ * do journal (por caminho) igual à ordem em que as operações são aplicadas.
+ *
+ * Os nós são travados em ordem de profundidade e, na mesma profundidade, pelo caminho.
+ * Toda operação, de um caminho ou de vários (mv/cp), segue essa mesma ordem global, então
+ * não há ciclo de espera possível.
+ *
+ * Uma subárvore (origem do cp) é travada em leitura, o que impede escritores dentro dela
+ * sem bloquear os leitores. Os nós dela entram na mesma ordem: a cada profundidade, os
+ * filhos dos diretórios travados na anterior são travados junto com os itens do plano
+ * daquela profundidade, ordenados pelo caminho.
+ */
+class LockPlan {
+    private static class Item {
+        final String key;
+        final String name;
+        final int depth;
+        boolean write;
+        boolean subtree;
+        FsNode node;
+        long stamp;
+
+        Item(String key, String name, int depth) { this.key = key; this.name = name; this.depth = depth; }
+    }
+
+    private final Map<String, Item> items = new HashMap<>();
+    // itens travados (do plano e das subárvores), na ordem em que foram travados
+    private List<Item> locked;
+
+    // Inclui o caminho até parts[0..depth-1]; o último nó recebe o modo pedido e os
+    // anteriores ficam (ao menos) em leitura
+    LockPlan add(String[] parts, int depth, boolean write) {
+        StringBuilder key = new StringBuilder();
+        Item it = item("", null, 0);
+        for (int d = 1; d <= depth; d++) {
+            key.append('/').append(parts[d - 1]);
+            it = item(key.toString(), parts[d - 1], d);
+        }
+        if (write) it.write = true;
+        return this;
+    }
+
+    // Trava em leitura o nó parts[0..depth-1] e todos os seus descendentes
+    LockPlan addSubtree(String[] parts, int depth) {
+        add(parts, depth, false);
+        items.get(key(parts, depth)).subtree = true;
+        return this;
+    }
+
+    // Nó encontrado para o caminho parts[0..depth-1] depois de acquire(), ou null
+    FsNode nodeAt(String[] parts, int depth) {
+        Item it = items.get(key(parts, depth));
+        return it == null ? null : it.node;
+    }
+
+    private static String key(String[] parts, int depth) {
+        StringBuilder key = new StringBuilder();
+        for (int d = 0; d < depth; d++) key.append('/').append(parts[d]);
+        return key.toString();
+    }
+
+    private Item item(String key, String name, int depth) {
+        Item it = items.get(key);
+        if (it == null) {
+            it = new Item(key, name, depth);
+            items.put(key, it);
+        }
+        return it;
+    }
+
+    // Trava os nós na ordem global; nós inexistentes são ignorados (a operação decide o erro)
+    void acquire(DirectoryNode root) {
+        List<Item> plan = new ArrayList<>(items.values());
+        plan.sort((a, b) -> a.depth != b.depth ? Integer.compare(a.depth, b.depth) : a.key.compareTo(b.key));
+        locked = new ArrayList<>();
+        // diretórios de subárvore travados na profundidade anterior
+        List<Item> open = new ArrayList<>();
+        int i = 0;
+        for (int depth = 0; i < plan.size() || !open.isEmpty(); depth++) {
+            List<Item> level = new ArrayList<>();
+            for (; i < plan.size() && plan.get(i).depth == depth; i++) {
+                Item it = plan.get(i);
+                if (depth == 0) {
+                    it.node = root;
+                } else {
+                    Item parent = items.get(it.key.substring(0, it.key.lastIndexOf('/')));
+                    if (parent.node == null || !parent.node.isDirectory()) continue;
+                    it.node = ((DirectoryNode) parent.node).get(it.name);
+                    if (it.node == null) continue;
+                }
+                level.add(it);
+            }
+            for (Item dir : open) {
+                for (Map.Entry<String, FsNode> c : ((DirectoryNode) dir.node).getChildren().entrySet()) {
+                    String key = dir.key + "/" + c.getKey();
+                    Item planned = items.get(key);
+                    if (planned != null) {
+                        // já neste nível pelo plano; em leitura, desce também
+                        planned.subtree = true;
+                        continue;
+                    }
+                    Item it = new Item(key, c.getKey(), depth);
+                    it.node = c.getValue();
+                    it.subtree = true;
+                    level.add(it);
+                }
+            }
+            level.sort((a, b) -> a.key.compareTo(b.key));
+            open = new ArrayList<>();
+            for (Item it : level) {
+                it.stamp = it.write ? it.node.lock().writeLock() : it.node.lock().readLock();
+                locked.add(it);
+                // em escrita, a subárvore já está congelada
+                if (it.subtree && !it.write && it.node.isDirectory()) open.add(it);
+            }
+        }
+    }
+
+    // Solta na ordem inversa
+    void release() {
+        if (locked == null) return;
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            Item it = locked.get(i);
+            it.node.lock().unlock(it.stamp);
+            it.stamp = 0;
+        }
+        locked = null;
+    }
+}
@@ -1,19 +1,30 @@
 package Simulador;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class MainShell {
     public static void main(String[] args) throws Exception {
         String image = "fs.img";
         String journal = "fs.journal";
-        FileSystemSimulator fs = new FileSystemSimulator(image, journal);
+        FileSystemSimulator fs = new FileSystemSimulator(image, journal, parseConfig(args));
+        String serverRoot = null;
+        for (String a : args) if (a.startsWith("--server-root=")) serverRoot = a.substring(14);
+        for (String a : args) {
+            if (a.startsWith("--server=")) {
+                serve(fs, Integer.parseInt(a.substring(9)), serverRoot);
+                return;
+            }
+        }
         System.out.println("Simulador de Sistema de Arquivos (shell). Digite 'help' para ver comandos.");
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        // transação aberta por "begin": as alterações se acumulam nela até "commit"
+        Transaction tx = null;
         while (true) {
             System.out.print("> ");
             String line = br.readLine();
-            if (line == null) break;
+            if (line == null) { fs.close(); break; }
             line = line.trim();
             if (line.isEmpty()) continue;
             String[] parts = line.split(" ", 3);
@@ -21,38 +32,102 @@ public class MainShell {
             try {
                 switch (cmd) {
                     case "help":
-                        System.out.println("comandos: ls, mkdir, rmdir, touch, write, cat, rm, mv, cp, exit");
+                        System.out.println("comandos: ls, mkdir, rmdir, touch, write, cat, truncate, rm [-r], mv, cp [-r], du, find, grep, import, export, snapshot, begin, commit, rollback, checkpoint, compact, dcache, stats, exit");
                         break;
                     case "ls":
                         String p = parts.length>1 ? parts[1] : "/";
-                        System.out.println(fs.ls(p));
+                        if (parts.length > 2) System.out.println(lsPage(fs, p, parts[2]));
+                        else System.out.println(fs.ls(p));
                         break;
                     case "mkdir":
-                        fs.mkdir(parts[1]); System.out.println("ok");
+                        run(fs, tx, Op.mkdir(parts[1]));
                         break;
                     case "rmdir":
-                        fs.rmdir(parts[1]); System.out.println("ok");
+                        run(fs, tx, Op.rmdir(parts[1]));
                         break;
                     case "touch":
-                        fs.touch(parts[1]); System.out.println("ok");
+                        run(fs, tx, Op.touch(parts[1]));
                         break;
                     case "write":
-                        fs.writeFile(parts[1], parts.length>2 ? parts[2] : "");
-                        System.out.println("ok");
+                        run(fs, tx, Op.writeFile(parts[1], parts.length>2 ? parts[2] : ""));
                         break;
                     case "cat":
-                        System.out.println(fs.readFile(parts[1]));
+                        try (InputStream in = fs.openInputStream(parts[1])) { in.transferTo(System.out); }
+                        System.out.println();
+                        break;
+                    case "truncate":
+                        run(fs, tx, Op.truncate(parts[1], Long.parseLong(parts[2])));
                         break;
                     case "rm":
-                        fs.rm(parts[1]); System.out.println("ok");
+                        if (parts[1].equals("-r") && tx == null) { fs.rm(parts[2], progress()); System.out.println("ok"); }
+                        else run(fs, tx, Op.rm(parts[parts.length - 1]));
                         break;
                     case "mv":
-                        fs.mv(parts[1], parts[2]); System.out.println("ok");
+                        run(fs, tx, Op.mv(parts[1], parts[2]));
                         break;
                     case "cp":
-                        fs.cp(parts[1], parts[2]); System.out.println("ok");
+                        if (parts[1].equals("-r")) {
+                            String[] args2 = parts[2].split(" ");
+                            if (tx != null) run(fs, tx, Op.cp(args2[0], args2[1]));
+                            else { fs.cp(args2[0], args2[1], progress()); System.out.println("ok"); }
+                        } else {
+                            run(fs, tx, Op.cp(parts[1], parts[2]));
+                        }
+                        break;
+                    case "begin":
+                        if (tx != null) { System.out.println("ERRO: já existe uma transação aberta"); break; }
+                        tx = fs.begin(); System.out.println("ok");
+                        break;
+                    case "commit":
+                        if (tx == null) { System.out.println("ERRO: nenhuma transação aberta"); break; }
+                        int n = tx.size();
+                        try { tx.commit(); } finally { tx = null; }
+                        System.out.println("ok, " + n + " operações aplicadas");
+                        break;
+                    case "rollback":
+                        if (tx == null) { System.out.println("ERRO: nenhuma transação aberta"); break; }
+                        tx.rollback(); tx = null; System.out.println("ok");
+                        break;
+                    case "du":
+                        FileSystemSimulator.Usage u = fs.usage(parts.length > 1 ? parts[1] : "/", progress());
+                        System.out.println(u.files + " arquivos, " + u.logicalBytes + " bytes lógicos, "
+                                + u.physicalBytes + " bytes físicos");
+                        break;
+                    case "find":
+                        for (String f : fs.find(parts[1], FindQuery.parse(parts.length > 2 ? parts[2] : ""), progress())) System.out.println(f);
+                        break;
+                    case "grep":
+                        // grep <dir> <palavras...>
+                        for (String g : fs.grep(parts[1], parts.length > 2 ? parts[2] : "")) System.out.println(g);
+                        break;
+                    case "import":
+                        String[] io = parts[2].trim().split("\\s+");
+                        System.out.println(fs.importTree(Paths.get(parts[1]), io[0], progress()));
+                        break;
+                    case "export":
+                        String[] eo = parts[2].trim().split("\\s+");
+                        System.out.println(fs.exportTree(parts[1], Paths.get(eo[0]), progress()));
+                        break;
+                    case "snapshot":
+                        snapshot(fs, parts.length > 1 ? parts[1] : "list", parts.length > 2 ? parts[2].trim() : "");
+                        break;
+                    case "checkpoint":
+                        fs.checkpoint(); System.out.println("ok");
+                        break;
+                    case "compact":
+                        System.out.println("ok, " + fs.compact() + " bytes recuperados do journal");
+                        break;
+                    case "dcache":
+                        DentryCache dc = fs.dentryCache();
+                        System.out.println("entradas=" + dc.size() + "/" + dc.capacity()
+                                + " acertos=" + dc.hits() + " faltas=" + dc.misses());
+                        break;
+                    case "stats":
+                        if (parts.length > 1 && parts[1].equals("reset")) { fs.metrics().reset(); System.out.println("ok"); }
+                        else System.out.println(fs.metrics().report());
                         break;
                     case "exit":
+                        fs.close();
                         System.out.println("Saindo.");
                         return;
                     default:
@@ -63,4 +138,119 @@ public class MainShell {
             }
         }
     }
+
+    // Dentro de uma transação a operação só é acumulada; fora dela, aplicada na hora
+    private static void run(FileSystemSimulator fs, Transaction tx, Op op) throws IOException {
+        if (tx != null) tx.add(op);
+        else fs.apply(op);
+        System.out.println("ok");
+    }
+
+    // ls <dir> limit=N [after=NOME] [prefix=P]: uma página da listagem em ordem de nome
+    private static List<String> lsPage(FileSystemSimulator fs, String path, String opts) throws IOException {
+        int limit = 100;
+        String after = null, prefix = null;
+        for (String o : opts.trim().split("\\s+")) {
+            if (o.startsWith("limit=")) limit = Integer.parseInt(o.substring(6));
+            else if (o.startsWith("after=")) after = o.substring(6);
+            else if (o.startsWith("prefix=")) prefix = o.substring(7);
+            else throw new IllegalArgumentException("Opção desconhecida: " + o);
+        }
+        return fs.ls(path, after, limit, prefix);
+    }
+
+    // snapshot create|delete|restore NOME, snapshot list, snapshot diff DE [PARA]
+    // (sem PARA, compara com a árvore atual)
+    private static void snapshot(FileSystemSimulator fs, String sub, String arg) throws IOException {
+        switch (sub) {
+            case "create": fs.createSnapshot(arg); System.out.println("ok"); break;
+            case "delete": fs.deleteSnapshot(arg); System.out.println("ok"); break;
+            case "restore": fs.restoreSnapshot(arg); System.out.println("ok"); break;
+            case "list":
+                for (Snapshot s : fs.snapshots()) {
+                    System.out.println(s.name() + "  " + new Date(s.createdAt()) + "  " + s.preservedCount() + " nós alterados desde então");
+                }
+                break;
+            case "diff":
+                String[] names = arg.split("\\s+");
+                for (String d : fs.diff(names[0], names.length > 1 ? names[1] : null)) System.out.println(d);
+                break;
+            default: throw new IllegalArgumentException("Uso: snapshot create|list|restore|delete|diff");
+        }
+    }
+
+    // Progresso das operações recursivas a cada milhão de nós
+    private static TreeTask progress() {
+        return new TreeTask(n -> System.out.println("... " + n + " nós"), 1_000_000);
+    }
+
+    // --server=PORTA: em vez do shell, atende FsClient em 127.0.0.1 (0 = porta livre). Na
+    // entrada, "conexoes" mostra a vazão de cada conexão, "stats" as métricas e "exit" encerra.
+    // Import e export dos clientes só com --server-root=DIR, e só dentro de DIR.
+    private static void serve(FileSystemSimulator fs, int port, String root) throws Exception {
+        FsServer server = new FsServer(fs, port, root != null ? Paths.get(root) : null,
+                s -> System.out.println("conexão encerrada: " + s));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                fs.close();
+            } catch (IOException e) {
+                System.err.println("Erro encerrando: " + e.getMessage());
+            }
+        }));
+        System.out.println("Servidor em 127.0.0.1:" + server.port());
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        for (String line; (line = br.readLine()) != null; ) {
+            switch (line.trim()) {
+                case "conexoes":
+                    for (FsServer.Stats st : server.connections()) System.out.println(st);
+                    break;
+                case "stats":
+                    System.out.println(fs.metrics().report());
+                    break;
+                case "exit":
+                    System.exit(0);
+                    break;
+                default:
+                    if (!line.trim().isEmpty()) System.out.println("comandos: conexoes, stats, exit");
+            }
+        }
+        // sem entrada (em segundo plano): atende até o processo ser encerrado
+        Thread.currentThread().join();
+    }
+
+    // --durability=sync-each|batch|os escolhe quando o journal chama force()
+    static FsConfig parseConfig(String[] args) {
+        FsConfig cfg = FsConfig.defaults().checkpointPolicy(parseCheckpointPolicy(args));
+        for (String a : args) {
+            if (a.equals("--durability=sync-each")) cfg.durability(Journal.Durability.SYNC_EACH);
+            else if (a.equals("--durability=batch")) cfg.durability(Journal.Durability.SYNC_BATCH);
+            else if (a.equals("--durability=os")) cfg.durability(Journal.Durability.OS_BUFFERED);
+            else if (a.startsWith("--journal-segment-bytes=")) cfg.journalSegmentBytes(Long.parseLong(a.substring(24)));
+            else if (a.equals("--off-heap")) cfg.offHeapContent(true);
+            else if (a.startsWith("--dentry-cache=")) cfg.dentryCacheSize(Integer.parseInt(a.substring(15)));
+            else if (a.equals("--native-image")) cfg.imageFormat(FsConfig.ImageFormat.NATIVE);
+            else if (a.equals("--no-metrics")) cfg.metrics(false);
+            else if (a.startsWith("--tree-threads=")) cfg.treeParallelism(Integer.parseInt(a.substring(15)));
+            else if (a.startsWith("--page-cache=")) cfg.pageCacheBytes(Long.parseLong(a.substring(13)));
+            else if (a.equals("--compact-nodes")) cfg.compactNodes(true);
+            else if (a.equals("--sorted-dirs")) cfg.sortedDirectories(true);
+            else if (a.startsWith("--trace=")) cfg.traceFile(a.substring(8));
+        }
+        return cfg;
+    }
+
+    // --checkpoint-ops=N --checkpoint-bytes=N --checkpoint-interval=ms ativam o modo checkpoint
+    private static CheckpointPolicy parseCheckpointPolicy(String[] args) {
+        CheckpointPolicy def = CheckpointPolicy.defaults();
+        long ops = def.getMaxOps(), bytes = def.getMaxBytes(), interval = def.getIntervalMillis();
+        boolean enabled = false;
+        for (String a : args) {
+            if (a.equals("--checkpoint")) enabled = true;
+            else if (a.startsWith("--checkpoint-ops=")) { ops = Long.parseLong(a.substring(17)); enabled = true; }
+            else if (a.startsWith("--checkpoint-bytes=")) { bytes = Long.parseLong(a.substring(19)); enabled = true; }
+            else if (a.startsWith("--checkpoint-interval=")) { interval = Long.parseLong(a.substring(22)); enabled = true; }
+        }
+        return enabled ? new CheckpointPolicy(ops, bytes, interval) : null;
+    }
 }
@@ -0,0 +1,215 @@
+package Simulador;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Métricas do simulador: um histograma de latência por tipo de operação e por fase
+ * (resolve, journal, apply, persist), contadores de bytes e medidores lidos sob demanda
+ * (nós em memória, tamanho do journal).
+ *
+ * Cada operação pede um Timer a start() e marca o fim de cada fase; os tempos de uma
+ * mesma fase se somam e tudo é gravado uma vez em stop(). Desativadas, start() devolve
+ * um Timer que não faz nada: sem System.nanoTime() e sem alocação.
+ *
+ * Com um TraceRecorder ligado (FsConfig.traceFile), stop() também grava a chamada, com
+ * os parâmetros passados a start() ou a Timer.args(), no arquivo de trace, mesmo com as
+ * métricas desligadas. Sem trace, os parâmetros de args() nem são montados (ver
+ * Timer.traced()).
+ */
+public class Metrics implements MetricsMXBean {
+    public enum Phase {
+        RESOLVE, // percurso do caminho e espera pelas travas
+        JOURNAL, // entrada, marcador de commit e espera pelo disco
+        APPLY,   // alteração (ou leitura) da árvore em memória
+        PERSIST; // gravação da imagem ou aviso ao checkpointer
+
+        final String key = name().toLowerCase();
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final String[] NO_ARGS = {};
+
+    private final boolean enabled;
+    private final Map<String, OpStats> ops = new ConcurrentHashMap<>();
+    private final LongAdder imageBytes = new LongAdder();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile TraceRecorder trace;
+
+    private static class OpStats {
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+
+        OpStats() {
+            for (int i = 0; i < phases.length; i++) phases[i] = new LatencyHistogram();
+        }
+    }
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    // Tempo de uma operação em andamento; usado por uma única thread
+    public static class Timer {
+        private static final Timer NOOP = new Timer(null, null, null, null, null);
+
+        private final OpStats stats;
+        private final TraceRecorder trace;
+        private final String op;
+        private final byte[] data;
+        private String[] kv;
+        private final long start;
+        private long mark;
+        private final long[] spent;
+        private int marked;
+
+        private Timer(OpStats stats, TraceRecorder trace, String op, byte[] data, String[] kv) {
+            this.stats = stats;
+            this.trace = trace;
+            this.op = op;
+            this.data = data;
+            this.kv = kv;
+            this.start = stats == null && trace == null ? 0 : System.nanoTime();
+            this.mark = start;
+            this.spent = stats == null ? null : new long[PHASES.length];
+        }
+
+        // Atribui à fase o tempo desde a marca anterior
+        public void phase(Phase p) {
+            if (stats == null) return;
+            long now = System.nanoTime();
+            spent[p.ordinal()] += now - mark;
+            marked |= 1 << p.ordinal();
+            mark = now;
+        }
+
+        // Se a chamada vai para o trace; só então vale montar os parâmetros de args()
+        public boolean traced() { return trace != null; }
+
+        // Parâmetros da chamada para o trace (nome, valor, ...)
+        public void args(String... kv) { this.kv = kv; }
+
+        // Só operações que terminam chegam aqui: as que falham não entram no trace
+        public void stop() {
+            if (stats == null && trace == null) return;
+            long nanos = System.nanoTime() - start;
+            if (trace != null) trace.record(op, kv, data, start, nanos);
+            if (stats == null) return;
+            stats.total.record(nanos);
+            for (int i = 0; i < spent.length; i++) {
+                if ((marked & (1 << i)) != 0) stats.phases[i].record(spent[i]);
+            }
+        }
+    }
+
+    public Timer start(String op) {
+        return start(op, null, NO_ARGS);
+    }
+
+    // Com os parâmetros (nome, valor, ...) e os bytes (trecho de WRITE_AT, corpo de BATCH)
+    // da operação, usados só pelo trace; quem monta os parâmetros só para isso usa
+    // start(op) e Timer.args()
+    public Timer start(String op, byte[] data, String... kv) {
+        TraceRecorder r = trace;
+        if (!enabled && r == null) return Timer.NOOP;
+        OpStats s = null;
+        if (enabled) {
+            s = ops.get(op);
+            if (s == null) s = ops.computeIfAbsent(op, k -> new OpStats());
+        }
+        return new Timer(s, r, op, data, kv);
+    }
+
+    // Liga (ou, com null, desliga) a gravação das chamadas
+    void trace(TraceRecorder recorder) {
+        this.trace = recorder;
+    }
+
+    void addImageBytes(long n) {
+        if (enabled) imageBytes.add(n);
+    }
+
+    // Medidor calculado na hora da consulta (ex.: tamanho do journal)
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // ---- consulta ----
+
+    private Map<String, Double> latencies(ToDoubleFunction<LatencyHistogram> f) {
+        Map<String, Double> out = new TreeMap<>();
+        for (Map.Entry<String, OpStats> e : ops.entrySet()) {
+            OpStats s = e.getValue();
+            if (s.total.count() == 0) continue;
+            out.put(e.getKey(), f.applyAsDouble(s.total) / 1000.0);
+            for (Phase p : PHASES) {
+                LatencyHistogram h = s.phases[p.ordinal()];
+                if (h.count() > 0) out.put(e.getKey() + "/" + p.key, f.applyAsDouble(h) / 1000.0);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> out = new TreeMap<>();
+        for (Map.Entry<String, OpStats> e : ops.entrySet()) {
+            if (e.getValue().total.count() > 0) out.put(e.getKey(), e.getValue().total.count());
+        }
+        return out;
+    }
+
+    @Override public Map<String, Double> getMeanMicros() { return latencies(LatencyHistogram::mean); }
+    @Override public Map<String, Double> getP50Micros() { return latencies(h -> h.percentile(0.50)); }
+    @Override public Map<String, Double> getP99Micros() { return latencies(h -> h.percentile(0.99)); }
+    @Override public Map<String, Double> getP999Micros() { return latencies(h -> h.percentile(0.999)); }
+    @Override public Map<String, Double> getMaxMicros() { return latencies(LatencyHistogram::max); }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> out = new TreeMap<>();
+        out.put("imagem_bytes_gravados", imageBytes.sum());
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) out.put(e.getKey(), e.getValue().getAsLong());
+        return out;
+    }
+
+    @Override
+    public void reset() {
+        for (OpStats s : ops.values()) {
+            s.total.reset();
+            for (LatencyHistogram h : s.phases) h.reset();
+        }
+        imageBytes.reset();
+    }
+
+    // Tabela para o comando stats do shell
+    public String report() {
+        if (!enabled) return "métricas desativadas";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %8s %10s %10s %10s %10s%n", "operação/fase", "n", "média µs", "p50 µs", "p99 µs", "máx µs"));
+        for (String op : new TreeMap<>(ops).keySet()) {
+            OpStats s = ops.get(op);
+            if (s.total.count() == 0) continue;
+            line(sb, op, s.total);
+            for (Phase p : PHASES) {
+                LatencyHistogram h = s.phases[p.ordinal()];
+                if (h.count() > 0) line(sb, "  " + p.key, h);
+            }
+        }
+        for (Map.Entry<String, Long> e : getGauges().entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append(System.lineSeparator());
+        }
+        return sb.toString().trim();
+    }
+
+    private static void line(StringBuilder sb, String name, LatencyHistogram h) {
+        sb.append(String.format("%-22s %8d %10.1f %10.1f %10.1f %10.1f%n", name, h.count(),
+                h.mean() / 1000.0, h.percentile(0.50) / 1000.0, h.percentile(0.99) / 1000.0, h.max() / 1000.0));
+    }
+}
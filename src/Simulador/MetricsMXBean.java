@@ -0,0 +1,19 @@
+package Simulador;
+
+import java.util.Map;
+
+/**
+ * Visão JMX das métricas de um FileSystemSimulator (Simulador:type=FileSystem).
+ * As chaves de latência são o tipo da operação ("MV") ou operação/fase ("MV/journal").
+ */
+public interface MetricsMXBean {
+    Map<String, Long> getCounts();
+    Map<String, Double> getMeanMicros();
+    Map<String, Double> getP50Micros();
+    Map<String, Double> getP99Micros();
+    Map<String, Double> getP999Micros();
+    Map<String, Double> getMaxMicros();
+    // bytes gravados na imagem e no journal, nós em memória, tamanho do journal
+    Map<String, Long> getGauges();
+    void reset();
+}
@@ -0,0 +1,670 @@
+package Simulador;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Imagem do sistema de arquivos em formato próprio, em blocos de FileNode.BLOCK_SIZE bytes.
+ *
+ * Bloco 0:           superbloco (geometria, inode raiz, seq do último checkpoint)
+ * Bitmap de inodes e bitmap de blocos livres
+ * Tabela de inodes:  INODE_SIZE bytes cada: byte tipo | byte offHeap | short 0 | long tamanho |
+ *                    long criação | long modificação | int direto[12] | int indireto |
+ *                    int duplamente indireto
+ * Blocos de dados:   conteúdo de arquivos, entradas de diretório e blocos de ponteiros
+ * Diretório:         int quantidade | (int inode, short tamNome, nome UTF-8)*
+ *
+ * Abrir a imagem lê só o superbloco: diretórios e conteúdo são lidos no primeiro acesso
+ * (DirectoryNode, FileNode e Block guardam de onde ler). Um checkpoint percorre só a parte
+ * da árvore já carregada e regrava os inodes e blocos dos nós alterados, liberando o que
+ * saiu da árvore. As páginas de um checkpoint são gravadas primeiro num log (path.wal)
+ * com CRC32C e só então escritas no lugar; um log completo encontrado na abertura é
+ * reaplicado, um incompleto é descartado (a imagem ainda não foi tocada).
+ */
+class NativeImage implements Closeable {
+    private static final byte[] MAGIC = {'S', 'F', 'S', 'N'};
+    private static final byte[] WAL_MAGIC = {'S', 'F', 'S', 'W'};
+    private static final int VERSION = 1;
+    private static final int BLOCK = FileNode.BLOCK_SIZE;
+    private static final int INODE_SIZE = 128;
+    private static final int DIRECT = 12;
+    private static final int PTRS = BLOCK / 4;
+    private static final int ROOT = 1;
+    private static final byte FREE = 0, FILE = 1, DIR = 2;
+    public static final int DEFAULT_INODES = 65_536;
+    public static final int DEFAULT_BLOCKS = 1 << 20;
+
+    private final Path path;
+    private final Path walPath;
+    private final FileChannel channel;
+    private final BlockStore store;
+
+    private int inodeCount;
+    private int blockCount;
+    private long inodeBitmapStart;
+    private long blockBitmapStart;
+    private long inodeTableStart;
+    private long dataStart;
+    private long checkpointSeq = -1;
+
+    // estado do checkpoint em preparação; quem chama garante um checkpoint por vez
+    private BitSet inodeBits;
+    private BitSet blockBits;
+    private int inodeHint = ROOT + 1;
+    private int blockHint;
+    private TreeMap<Long, byte[]> pages;
+    private Map<FsNode, Integer> assigned;
+    private Set<Integer> referenced;
+    private List<Integer> removed;
+    private List<Integer> freedBlocks;
+    private List<Runnable> updates;
+    // uma gravação no lugar falhou: a imagem só volta a ser confiável reabrindo (log + journal)
+    private boolean failed;
+    // log de checkpoint achado na abertura: páginas reaplicadas, -1 se estava incompleto e
+    // foi descartado, 0 se não havia
+    private int walRecovered;
+
+    private static class Inode {
+        byte type;
+        boolean offHeap;
+        long size;
+        long created;
+        long modified;
+        int[] direct = new int[DIRECT];
+        int indirect;
+        int doubleIndirect;
+
+        void encode(ByteBuffer b) {
+            b.put(type).put((byte) (offHeap ? 1 : 0)).putShort((short) 0);
+            b.putLong(size).putLong(created).putLong(modified);
+            for (int p : direct) b.putInt(p);
+            b.putInt(indirect).putInt(doubleIndirect);
+        }
+
+        static Inode decode(ByteBuffer b) {
+            Inode in = new Inode();
+            in.type = b.get();
+            in.offHeap = b.get() != 0;
+            b.getShort();
+            in.size = b.getLong();
+            in.created = b.getLong();
+            in.modified = b.getLong();
+            for (int i = 0; i < DIRECT; i++) in.direct[i] = b.getInt();
+            in.indirect = b.getInt();
+            in.doubleIndirect = b.getInt();
+            return in;
+        }
+    }
+
+    private NativeImage(Path path, BlockStore store) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.walPath = this.path.resolveSibling(this.path.getFileName() + ".wal");
+        this.store = store;
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Cria uma imagem vazia (só a raiz) com capacidade para inodes nós e blocks blocos
+    static NativeImage create(Path path, BlockStore store, int inodes, int blocks) throws IOException {
+        Files.deleteIfExists(path);
+        NativeImage img = new NativeImage(path, store);
+        Files.deleteIfExists(img.walPath);
+        img.format(inodes, blocks);
+        return img;
+    }
+
+    // Abre uma imagem existente: reaplica um log de checkpoint pendente e lê o superbloco
+    static NativeImage open(Path path, BlockStore store) throws IOException {
+        NativeImage img = new NativeImage(path, store);
+        img.recoverWal();
+        img.readSuperblock();
+        return img;
+    }
+
+    static boolean isNative(File f) {
+        byte[] head = new byte[MAGIC.length];
+        try (FileInputStream in = new FileInputStream(f)) {
+            return in.read(head) == head.length && Arrays.equals(head, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // seq do journal coberto pelo último checkpoint (-1 se nenhum)
+    long checkpointSeq() { return checkpointSeq; }
+
+    // true após uma gravação interrompida no meio: só reabrindo a imagem se recupera
+    boolean failed() { return failed; }
+
+    int walRecovered() { return walRecovered; }
+
+    private void format(int inodes, int blocks) throws IOException {
+        inodeCount = inodes;
+        blockCount = blocks;
+        inodeBitmapStart = 1;
+        blockBitmapStart = inodeBitmapStart + blocksFor((inodes + 7) / 8);
+        inodeTableStart = blockBitmapStart + blocksFor((blocks + 7) / 8);
+        dataStart = inodeTableStart + blocksFor((long) inodes * INODE_SIZE);
+        if (dataStart >= blocks || inodes <= ROOT) throw new IOException("Imagem pequena demais para a geometria pedida");
+        pages = new TreeMap<>();
+        inodeBits = new BitSet();
+        blockBits = new BitSet();
+        for (long b = 0; b < dataStart; b++) setBit(blockBitmapStart, blockBits, (int) b, true);
+        setBit(inodeBitmapStart, inodeBits, 0, true);
+        setBit(inodeBitmapStart, inodeBits, ROOT, true);
+        blockHint = (int) dataStart;
+        Inode root = new Inode();
+        root.type = DIR;
+        root.created = root.modified = System.currentTimeMillis();
+        putInode(ROOT, root);
+        putSuperblock();
+        commit();
+    }
+
+    private void putSuperblock() throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(new byte[BLOCK]);
+        b.put(MAGIC).putInt(VERSION).putInt(BLOCK).putInt(inodeCount).putInt(blockCount);
+        b.putLong(inodeBitmapStart).putLong(blockBitmapStart).putLong(inodeTableStart).putLong(dataStart);
+        b.putInt(ROOT).putLong(checkpointSeq);
+        pages.put(0L, b.array());
+    }
+
+    private void readSuperblock() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(BLOCK);
+        readBlock(0, b);
+        b.flip();
+        byte[] magic = new byte[MAGIC.length];
+        b.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || b.getInt() != VERSION || b.getInt() != BLOCK) {
+            throw new IOException("Imagem nativa inválida: " + path);
+        }
+        inodeCount = b.getInt();
+        blockCount = b.getInt();
+        inodeBitmapStart = b.getLong();
+        blockBitmapStart = b.getLong();
+        inodeTableStart = b.getLong();
+        dataStart = b.getLong();
+        b.getInt();
+        checkpointSeq = b.getLong();
+        blockHint = (int) dataStart;
+    }
+
+    private static long blocksFor(long bytes) {
+        return (bytes + BLOCK - 1) / BLOCK;
+    }
+
+    // ---- leitura (também usada pela carga preguiçosa, concorrente com um checkpoint) ----
+
+    // Lê o bloco blockNo em dst; trechos além do fim do arquivo (esparso) vêm zerados
+    void readBlock(long blockNo, ByteBuffer dst) throws IOException {
+        long pos = blockNo * BLOCK;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, pos);
+            if (n < 0) break;
+            pos += n;
+        }
+        while (dst.hasRemaining()) dst.put((byte) 0);
+    }
+
+    // Bloco para leitura; dentro de um checkpoint, inclui o que já foi alterado nele
+    private ByteBuffer block(long blockNo, boolean pending) throws IOException {
+        if (pending) {
+            byte[] p = pages.get(blockNo);
+            if (p != null) return ByteBuffer.wrap(p);
+        }
+        ByteBuffer b = ByteBuffer.allocate(BLOCK);
+        readBlock(blockNo, b);
+        b.flip();
+        return b;
+    }
+
+    private Inode inode(int ino, boolean pending) throws IOException {
+        long offset = (long) ino * INODE_SIZE;
+        ByteBuffer b = block(inodeTableStart + offset / BLOCK, pending);
+        b.position((int) (offset % BLOCK));
+        return Inode.decode(b);
+    }
+
+    private int[] pointers(Inode in, int count, boolean pending) throws IOException {
+        int[] p = new int[count];
+        for (int i = 0; i < Math.min(count, DIRECT); i++) p[i] = in.direct[i];
+        if (count > DIRECT) {
+            ByteBuffer ind = block(in.indirect, pending);
+            for (int i = DIRECT; i < Math.min(count, DIRECT + PTRS); i++) p[i] = ind.getInt((i - DIRECT) * 4);
+        }
+        if (count > DIRECT + PTRS) {
+            ByteBuffer top = block(in.doubleIndirect, pending);
+            ByteBuffer sub = null;
+            int subIndex = -1;
+            for (int i = DIRECT + PTRS; i < count; i++) {
+                int k = i - DIRECT - PTRS;
+                if (k / PTRS != subIndex) {
+                    subIndex = k / PTRS;
+                    sub = block(top.getInt(subIndex * 4), pending);
+                }
+                p[i] = sub.getInt((k % PTRS) * 4);
+            }
+        }
+        return p;
+    }
+
+    private byte[] data(Inode in, boolean pending) throws IOException {
+        byte[] out = new byte[(int) in.size];
+        int[] ptrs = pointers(in, (int) blocksFor(in.size), pending);
+        for (int i = 0; i < ptrs.length; i++) {
+            ByteBuffer b = block(ptrs[i], pending);
+            b.get(out, i * BLOCK, Math.min(BLOCK, out.length - i * BLOCK));
+        }
+        return out;
+    }
+
+    // Raiz da árvore, com os filhos ainda por carregar
+    DirectoryNode loadRoot() throws IOException {
+        DirectoryNode root = new DirectoryNode("/");
+        Inode in = inode(ROOT, false);
+        root.inode = ROOT;
+        root.createdAt = in.created;
+        root.modifiedAt = in.modified;
+        root.loadLazily(this);
+        return root;
+    }
+
+    // Lê as entradas de um diretório; os filhos chegam sem conteúdo carregado
+    void readChildren(DirectoryNode dir, Map<String, FsNode> children) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(data(inode(dir.inode, false), false));
+        int n = b.remaining() == 0 ? 0 : b.getInt();
+        int[] inos = new int[n];
+        for (int i = 0; i < n; i++) {
+            inos[i] = b.getInt();
+            byte[] name = new byte[b.getShort() & 0xffff];
+            b.get(name);
+            String childName = new String(name, StandardCharsets.UTF_8);
+            Inode in = inode(inos[i], false);
+            FsNode child;
+            if (in.type == DIR) {
+                DirectoryNode d = new DirectoryNode(childName);
+                d.loadLazily(this);
+                child = d;
+            } else {
+                FileNode f = new FileNode(childName, in.offHeap);
+                f.loadLazily(this, in.size);
+                f.attach(store);
+                child = f;
+            }
+            child.inode = inos[i];
+            child.createdAt = in.created;
+            child.modifiedAt = in.modified;
+            children.put(childName, child);
+        }
+        dir.diskChildren = inos;
+    }
+
+    // Ponteiros dos blocos de dados de um arquivo gravado
+    int[] readBlockPointers(int ino) throws IOException {
+        Inode in = inode(ino, false);
+        return pointers(in, (int) blocksFor(in.size), false);
+    }
+
+    // ---- checkpoint ----
+
+    // Monta as páginas de um checkpoint a partir da árvore em memória. Deve ser chamado com
+    // os escritores parados; só depois de montar tudo o estado dos nós (inodes, blocos
+    // gravados, marcas de alteração) é atualizado, então uma falha aqui não deixa rastro.
+    void prepare(DirectoryNode root, long seq) throws IOException {
+        if (failed) throw new IOException("Imagem nativa inconsistente após falha de gravação; reabra para recuperar");
+        pages = new TreeMap<>();
+        assigned = new IdentityHashMap<>();
+        referenced = new HashSet<>();
+        removed = new ArrayList<>();
+        freedBlocks = new ArrayList<>();
+        updates = new ArrayList<>();
+        try {
+            loadBitmaps();
+            writeNode(root, true);
+            for (int ino : removed) freeTree(ino);
+            for (int b : freedBlocks) setBit(blockBitmapStart, blockBits, b, false);
+            checkpointSeq = seq;
+            putSuperblock();
+        } catch (IOException | RuntimeException e) {
+            // bitmaps e páginas voltam a ser lidos do disco no próximo checkpoint
+            pages = null;
+            inodeBits = null;
+            blockBits = null;
+            throw e;
+        } finally {
+            assigned = null;
+            referenced = null;
+            removed = null;
+            freedBlocks = null;
+        }
+        for (Runnable r : updates) r.run();
+        updates = null;
+    }
+
+    // Grava as páginas montadas por prepare(): primeiro no log, depois no lugar.
+    // Retorna os bytes gravados (log e imagem).
+    long commit() throws IOException {
+        if (pages == null) return 0;
+        try {
+            writeWal();
+            for (Map.Entry<Long, byte[]> p : pages.entrySet()) writeAt(p.getValue(), p.getKey() * BLOCK);
+            channel.force(true);
+            Files.deleteIfExists(walPath);
+            return 12 + (long) pages.size() * (8 + 2 * BLOCK);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        } finally {
+            pages = null;
+        }
+    }
+
+    private void writeAt(byte[] bytes, long pos) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        while (b.hasRemaining()) pos += channel.write(b, pos);
+    }
+
+    private void loadBitmaps() throws IOException {
+        if (inodeBits != null) return;
+        inodeBits = readBitmap(inodeBitmapStart, inodeCount);
+        blockBits = readBitmap(blockBitmapStart, blockCount);
+    }
+
+    private BitSet readBitmap(long start, int bits) throws IOException {
+        byte[] all = new byte[(bits + 7) / 8];
+        for (int off = 0; off < all.length; off += BLOCK) {
+            ByteBuffer b = block(start + off / BLOCK, false);
+            b.get(all, off, Math.min(BLOCK, all.length - off));
+        }
+        return BitSet.valueOf(all);
+    }
+
+    private void setBit(long start, BitSet bits, int n, boolean value) throws IOException {
+        bits.set(n, value);
+        byte[] p = page(start + (n / 8) / BLOCK);
+        int i = (n / 8) % BLOCK;
+        if (value) p[i] |= (byte) (1 << (n % 8));
+        else p[i] &= (byte) ~(1 << (n % 8));
+    }
+
+    // Página para alteração dentro do checkpoint (lida do disco na primeira vez)
+    private byte[] page(long blockNo) throws IOException {
+        byte[] p = pages.get(blockNo);
+        if (p == null) {
+            p = block(blockNo, false).array();
+            pages.put(blockNo, p);
+        }
+        return p;
+    }
+
+    // Regrava um bloco só se o conteúdo mudou (blocos recém-alocados sempre)
+    private void putBlock(int blockNo, byte[] bytes, boolean fresh) throws IOException {
+        if (!fresh && Arrays.equals(block(blockNo, true).array(), bytes)) return;
+        pages.put((long) blockNo, bytes);
+    }
+
+    private void putInode(int ino, Inode in) throws IOException {
+        long offset = (long) ino * INODE_SIZE;
+        ByteBuffer b = ByteBuffer.wrap(page(inodeTableStart + offset / BLOCK));
+        b.position((int) (offset % BLOCK));
+        in.encode(b);
+    }
+
+    private int allocInode() throws IOException {
+        int i = inodeBits.nextClearBit(inodeHint);
+        if (i >= inodeCount) i = inodeBits.nextClearBit(ROOT + 1);
+        if (i >= inodeCount) throw new IOException("Imagem nativa cheia: sem inodes livres");
+        setBit(inodeBitmapStart, inodeBits, i, true);
+        inodeHint = i + 1;
+        return i;
+    }
+
+    // Blocos liberados neste checkpoint só voltam a ser usados no próximo
+    private int allocBlock() throws IOException {
+        int b = blockBits.nextClearBit(blockHint);
+        if (b >= blockCount) b = blockBits.nextClearBit((int) dataStart);
+        if (b >= blockCount) throw new IOException("Imagem nativa cheia: sem blocos livres");
+        setBit(blockBitmapStart, blockBits, b, true);
+        blockHint = b + 1;
+        return b;
+    }
+
+    private int ino(FsNode n) {
+        if (n.inode != 0) return n.inode;
+        Integer a = assigned.get(n);
+        return a == null ? 0 : a;
+    }
+
+    private void writeNode(FsNode n, boolean isRoot) throws IOException {
+        boolean isNew = ino(n) == 0;
+        if (isNew) {
+            int ino = isRoot ? ROOT : allocInode();
+            assigned.put(n, ino);
+            updates.add(() -> n.inode = ino);
+        }
+        referenced.add(ino(n));
+        if (n.isDirectory()) {
+            DirectoryNode d = (DirectoryNode) n;
+            // um diretório nunca carregado não mudou, nem nada abaixo dele
+            if (d.isLoaded()) {
+                for (FsNode child : d.getChildren().values()) writeNode(child, false);
+            }
+            if (isNew || n.dirty) writeDirectory(d, isNew && !isRoot);
+        } else if (isNew || n.dirty || ((FileNode) n).dirtyBlocks() != null) {
+            writeFile((FileNode) n, isNew);
+        }
+        if (n.dirty) updates.add(() -> n.dirty = false);
+    }
+
+    private Inode inodeFor(FsNode n, boolean blank, byte type) throws IOException {
+        Inode in = blank ? new Inode() : inode(ino(n), true);
+        in.type = type;
+        in.created = n.createdAt;
+        in.modified = n.modifiedAt;
+        return in;
+    }
+
+    private void writeDirectory(DirectoryNode d, boolean blank) throws IOException {
+        Inode in = inodeFor(d, blank, DIR);
+        if (d.isLoaded()) {
+            Map<String, FsNode> children = d.getChildren();
+            int[] inos = new int[children.size()];
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(children.size());
+            int i = 0;
+            for (Map.Entry<String, FsNode> e : children.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                inos[i] = ino(e.getValue());
+                out.writeInt(inos[i++]);
+                out.writeShort(name.length);
+                out.write(name);
+            }
+            storeData(in, bos.toByteArray());
+            // filhos que saíram deste diretório desde a última gravação
+            if (d.diskChildren != null) {
+                Set<Integer> now = new HashSet<>();
+                for (int c : inos) now.add(c);
+                for (int c : d.diskChildren) if (!now.contains(c)) removed.add(c);
+            }
+            updates.add(() -> d.diskChildren = inos);
+        }
+        putInode(ino(d), in);
+    }
+
+    private void storeData(Inode in, byte[] data) throws IOException {
+        int[] old = pointers(in, (int) blocksFor(in.size), true);
+        int n = (int) blocksFor(data.length);
+        int[] ptrs = Arrays.copyOf(old, n);
+        for (int i = 0; i < n; i++) {
+            boolean fresh = i >= old.length || old[i] == 0;
+            if (fresh) ptrs[i] = allocBlock();
+            putBlock(ptrs[i], Arrays.copyOfRange(data, i * BLOCK, (i + 1) * BLOCK), fresh);
+        }
+        for (int i = n; i < old.length; i++) freedBlocks.add(old[i]);
+        storePointers(in, ptrs);
+        in.size = data.length;
+    }
+
+    private void writeFile(FileNode f, boolean blank) throws IOException {
+        Inode in = inodeFor(f, blank, FILE);
+        in.offHeap = f.isOffHeap();
+        // conteúdo nunca carregado não mudou: tamanho e ponteiros continuam os gravados
+        if (f.isContentLoaded()) {
+            List<Block> blocks = f.blocks();
+            int[] old = f.diskBlocks == null ? new int[0] : f.diskBlocks;
+            BitSet dirty = f.dirtyBlocks();
+            if (blank || dirty != null || blocks.size() != old.length) {
+                int[] ptrs = Arrays.copyOf(old, blocks.size());
+                for (int i = 0; i < blocks.size(); i++) {
+                    boolean fresh = i >= old.length || old[i] == 0;
+                    if (fresh) ptrs[i] = allocBlock();
+                    if (fresh || (dirty != null && dirty.get(i))) {
+                        byte[] bytes = new byte[BLOCK];
+                        blocks.get(i).content().get(bytes);
+                        pages.put((long) ptrs[i], bytes);
+                    }
+                }
+                for (int i = blocks.size(); i < old.length; i++) freedBlocks.add(old[i]);
+                storePointers(in, ptrs);
+                updates.add(() -> {
+                    f.diskBlocks = ptrs;
+                    f.clearDirtyBlocks();
+                });
+            }
+            in.size = f.size();
+        }
+        putInode(ino(f), in);
+    }
+
+    private void storePointers(Inode in, int[] ptrs) throws IOException {
+        for (int i = 0; i < DIRECT; i++) in.direct[i] = i < ptrs.length ? ptrs[i] : 0;
+        if (ptrs.length > DIRECT) {
+            boolean fresh = in.indirect == 0;
+            if (fresh) in.indirect = allocBlock();
+            putBlock(in.indirect, pointerBlock(ptrs, DIRECT), fresh);
+        } else if (in.indirect != 0) {
+            freedBlocks.add(in.indirect);
+            in.indirect = 0;
+        }
+        int beyond = ptrs.length - DIRECT - PTRS;
+        if (beyond > 0) {
+            boolean fresh = in.doubleIndirect == 0;
+            if (fresh) in.doubleIndirect = allocBlock();
+            ByteBuffer oldTop = fresh ? ByteBuffer.allocate(BLOCK) : block(in.doubleIndirect, true);
+            ByteBuffer top = ByteBuffer.allocate(BLOCK);
+            int subs = (beyond + PTRS - 1) / PTRS;
+            for (int s = 0; s < PTRS; s++) {
+                int sub = oldTop.getInt(s * 4);
+                if (s < subs) {
+                    boolean subFresh = sub == 0;
+                    if (subFresh) sub = allocBlock();
+                    top.putInt(s * 4, sub);
+                    putBlock(sub, pointerBlock(ptrs, DIRECT + PTRS + s * PTRS), subFresh);
+                } else if (sub != 0) {
+                    freedBlocks.add(sub);
+                }
+            }
+            putBlock(in.doubleIndirect, top.array(), fresh);
+        } else if (in.doubleIndirect != 0) {
+            ByteBuffer top = block(in.doubleIndirect, true);
+            for (int s = 0; s < PTRS; s++) if (top.getInt(s * 4) != 0) freedBlocks.add(top.getInt(s * 4));
+            freedBlocks.add(in.doubleIndirect);
+            in.doubleIndirect = 0;
+        }
+    }
+
+    private static byte[] pointerBlock(int[] ptrs, int from) {
+        ByteBuffer b = ByteBuffer.allocate(BLOCK);
+        for (int i = from; i < Math.min(ptrs.length, from + PTRS); i++) b.putInt((i - from) * 4, ptrs[i]);
+        return b.array();
+    }
+
+    // Libera um nó que saiu da árvore e, se for diretório, o que estava gravado abaixo dele;
+    // nós que só mudaram de lugar continuam referenciados e são mantidos
+    private void freeTree(int ino) throws IOException {
+        if (referenced.contains(ino)) return;
+        Inode in = inode(ino, true);
+        if (in.type == FREE) return;
+        if (in.type == DIR) {
+            ByteBuffer b = ByteBuffer.wrap(data(in, true));
+            int n = b.remaining() == 0 ? 0 : b.getInt();
+            for (int i = 0; i < n; i++) {
+                int child = b.getInt();
+                int nameLen = b.getShort() & 0xffff;
+                b.position(b.position() + nameLen);
+                freeTree(child);
+            }
+        }
+        for (int p : pointers(in, (int) blocksFor(in.size), true)) freedBlocks.add(p);
+        storePointers(in, new int[0]);
+        putInode(ino, new Inode());
+        setBit(inodeBitmapStart, inodeBits, ino, false);
+    }
+
+    // ---- log do checkpoint ----
+
+    private void writeWal() throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel wal = FileChannel.open(walPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer head = ByteBuffer.allocate(8);
+            head.put(WAL_MAGIC).putInt(pages.size()).flip();
+            crc.update(head.duplicate());
+            writeFully(wal, head);
+            for (Map.Entry<Long, byte[]> p : pages.entrySet()) {
+                ByteBuffer rec = ByteBuffer.allocate(8 + BLOCK);
+                rec.putLong(p.getKey()).put(p.getValue()).flip();
+                crc.update(rec.duplicate());
+                writeFully(wal, rec);
+            }
+            ByteBuffer tail = ByteBuffer.allocate(4);
+            tail.putInt((int) crc.getValue()).flip();
+            writeFully(wal, tail);
+            wal.force(true);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    private void recoverWal() throws IOException {
+        if (!Files.exists(walPath)) return;
+        ByteBuffer all = ByteBuffer.wrap(Files.readAllBytes(walPath));
+        boolean valid = false;
+        int count = 0;
+        if (all.remaining() >= 12) {
+            byte[] magic = new byte[WAL_MAGIC.length];
+            all.get(magic);
+            count = all.getInt();
+            long expected = 8 + (long) count * (8 + BLOCK) + 4;
+            if (Arrays.equals(magic, WAL_MAGIC) && count >= 0 && expected == all.capacity()) {
+                CRC32C crc = new CRC32C();
+                crc.update(all.array(), 0, all.capacity() - 4);
+                valid = (int) crc.getValue() == all.getInt(all.capacity() - 4);
+            }
+            if (valid) {
+                for (int i = 0; i < count; i++) {
+                    long blockNo = all.getLong();
+                    byte[] bytes = new byte[BLOCK];
+                    all.get(bytes);
+                    writeAt(bytes, blockNo * BLOCK);
+                }
+                channel.force(true);
+            }
+        }
+        walRecovered = valid ? count : -1;
+        Files.delete(walPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
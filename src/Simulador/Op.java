@@ -0,0 +1,50 @@
+package Simulador;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uma operação de escrita descrita como dado: o tipo (nome de OpCode), os parâmetros e os
+ * bytes opcionais, exatamente como ficam numa entrada do journal. É a unidade de
+ * FileSystemSimulator.apply(List) e de Transaction.
+ */
+public class Op {
+    public final String type;
+    public final Map<String,String> params;
+    // bytes da operação (trecho de WRITE_AT, corpo de BATCH), ou null
+    public final byte[] data;
+
+    Op(String type, Map<String,String> params, byte[] data) {
+        this.type = type;
+        this.params = params;
+        this.data = data;
+    }
+
+    private static Op of(String type, byte[] data, String... kv) {
+        Map<String,String> params = new HashMap<>();
+        for (int i = 0; i + 1 < kv.length; i += 2) params.put(kv[i], kv[i + 1]);
+        return new Op(type, params, data);
+    }
+
+    public static Op mkdir(String path) { return of("MKDIR", null, "path", path); }
+    public static Op rmdir(String path) { return of("RMDIR", null, "path", path); }
+    public static Op touch(String path) { return of("TOUCH", null, "path", path); }
+    public static Op writeFile(String path, String content) { return of("WRITE", null, "path", path, "content", content); }
+    public static Op write(String path, long offset, byte[] data) {
+        return of("WRITE_AT", data, "path", path, "offset", Long.toString(offset));
+    }
+    public static Op truncate(String path, long size) { return of("TRUNCATE", null, "path", path, "size", Long.toString(size)); }
+    public static Op rm(String path) { return of("RM", null, "path", path); }
+    public static Op mv(String src, String dst) { return of("MV", null, "src", src, "dst", dst); }
+    public static Op cp(String src, String dst) { return of("CP", null, "src", src, "dst", dst); }
+
+    // A operação gravada numa entrada do journal
+    static Op from(Journal.Entry e) { return new Op(e.type, e.params, e.data); }
+
+    // Tamanho aproximado, para a política de checkpoint
+    long bytes() {
+        long n = data == null ? 0 : data.length;
+        for (String v : params.values()) n += v == null ? 0 : v.length();
+        return n;
+    }
+}
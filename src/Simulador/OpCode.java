@@ -0,0 +1,27 @@
+package Simulador;
+
+/**
+ * Códigos numéricos das operações gravadas no journal binário.
+ * O nome continua sendo o usado em Journal.Entry.type.
+ */
+public enum OpCode {
+    MKDIR(1), RMDIR(2), TOUCH(3), WRITE(4), RM(5), MV(6), CP(7), WRITE_AT(8), TRUNCATE(9), BATCH(10),
+    SNAPSHOT(11), SNAPSHOT_DELETE(12), RESTORE(13);
+
+    private static final OpCode[] BY_CODE = new OpCode[256];
+    static {
+        for (OpCode op : values()) BY_CODE[op.code] = op;
+    }
+
+    public final int code;
+
+    OpCode(int code) { this.code = code; }
+
+    public static OpCode fromCode(int code) {
+        OpCode op = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (op == null) throw new IllegalArgumentException("Código de operação desconhecido: " + code);
+        return op;
+    }
+
+    public static OpCode fromName(String name) { return valueOf(name); }
+}
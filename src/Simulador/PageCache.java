@@ -0,0 +1,202 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limite de memória para o conteúdo dos arquivos: no máximo capacity blocos ficam com os
+ * bytes em memória (um quadro cada); os demais ficam num arquivo de troca (spill) e são
+ * lidos de volta no primeiro acesso. A vítima é escolhida pelo relógio (CLOCK): o
+ * ponteiro percorre os quadros, dá uma segunda chance aos blocos usados desde a última
+ * passada e despeja o primeiro que não foi, gravando-o no spill antes se ele mudou
+ * desde a última gravação (ou nunca foi gravado).
+ *
+ * Quem escreve num bloco o fixa (Block.pin) até terminar, e um bloco fixado não é
+ * despejado. O despejo só solta a referência ao buffer, que nunca é reaproveitado: uma
+ * visão obtida antes continua legível, por isso leituras curtas não precisam de pin.
+ *
+ * O spill não é durável (o conteúdo está na imagem e no journal) e é apagado no close().
+ */
+final class PageCache implements Closeable {
+    // abaixo disso, os blocos fixados por escritores concorrentes poderiam ocupar tudo
+    static final int MIN_PAGES = 64;
+    private static final int BLOCK = FileNode.BLOCK_SIZE;
+
+    private final Path spillPath;
+    private final FileChannel spill;
+    private final Block[] frames;
+    private final int[] freeFrames;
+    private int freeCount;
+    private int hand;
+    // posições livres no spill (de blocos soltos) e a próxima nunca usada
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount;
+    private int nextSlot;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+    private long writeBacks;
+
+    PageCache(long bytes, Path spillPath) throws IOException {
+        int pages = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_PAGES, bytes / BLOCK));
+        this.spillPath = spillPath;
+        this.spill = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.frames = new Block[pages];
+        this.freeFrames = new int[pages];
+        for (int i = 0; i < pages; i++) freeFrames[i] = pages - 1 - i;
+        this.freeCount = pages;
+    }
+
+    // Passa b para o cache; se ele tem conteúdo em memória, ocupa um quadro
+    void admit(Block b) {
+        b.cache = this;
+        if (b.data != null) occupy(b);
+    }
+
+    // Chamado por Block.pin com b fixado: acerto se o conteúdo está em memória
+    void hit() { hits.increment(); }
+
+    // Traz o conteúdo de b de volta (do spill ou da imagem nativa); b está fixado
+    ByteBuffer fault(Block b) {
+        synchronized (b) {
+            ByteBuffer d = b.data;
+            if (d != null) {
+                hits.increment();
+                return d;
+            }
+            misses.increment();
+            if (b.slot >= 0) {
+                d = Block.allocate(b.offHeap);
+                try {
+                    readFully(d, (long) b.slot * BLOCK);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                d.clear();
+                b.data = d;
+            } else {
+                d = b.load();
+            }
+            occupy(b);
+            return d;
+        }
+    }
+
+    private void readFully(ByteBuffer dst, long pos) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = spill.read(dst, pos);
+            if (n < 0) break;
+            pos += n;
+        }
+        while (dst.hasRemaining()) dst.put((byte) 0);
+    }
+
+    private synchronized void occupy(Block b) {
+        // solto enquanto era lido: fica fora do cache até ser coletado
+        if (b.frame >= 0 || b.dead) return;
+        int f = freeCount > 0 ? freeFrames[--freeCount] : evict();
+        frames[f] = b;
+        b.frame = f;
+    }
+
+    // Gira o ponteiro até despejar um bloco; devolve o quadro liberado
+    private int evict() {
+        for (int turn = 0; ; turn++) {
+            for (int step = 0; step < 2 * frames.length; step++) {
+                int i = hand;
+                hand = hand + 1 == frames.length ? 0 : hand + 1;
+                Block v = frames[i];
+                if (v == null) continue;
+                if (v.referenced) {
+                    v.referenced = false;
+                    continue;
+                }
+                if (writeOut(v)) {
+                    frames[i] = null;
+                    return i;
+                }
+            }
+            // todos fixados: os pins duram uma cópia de bloco, então é só esperar
+            Thread.yield();
+        }
+    }
+
+    // Despeja v se ninguém o fixou, gravando-o no spill se preciso
+    private boolean writeOut(Block v) {
+        if (!v.tryLockForEviction()) return false;
+        try {
+            if (v.dirty || v.slot < 0) {
+                if (v.slot < 0) v.slot = allocSlot();
+                ByteBuffer src = v.data.duplicate();
+                src.clear();
+                long pos = (long) v.slot * BLOCK;
+                while (src.hasRemaining()) pos += spill.write(src, pos);
+                v.dirty = false;
+                writeBacks++;
+            }
+            v.data = null;
+            v.frame = -1;
+            evictions++;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            v.unlockForEviction();
+        }
+    }
+
+    private int allocSlot() {
+        if (freeSlotCount > 0) return freeSlots[--freeSlotCount];
+        if (nextSlot == Integer.MAX_VALUE) throw new IllegalStateException("Spill cheio");
+        return nextSlot++;
+    }
+
+    // Última referência a b solta: libera o quadro e a posição no spill
+    synchronized void drop(Block b) {
+        b.dead = true;
+        if (b.frame >= 0) {
+            frames[b.frame] = null;
+            freeFrames[freeCount++] = b.frame;
+            b.frame = -1;
+        }
+        if (b.slot >= 0) {
+            if (freeSlotCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+            freeSlots[freeSlotCount++] = b.slot;
+            b.slot = -1;
+        }
+    }
+
+    // ---- medidores ----
+
+    long hits() { return hits.sum(); }
+    long misses() { return misses.sum(); }
+
+    // Acertos por mil acessos desde a abertura
+    long hitsPerMille() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : h * 1000 / total;
+    }
+
+    synchronized long evictions() { return evictions; }
+    synchronized long writeBacks() { return writeBacks; }
+    synchronized long residentBytes() { return (long) (frames.length - freeCount) * BLOCK; }
+    long capacityBytes() { return (long) frames.length * BLOCK; }
+
+    synchronized long spillBytes() { return (long) (nextSlot - freeSlotCount) * BLOCK; }
+
+    @Override
+    public void close() throws IOException {
+        spill.close();
+        Files.deleteIfExists(spillPath);
+    }
+}
@@ -0,0 +1,196 @@
+package Simulador;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Percursos de subárvore em fork/join, usados por du, find, rm -r e cp -r. Cada tarefa
+ * cuida de uma fatia dos filhos de um diretório: arquivos são tratados ali mesmo e cada
+ * subdiretório vira uma tarefa nova; diretórios com mais de SLICE filhos são divididos
+ * ao meio. Quem chama garante que a subárvore não muda durante o percurso (travas do
+ * LockPlan ou só leituras toleráveis a escritas concorrentes).
+ */
+final class ParallelTree {
+    // filhos tratados por uma única tarefa, sem dividir
+    private static final int SLICE = 512;
+
+    private ParallelTree() {}
+
+    // Redução da subárvore: cada tarefa acumula em seu próprio A e os resultados são
+    // juntados com merge. dir recebe o caminho do diretório; file, o do pai.
+    interface Fold<A> {
+        A create();
+        void dir(A acc, DirectoryNode d, String path);
+        void file(A acc, FileNode f, String dir);
+        void merge(A into, A from);
+
+        // false para não descer no diretório (ex.: ainda não carregado da imagem nativa)
+        default boolean descend(DirectoryNode d) { return true; }
+
+        // false para ignorar TreeTask.cancel() (percurso que precisa ir até o fim)
+        default boolean cancellable() { return true; }
+    }
+
+    static <A> A fold(ForkJoinPool pool, FsNode start, String path, TreeTask task, Fold<A> fold) {
+        A acc = fold.create();
+        if (fold.cancellable()) task.checkCancelled();
+        task.visit(1);
+        if (!start.isDirectory()) {
+            fold.file(acc, (FileNode) start, parent(path));
+            return acc;
+        }
+        DirectoryNode d = (DirectoryNode) start;
+        fold.dir(acc, d, path);
+        if (!fold.descend(d)) return acc;
+        List<FsNode> children = children(d);
+        fold.merge(acc, pool.invoke(new Walk<>(fold, task, path, children, 0, children.size())));
+        return acc;
+    }
+
+    private static final class Walk<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+        private final Fold<A> fold;
+        private final TreeTask task;
+        private final String path;
+        private final List<FsNode> children;
+        private final int from, to;
+
+        Walk(Fold<A> fold, TreeTask task, String path, List<FsNode> children, int from, int to) {
+            this.fold = fold;
+            this.task = task;
+            this.path = path;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected A compute() {
+            if (fold.cancellable()) task.checkCancelled();
+            if (to - from > SLICE) {
+                int mid = (from + to) >>> 1;
+                Walk<A> left = new Walk<>(fold, task, path, children, from, mid);
+                left.fork();
+                A acc = new Walk<>(fold, task, path, children, mid, to).compute();
+                fold.merge(acc, left.join());
+                return acc;
+            }
+            A acc = fold.create();
+            List<Walk<A>> forks = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                FsNode n = children.get(i);
+                if (!n.isDirectory()) {
+                    fold.file(acc, (FileNode) n, path);
+                    continue;
+                }
+                DirectoryNode d = (DirectoryNode) n;
+                String p = child(path, d.getName());
+                fold.dir(acc, d, p);
+                if (!fold.descend(d)) continue;
+                List<FsNode> cs = children(d);
+                if (cs.isEmpty()) continue;
+                Walk<A> w = new Walk<>(fold, task, p, cs, 0, cs.size());
+                w.fork();
+                forks.add(w);
+            }
+            task.visit(to - from);
+            for (Walk<A> w : forks) fold.merge(acc, w.join());
+            return acc;
+        }
+    }
+
+    // Cópia da subárvore com os nomes dados pelo pai; os diretórios vêm de newDir, os
+    // arquivos de newFile e compartilham os blocos da origem. Se a tarefa for cancelada no meio, a cópia volta
+    // incompleta, mas inteira (tudo que foi copiado está ligado a ela) para ser liberada.
+    // A origem está travada por quem chama (às vezes em escrita, como em cp /a /a/b), então
+    // os filhos são lidos direto, sem a leitura otimista.
+    static FsNode copy(ForkJoinPool pool, FsNode src, String name, TreeTask task,
+                       Function<String, DirectoryNode> newDir, Function<String, FileNode> newFile) {
+        task.visit(1);
+        if (!src.isDirectory()) return copyFile((FileNode) src, name, newFile);
+        DirectoryNode copy = newDir.apply(name);
+        List<FsNode> children = new ArrayList<>(((DirectoryNode) src).getChildren().values());
+        for (FsNode n : pool.invoke(new Copy(task, newDir, newFile, children, 0, children.size()))) copy.add(n.getName(), n);
+        return copy;
+    }
+
+    private static FileNode copyFile(FileNode src, String name, Function<String, FileNode> newFile) {
+        FileNode copy = newFile.apply(name);
+        copy.copyFrom(src);
+        return copy;
+    }
+
+    // Cópias dos filhos [from, to), na ordem deles
+    private static final class Copy extends RecursiveTask<List<FsNode>> {
+        private static final long serialVersionUID = 1L;
+        private final TreeTask task;
+        private final Function<String, DirectoryNode> newDir;
+        private final Function<String, FileNode> newFile;
+        private final List<FsNode> children;
+        private final int from, to;
+
+        Copy(TreeTask task, Function<String, DirectoryNode> newDir, Function<String, FileNode> newFile,
+             List<FsNode> children, int from, int to) {
+            this.task = task;
+            this.newDir = newDir;
+            this.newFile = newFile;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<FsNode> compute() {
+            if (task.isCancelled()) return new ArrayList<>();
+            if (to - from > SLICE) {
+                int mid = (from + to) >>> 1;
+                Copy left = new Copy(task, newDir, newFile, children, from, mid);
+                left.fork();
+                List<FsNode> right = new Copy(task, newDir, newFile, children, mid, to).compute();
+                List<FsNode> out = left.join();
+                out.addAll(right);
+                return out;
+            }
+            List<FsNode> out = new ArrayList<>(to - from);
+            List<DirectoryNode> dirs = new ArrayList<>();
+            List<Copy> forks = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                FsNode n = children.get(i);
+                if (!n.isDirectory()) {
+                    out.add(copyFile((FileNode) n, n.getName(), newFile));
+                    continue;
+                }
+                DirectoryNode d = newDir.apply(n.getName());
+                out.add(d);
+                List<FsNode> cs = new ArrayList<>(((DirectoryNode) n).getChildren().values());
+                if (cs.isEmpty()) continue;
+                Copy c = new Copy(task, newDir, newFile, cs, 0, cs.size());
+                c.fork();
+                dirs.add(d);
+                forks.add(c);
+            }
+            task.visit(to - from);
+            for (int i = 0; i < forks.size(); i++) {
+                DirectoryNode d = dirs.get(i);
+                for (FsNode n : forks.get(i).join()) d.add(n.getName(), n);
+            }
+            return out;
+        }
+    }
+
+    private static List<FsNode> children(DirectoryNode d) {
+        return FileSystemSimulator.optimisticRead(d, () -> new ArrayList<>(d.getChildren().values()));
+    }
+
+    static String child(String dir, String name) {
+        return dir.length() == 1 ? "/" + name : dir + "/" + name;
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+}
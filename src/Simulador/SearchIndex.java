@@ -0,0 +1,640 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Índices de busca mantidos a partir dos doX: trigramas dos nomes (para find por glob) e
+ * um índice invertido das palavras do conteúdo (para grep). Cada nó indexado recebe um id
+ * inteiro (FsNode.searchId, reaproveitado quando ele sai); o nó, o nome indexado e o id
+ * do pai ficam em vetores paralelos, então um mv de diretório só atualiza o nó movido e o
+ * caminho é montado na consulta subindo pelos pais. As listas de ids são conjuntos de int
+ * com hash aberto (IntSet), sem um objeto por entrada.
+ *
+ * Os doX só enfileiram o aviso (linked, unlinked, moved, changed), com o que ele precisa
+ * do momento em que foi dado; uma thread própria os aplica na ordem, percorre as
+ * subárvores que entraram ou saíram (cp -r, rm -r) e tokeniza o conteúdo alterado. Assim
+ * nenhum escritor espera pelo índice nem por outro escritor nele. As consultas tomam a
+ * trava em leitura e, antes, esperam essa thread alcançar os avisos dados até ali (o grep
+ * também a tokenização deles); só a thread do índice trava em escrita.
+ */
+final class SearchIndex implements Serializable, Closeable {
+    private static final long serialVersionUID = 1L;
+    // marcadores de início e fim do nome, para globs ancorados ("a*", "*.txt")
+    private static final char START = '\u0002', END = '\u0003';
+    // arquivos maiores que isso ficam fora do índice de conteúdo
+    static final long MAX_CONTENT = 4L << 20;
+    private static final int ROOT = 1;
+    private static final String[] NO_WORDS = new String[0];
+
+    // nó, nome indexado e id do pai de cada id (0 = livre); imagens do formato anterior
+    // chegam sem eles e são remontadas por build()
+    private FsNode[] nodes;
+    private String[] names;
+    private int[] parentIds;
+    private int[] freeIds;
+    private int freeCount;
+    private int nextId;
+    private HashMap<String, IntSet> nameGrams;
+    private HashMap<String, IntSet> wordIds;
+    // palavras indexadas de cada arquivo, para tirá-las quando ele muda ou sai da árvore
+    private String[][] wordsOf;
+    // arquivos alterados e ainda não tokenizados
+    private BitSet staleIds;
+    private volatile boolean built;
+
+    private transient ReentrantReadWriteLock lock;
+    private transient LinkedBlockingQueue<Change> queue;
+    // avisos enfileirados, aplicados e aplicados com o conteúdo já tokenizado
+    private transient AtomicLong queued;
+    private transient long applied, tokenized;
+    private transient volatile Thread worker;
+    private transient boolean closed;
+    // a thread do índice não aplica o próximo lote (ver hold)
+    private transient boolean held;
+
+    SearchIndex() {
+        init();
+        reset();
+    }
+
+    private void init() {
+        lock = new ReentrantReadWriteLock();
+        queue = new LinkedBlockingQueue<>();
+        queued = new AtomicLong();
+    }
+
+    private void reset() {
+        nodes = new FsNode[64];
+        names = new String[64];
+        parentIds = new int[64];
+        freeIds = new int[16];
+        freeCount = 0;
+        nextId = ROOT + 1;
+        nameGrams = new HashMap<>();
+        wordIds = new HashMap<>();
+        wordsOf = new String[64][];
+        staleIds = new BitSet();
+        built = false;
+    }
+
+    boolean isReady() { return built; }
+
+    // Aviso de um doX: o nó e o nome que ele tinha quando foi dado
+    private static final class Change {
+        static final int LINKED = 0, UNLINKED = 1, MOVED = 2, CHANGED = 3, FLUSH = 4;
+        final int kind;
+        final FsNode node;
+        final DirectoryNode parent;
+        final String name;
+
+        Change(int kind, FsNode node, DirectoryNode parent) {
+            this.kind = kind;
+            this.node = node;
+            this.parent = parent;
+            this.name = node != null ? node.getName() : null;
+        }
+    }
+
+    // Indexa a árvore inteira (com os escritores parados); os avisos ainda na fila já
+    // estão refletidos nela e são descartados
+    void build(DirectoryNode root) {
+        lock.writeLock().lock();
+        try {
+            List<Change> old = new ArrayList<>();
+            queue.drainTo(old);
+            reset();
+            nodes[ROOT] = root;
+            names[ROOT] = root.getName();
+            root.searchId = ROOT;
+            for (FsNode child : children(root)) link(root, child, child.getName());
+            built = true;
+            synchronized (this) {
+                applied += old.size();
+                tokenized += old.size();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // o conteúdo é tokenizado pela thread do índice
+        submit(new Change(Change.FLUSH, null, null));
+    }
+
+    // n (com a subárvore) entrou na árvore sob parent; antes do build() os avisos são ignorados
+    void linked(DirectoryNode parent, FsNode n) { submit(new Change(Change.LINKED, n, parent)); }
+
+    // n (com a subárvore) saiu da árvore
+    void unlinked(FsNode n) { submit(new Change(Change.UNLINKED, n, null)); }
+
+    // n mudou de diretório e talvez de nome (mv); a subárvore continua igual
+    void moved(FsNode n, DirectoryNode to) { submit(new Change(Change.MOVED, n, to)); }
+
+    // Conteúdo alterado: tokenizado pela thread do índice
+    void changed(FileNode f) { submit(new Change(Change.CHANGED, f, null)); }
+
+    private void submit(Change c) {
+        if (!built) return;
+        // contado antes de entrar na fila: quem lê queued espera também pelos avisos que
+        // ainda estão entrando, e a fila é aplicada na ordem
+        queued.incrementAndGet();
+        queue.add(c);
+        if (worker == null) startWorker();
+    }
+
+    private synchronized void startWorker() {
+        if (worker != null || closed) return;
+        worker = new Thread(this::work, "fs-indice");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void work() {
+        List<Change> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                synchronized (this) {
+                    while (held && !closed) wait();
+                }
+                lock.writeLock().lock();
+                try {
+                    for (Change c : batch) apply(c);
+                } catch (RuntimeException e) {
+                    // índice inconsistente: a próxima consulta o remonta (ver FileSystemSimulator.index)
+                    System.err.println("Índice de busca descartado: " + e);
+                    built = false;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                synchronized (this) {
+                    applied += batch.size();
+                    notifyAll();
+                }
+                refresh();
+                synchronized (this) {
+                    tokenized += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // close()
+        }
+    }
+
+    private void apply(Change c) {
+        FsNode n = c.node;
+        switch (c.kind) {
+            case Change.LINKED:
+                if (indexed(c.parent)) link(c.parent, n, c.name);
+                break;
+            case Change.UNLINKED:
+                unlink(n);
+                break;
+            case Change.MOVED:
+                // a cópia que o contém pode ter sido percorrida já sem ele
+                if (!indexed(n)) {
+                    if (indexed(c.parent)) link(c.parent, n, c.name);
+                    break;
+                }
+                parentIds[n.searchId] = c.parent.searchId;
+                rename(n.searchId, c.name);
+                break;
+            case Change.CHANGED:
+                if (indexed(n)) staleIds.set(n.searchId);
+                break;
+            default:
+        }
+    }
+
+    // A subárvore é lida como está agora: o que mudou nela depois do aviso tem o próprio
+    // aviso mais adiante na fila, e aplicar um aviso já refletido não muda nada
+    private void link(DirectoryNode parent, FsNode n, String name) {
+        int id;
+        if (indexed(n)) {
+            id = n.searchId;
+            rename(id, name);
+        } else {
+            id = allocId();
+            nodes[id] = n;
+            names[id] = name;
+            n.searchId = id;
+            addName(id, name);
+        }
+        parentIds[id] = parent.searchId;
+        if (!n.isDirectory()) {
+            staleIds.set(id);
+            return;
+        }
+        DirectoryNode d = (DirectoryNode) n;
+        for (FsNode child : children(d)) link(d, child, child.getName());
+    }
+
+    private void rename(int id, String name) {
+        if (name.equals(names[id])) return;
+        removeName(id, names[id]);
+        names[id] = name;
+        addName(id, name);
+    }
+
+    private void unlink(FsNode n) {
+        if (!indexed(n)) return;
+        int id = n.searchId;
+        removeName(id, names[id]);
+        nodes[id] = null;
+        names[id] = null;
+        parentIds[id] = 0;
+        n.searchId = 0;
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+        if (n.isDirectory()) {
+            DirectoryNode d = (DirectoryNode) n;
+            if (d.isLoaded()) for (FsNode child : children(d)) unlink(child);
+            return;
+        }
+        staleIds.clear(id);
+        removeWords(id, wordsOf[id]);
+        wordsOf[id] = null;
+    }
+
+    private static List<FsNode> children(DirectoryNode d) {
+        return FileSystemSimulator.optimisticRead(d, () -> new ArrayList<>(d.getChildren().values()));
+    }
+
+    private boolean indexed(FsNode n) {
+        int id = n.searchId;
+        return id >= ROOT && id < nextId && nodes[id] == n;
+    }
+
+    private int allocId() {
+        if (freeCount > 0) return freeIds[--freeCount];
+        if (nextId == nodes.length) {
+            int n = nodes.length * 2;
+            nodes = Arrays.copyOf(nodes, n);
+            names = Arrays.copyOf(names, n);
+            parentIds = Arrays.copyOf(parentIds, n);
+            wordsOf = Arrays.copyOf(wordsOf, n);
+        }
+        return nextId++;
+    }
+
+    private void addName(int id, String name) {
+        for (String g : grams(START + name + END)) nameGrams.computeIfAbsent(g, k -> new IntSet()).add(id);
+    }
+
+    private void removeName(int id, String name) {
+        for (String g : grams(START + name + END)) {
+            IntSet s = nameGrams.get(g);
+            if (s != null && s.remove(id) && s.size() == 0) nameGrams.remove(g);
+        }
+    }
+
+    private static Set<String> grams(String s) {
+        Set<String> out = new HashSet<>();
+        for (int i = 0; i + 3 <= s.length(); i++) out.add(s.substring(i, i + 3));
+        return out;
+    }
+
+    // Espera a thread do índice aplicar os avisos dados até agora (e, com words,
+    // tokenizar o conteúdo alterado por eles)
+    private void await(boolean words) {
+        long target = queued.get();
+        boolean interrupted = false;
+        synchronized (this) {
+            while ((words ? tokenized : applied) < target && built && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // Nós cujo nome casa com name (o glob compilado). Os trigramas vêm dos trechos
+    // literais do glob; sem nenhum trecho de 3 caracteres, todos os nós são testados.
+    List<FsNode> byName(String glob, Pattern name) {
+        await(false);
+        lock.readLock().lock();
+        try {
+            List<IntSet> postings = new ArrayList<>();
+            for (String lit : literals(glob)) {
+                for (String g : grams(lit)) {
+                    IntSet s = nameGrams.get(g);
+                    if (s == null) return new ArrayList<>();
+                    postings.add(s);
+                }
+            }
+            List<FsNode> out = new ArrayList<>();
+            if (postings.isEmpty()) {
+                for (int id = ROOT + 1; id < nextId; id++) {
+                    if (nodes[id] != null && name.matcher(names[id]).matches()) out.add(nodes[id]);
+                }
+                return out;
+            }
+            for (int id : intersect(postings)) {
+                if (name.matcher(names[id]).matches()) out.add(nodes[id]);
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ids presentes em todos os conjuntos, percorrendo o menor
+    private static int[] intersect(List<IntSet> postings) {
+        postings.sort(Comparator.comparingInt(IntSet::size));
+        IntSet first = postings.get(0);
+        int[] out = new int[first.size()];
+        int n = 0;
+        next:
+        for (int id : first.table) {
+            if (id == 0) continue;
+            for (int i = 1; i < postings.size(); i++) if (!postings.get(i).contains(id)) continue next;
+            out[n++] = id;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Trechos literais do glob, com os marcadores onde ele é ancorado
+    private static List<String> literals(String glob) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder().append(START);
+        boolean inClass = false;
+        for (char c : glob.toCharArray()) {
+            if (inClass) {
+                if (c == ']') inClass = false;
+                continue;
+            }
+            if (c == '*' || c == '?' || c == '[') {
+                out.add(cur.toString());
+                cur.setLength(0);
+                inClass = c == '[';
+                continue;
+            }
+            cur.append(c);
+        }
+        out.add(cur.append(END).toString());
+        return out;
+    }
+
+    // Arquivos com todas as palavras (sem diferença de maiúsculas)
+    List<FileNode> byWords(String query) {
+        await(true);
+        lock.readLock().lock();
+        try {
+            List<IntSet> postings = new ArrayList<>();
+            for (String w : tokenize(query)) {
+                IntSet s = wordIds.get(w);
+                if (s == null) return new ArrayList<>();
+                postings.add(s);
+            }
+            List<FileNode> out = new ArrayList<>();
+            if (postings.isEmpty()) return out;
+            for (int id : intersect(postings)) out.add((FileNode) nodes[id]);
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Tokeniza os arquivos marcados (na thread do índice). O conteúdo é lido fora da
+    // trava; uma escrita depois da leitura tem o próprio aviso e marca o arquivo de novo.
+    private void refresh() {
+        for (int id = 0; ; ) {
+            FileNode f;
+            lock.readLock().lock();
+            try {
+                id = staleIds.nextSetBit(id);
+                if (id < 0) return;
+                f = (FileNode) nodes[id];
+            } finally {
+                lock.readLock().unlock();
+            }
+            String[] found;
+            try {
+                found = f.size() > MAX_CONTENT ? NO_WORDS
+                        : tokenize(new String(FileSystemSimulator.optimisticRead(f, f::readBytes), StandardCharsets.UTF_8)).toArray(NO_WORDS);
+            } catch (RuntimeException e) {
+                // removido e solto no meio da leitura: o aviso da remoção vem a seguir
+                found = NO_WORDS;
+            }
+            lock.writeLock().lock();
+            try {
+                // trocado no meio da leitura (build): o mesmo id é lido de novo
+                if (nodes[id] != f) continue;
+                staleIds.clear(id);
+                removeWords(id, wordsOf[id]);
+                wordsOf[id] = found.length == 0 ? null : found;
+                for (String w : found) wordIds.computeIfAbsent(w, k -> new IntSet()).add(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            id++;
+        }
+    }
+
+    private void removeWords(int id, String[] old) {
+        if (old == null) return;
+        for (String w : old) {
+            IntSet s = wordIds.get(w);
+            if (s != null && s.remove(id) && s.size() == 0) wordIds.remove(w);
+        }
+    }
+
+    // Palavras: sequências de letras e dígitos, em minúsculas, sem repetição
+    static Set<String> tokenize(String text) {
+        Set<String> out = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    // Checkpoint, com os escritores parados: espera a thread do índice aplicar os avisos
+    // dados até agora e a segura antes do próximo lote, para que heldCopy() veja o
+    // índice igual à árvore deste instante
+    void hold() {
+        await(false);
+        synchronized (this) {
+            held = true;
+        }
+    }
+
+    // Cópia do índice segurado por hold(), para a imagem; depois solta a thread do índice.
+    // O conteúdo tokenizado pode já ser o de uma escrita posterior, que o journal avisa
+    // de novo ao ser reaplicado.
+    SearchIndex heldCopy() {
+        lock.readLock().lock();
+        try {
+            return new SearchIndex(this);
+        } finally {
+            lock.readLock().unlock();
+            synchronized (this) {
+                held = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private SearchIndex(SearchIndex o) {
+        init();
+        nodes = o.nodes.clone();
+        names = o.names.clone();
+        parentIds = o.parentIds.clone();
+        freeIds = o.freeIds.clone();
+        freeCount = o.freeCount;
+        nextId = o.nextId;
+        nameGrams = copy(o.nameGrams);
+        wordIds = copy(o.wordIds);
+        wordsOf = o.wordsOf.clone();
+        staleIds = (BitSet) o.staleIds.clone();
+        built = o.built;
+    }
+
+    private static HashMap<String, IntSet> copy(HashMap<String, IntSet> m) {
+        HashMap<String, IntSet> c = new HashMap<>(m.size() * 4 / 3 + 1);
+        for (Map.Entry<String, IntSet> e : m.entrySet()) c.put(e.getKey(), e.getValue().copy());
+        return c;
+    }
+
+    // Caminho atual do nó, ou null se ele saiu da árvore no meio do caminho
+    String path(FsNode n) {
+        lock.readLock().lock();
+        try {
+            if (!indexed(n)) return null;
+            Deque<String> parts = new ArrayDeque<>();
+            for (int id = n.searchId; id != ROOT; id = parentIds[id]) {
+                if (id == 0 || nodes[id] == null) return null;
+                parts.push(names[id]);
+            }
+            return "/" + String.join("/", parts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Para a thread do índice; os avisos ainda na fila ficam de fora (a imagem já foi gravada)
+    @Override
+    public void close() {
+        Thread w;
+        synchronized (this) {
+            closed = true;
+            w = worker;
+            notifyAll();
+        }
+        if (w != null) w.interrupt();
+    }
+
+    // Grava o índice com a fila aplicada e o conteúdo tokenizado
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        await(true);
+        lock.readLock().lock();
+        try {
+            out.defaultWriteObject();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        if (nodes == null) {
+            reset();
+            return;
+        }
+        if (names == null) {
+            names = new String[nodes.length];
+            for (int id = ROOT; id < nextId; id++) if (nodes[id] != null) names[id] = nodes[id].getName();
+        }
+        for (int id = ROOT; id < nextId; id++) if (nodes[id] != null) nodes[id].searchId = id;
+        // arquivos marcados por imagens anteriores: tokenizados pela thread do índice
+        if (!staleIds.isEmpty()) submit(new Change(Change.FLUSH, null, null));
+    }
+
+    /** Conjunto de ids (> 0) com hash aberto; 0 marca posição livre. */
+    static final class IntSet implements Serializable {
+        private static final long serialVersionUID = 1L;
+        int[] table = new int[4];
+        private int size;
+
+        int size() { return size; }
+
+        IntSet copy() {
+            IntSet c = new IntSet();
+            c.table = table.clone();
+            c.size = size;
+            return c;
+        }
+
+        private static int home(int id, int mask) {
+            int h = id * 0x9E3779B9;
+            return (h ^ h >>> 16) & mask;
+        }
+
+        boolean contains(int id) {
+            int mask = table.length - 1;
+            for (int p = home(id, mask); table[p] != 0; p = (p + 1) & mask) if (table[p] == id) return true;
+            return false;
+        }
+
+        void add(int id) {
+            if ((size + 1) * 4 > table.length * 3) grow();
+            int mask = table.length - 1;
+            int p = home(id, mask);
+            for (; table[p] != 0; p = (p + 1) & mask) if (table[p] == id) return;
+            table[p] = id;
+            size++;
+        }
+
+        private void grow() {
+            int[] old = table;
+            table = new int[old.length * 2];
+            int mask = table.length - 1;
+            for (int id : old) {
+                if (id == 0) continue;
+                int p = home(id, mask);
+                while (table[p] != 0) p = (p + 1) & mask;
+                table[p] = id;
+            }
+        }
+
+        // Tira id puxando para trás os que vinham depois dele na mesma sequência
+        boolean remove(int id) {
+            int mask = table.length - 1;
+            int p = home(id, mask);
+            while (table[p] != id) {
+                if (table[p] == 0) return false;
+                p = (p + 1) & mask;
+            }
+            table[p] = 0;
+            size--;
+            for (int q = (p + 1) & mask; table[q] != 0; q = (q + 1) & mask) {
+                int h = home(table[q], mask);
+                if (p <= q ? (p < h && h <= q) : (p < h || h <= q)) continue;
+                table[p] = table[q];
+                table[q] = 0;
+                p = q;
+            }
+            return true;
+        }
+    }
+}
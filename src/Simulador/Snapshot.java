@@ -0,0 +1,202 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Versão da árvore num instante: a raiz viva mais, para cada nó alterado depois da
+ * criação, uma cópia do estado dele antes da primeira alteração (preserved). O que não
+ * mudou é compartilhado com a árvore viva e entre snapshots, então o custo em memória
+ * (e na imagem serializada) é proporcional ao que foi alterado desde então.
+ *
+ * As cópias são imutáveis e lidas sem trava; um nó ainda não alterado é lido com a
+ * leitura otimista dele, e a cópia é conferida de novo dentro dela, porque o escritor
+ * guarda a cópia já com a trava do nó em escrita (ver FileSystemSimulator.preserve).
+ */
+public class Snapshot implements Serializable, Closeable {
+    private static final long serialVersionUID = 1L;
+    private final String name;
+    private final long createdAt;
+    final int epoch;
+    private final DirectoryNode root;
+    // nó vivo → estado dele quando o snapshot foi criado
+    private final ConcurrentHashMap<FsNode, FsNode> preserved = new ConcurrentHashMap<>();
+    // snapshot sem nome (FileSystemSimulator.pin), solto no close()
+    private transient FileSystemSimulator pinnedBy;
+
+    Snapshot(String name, int epoch, DirectoryNode root) {
+        this.name = name;
+        this.epoch = epoch;
+        this.root = root;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public String name() { return name; }
+    public long createdAt() { return createdAt; }
+
+    // Nós alterados desde a criação (cópias guardadas)
+    public int preservedCount() { return preserved.size(); }
+
+    void pinnedBy(FileSystemSimulator fs) { this.pinnedBy = fs; }
+
+    // Guarda o estado atual de n, se ainda não guardado; chamado com n travado em escrita
+    void preserve(FsNode n) {
+        preserved.computeIfAbsent(n, Snapshot::freeze);
+    }
+
+    private static FsNode freeze(FsNode n) {
+        if (n.isDirectory()) return ((DirectoryNode) n).snapshotCopy();
+        FileNode f = (FileNode) n;
+        FileNode copy = new FileNode(f.getName(), f.isOffHeap());
+        copy.copyFrom(f);
+        copy.createdAt = f.createdAt;
+        copy.modifiedAt = f.getModifiedAt();
+        copy.snapEpoch = f.snapEpoch;
+        copy.bornEpoch = f.bornEpoch;
+        return copy;
+    }
+
+    // Estado de n nesta versão: a cópia guardada ou o próprio nó, se não mudou
+    FsNode state(FsNode n) {
+        FsNode f = preserved.get(n);
+        return f != null ? f : n;
+    }
+
+    boolean isPreserved(FsNode n) { return preserved.containsKey(n); }
+
+    // Estado de n a gravar na imagem (ver FileSystemSimulator.ImageOutput): a cópia
+    // guardada ou, se n não mudou, uma cópia rasa tirada agora, que não muda durante a
+    // gravação (o escritor guarda a cópia antes de alterar o nó)
+    FsNode imageState(FsNode n) {
+        return read(n, s -> s != n ? s
+                : n.isDirectory() ? ((DirectoryNode) n).snapshotCopy() : ((FileNode) n).imageCopy());
+    }
+
+    // Lê o estado de n: direto na cópia ou, com o nó vivo, dentro da leitura otimista dele
+    <T> T read(FsNode n, Function<FsNode, T> fn) {
+        FsNode f = preserved.get(n);
+        if (f != null) return fn.apply(f);
+        return FileSystemSimulator.optimisticRead(n, () -> fn.apply(state(n)));
+    }
+
+    // Filhos (nome → nó vivo) do diretório n nesta versão, na ordem dele
+    Map<String, FsNode> children(FsNode n) {
+        return read(n, s -> new LinkedHashMap<>(((DirectoryNode) s).getChildren()));
+    }
+
+    DirectoryNode root() { return root; }
+
+    // Nó vivo (identidade) do caminho nesta versão, ou null
+    FsNode lookup(String path) {
+        String key = FileSystemSimulator.normalize(path);
+        FsNode cur = root;
+        int start = 1;
+        while (start < key.length()) {
+            if (!read(cur, FsNode::isDirectory)) return null;
+            int end = key.indexOf('/', start);
+            if (end < 0) end = key.length();
+            String part = key.substring(start, end);
+            cur = read(cur, s -> ((DirectoryNode) s).get(part));
+            if (cur == null) return null;
+            start = end + 1;
+        }
+        return cur;
+    }
+
+    public boolean exists(String path) { return lookup(path) != null; }
+
+    public List<String> ls(String path) throws IOException {
+        FsNode n = lookup(path);
+        if (n == null) throw new IOException("Caminho inválido");
+        if (!n.isDirectory()) throw new IOException("Não é diretório");
+        return read(n, s -> ((DirectoryNode) s).names());
+    }
+
+    public String readFile(String path) throws IOException {
+        return read(file(path), s -> ((FileNode) s).read());
+    }
+
+    public byte[] read(String path, long offset, int len) throws IOException {
+        return read(file(path), s -> {
+            FileNode f = (FileNode) s;
+            byte[] buf = new byte[(int) Math.max(0, Math.min(len, f.size() - offset))];
+            f.read(offset, buf, 0, buf.length);
+            return buf;
+        });
+    }
+
+    private FsNode file(String path) throws IOException {
+        FsNode n = lookup(path);
+        if (n == null || n.isDirectory()) throw new IOException("Arquivo não existe");
+        return n;
+    }
+
+    // Solta as cópias de arquivo (os blocos delas); o snapshot não pode mais ser lido
+    void release() {
+        for (FsNode f : preserved.values()) if (!f.isDirectory()) ((FileNode) f).release();
+        preserved.clear();
+    }
+
+    // Cópias de arquivo, para registrar no BlockStore depois de ler a imagem
+    Collection<FsNode> copies() { return preserved.values(); }
+
+    // Diferenças de a para b, uma por linha: "A caminho" (só em b), "D caminho" (só em a)
+    // e "M caminho" (arquivo com conteúdo diferente), em ordem de caminho. Um diretório
+    // inteiro criado ou apagado aparece só pelo próprio caminho.
+    static List<String> diff(Snapshot a, Snapshot b) {
+        List<String> out = new ArrayList<>();
+        diffDir(a, b, "/", a.root, b.root, out);
+        return out;
+    }
+
+    private static void diffDir(Snapshot a, Snapshot b, String path, FsNode da, FsNode db, List<String> out) {
+        Map<String, FsNode> ca = a.children(da);
+        Map<String, FsNode> cb = b.children(db);
+        SortedSet<String> names = new TreeSet<>(ca.keySet());
+        names.addAll(cb.keySet());
+        for (String name : names) {
+            String p = ParallelTree.child(path, name);
+            FsNode na = ca.get(name), nb = cb.get(name);
+            if (nb == null) { out.add("D " + p); continue; }
+            if (na == null) { out.add("A " + p); continue; }
+            if (na.isDirectory() != nb.isDirectory()) {
+                out.add("D " + p);
+                out.add("A " + p);
+            } else if (na.isDirectory()) {
+                diffDir(a, b, p, na, nb, out);
+            } else if (!sameContent(a, na, b, nb)) {
+                out.add("M " + p);
+            }
+        }
+    }
+
+    // Mesmo conteúdo: os mesmos blocos (copy-on-write) e tamanho, ou os mesmos bytes
+    private static boolean sameContent(Snapshot a, FsNode na, Snapshot b, FsNode nb) {
+        if (a.read(na, s -> s) == b.read(nb, s -> s)) return true;
+        if (a.read(na, s -> ((FileNode) s).size()).longValue() != b.read(nb, s -> ((FileNode) s).size())) return false;
+        List<Block> ba = a.read(na, s -> ((FileNode) s).blocks());
+        List<Block> bb = b.read(nb, s -> ((FileNode) s).blocks());
+        if (ba.size() == bb.size()) {
+            boolean same = true;
+            for (int i = 0; i < ba.size() && same; i++) same = ba.get(i) == bb.get(i);
+            if (same) return true;
+        }
+        byte[] ca = a.read(na, s -> ((FileNode) s).readBytes());
+        byte[] cb = b.read(nb, s -> ((FileNode) s).readBytes());
+        return Arrays.equals(ca, cb);
+    }
+
+    // Solta um snapshot sem nome; nos nomeados não faz nada (ver deleteSnapshot)
+    @Override
+    public void close() {
+        FileSystemSimulator fs = pinnedBy;
+        if (fs != null) {
+            pinnedBy = null;
+            fs.unpin(this);
+        }
+    }
+}
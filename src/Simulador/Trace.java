@@ -0,0 +1,249 @@
+package Simulador;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Formato dos arquivos de trace (TraceRecorder, TraceGenerator, TraceReplay):
+ *
+ *   cabeçalho: int MAGIC | byte VERSION | long início (ms desde a época)
+ *   evento:    varlong início (ns, diferença zigzag para o evento anterior)
+ *              | varint thread | varlong latência (ns) | operação
+ *   operação:  texto tipo | varint n | n pares (texto nome, texto valor)
+ *              | varint tamanho do content + 1 | varint tamanho de data + 1
+ *              | só em BATCH: varint n | n operações
+ *
+ * Os eventos vão na ordem em que as chamadas terminam; os de uma mesma thread, na ordem
+ * em que ela as fez. O conteúdo não é gravado, só o tamanho (o replay sintetiza bytes
+ * desse tamanho). Textos são um varint: 0 = null, 1 = literal que entra no dicionário,
+ * 2 = literal fora dele (dicionário cheio), k + 3 = k-ésimo texto do dicionário; o
+ * literal é varint tamanho e UTF-8. Caminhos repetidos custam 1 a 3 bytes.
+ */
+final class Trace {
+    static final int MAGIC = 0x46535452; // "FSTR"
+    static final byte VERSION = 1;
+    // textos distintos lembrados pelo dicionário; depois disso vão sempre por extenso
+    static final int MAX_DICTIONARY = 1 << 20;
+
+    private Trace() {}
+
+    // Uma chamada gravada (ou uma das operações de um BATCH)
+    static final class Event {
+        long start;     // ns desde o início do trace
+        int thread;
+        long nanos;
+        String op;
+        final Map<String, String> params = new LinkedHashMap<>();
+        int contentLength = -1;  // caracteres do content de WRITE, ou -1
+        int dataLength = -1;     // bytes de data (WRITE_AT), ou -1
+        List<Event> batch;       // operações de um BATCH
+
+        Event(String op) {
+            this.op = op;
+        }
+
+        // Parâmetros como os recebidos por Metrics.start; o content e data viram tamanhos
+        static Event of(String op, String[] kv, byte[] data) {
+            Event e = new Event(op);
+            for (int i = 0; i + 1 < kv.length; i += 2) {
+                if (kv[i].equals("content") && kv[i + 1] != null) e.contentLength = kv[i + 1].length();
+                else e.params.put(kv[i], kv[i + 1]);
+            }
+            if (op.equals("BATCH") && data != null) {
+                e.batch = new ArrayList<>();
+                for (Op o : Journal.decodeBatch(data)) {
+                    List<String> p = new ArrayList<>();
+                    for (Map.Entry<String, String> en : o.params.entrySet()) {
+                        p.add(en.getKey());
+                        p.add(en.getValue());
+                    }
+                    e.batch.add(of(o.type, p.toArray(new String[0]), o.data));
+                }
+            } else if (data != null) {
+                e.dataLength = data.length;
+            }
+            return e;
+        }
+
+        // A operação do journal correspondente (fora BATCH), com conteúdo sintético do
+        // tamanho gravado
+        Op toOp() {
+            Map<String, String> p = new HashMap<>(params);
+            if (contentLength >= 0) p.put("content", filler(contentLength));
+            return new Op(op, p, dataLength < 0 ? null : filler(dataLength).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Texto ASCII de n caracteres (palavras curtas separadas por espaço, como um texto)
+    static String filler(int n) {
+        char[] c = new char[n];
+        for (int i = 0; i < n; i++) c[i] = i % 8 == 7 ? ' ' : (char) ('a' + (i * 7 + i / 8) % 26);
+        return new String(c);
+    }
+
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private long previous;
+
+        Writer(Path file, long epochMillis) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(epochMillis);
+        }
+
+        void write(Event e) throws IOException {
+            long delta = e.start - previous;
+            previous = e.start;
+            writeVarLong(out, (delta << 1) ^ (delta >> 63));
+            writeVarLong(out, e.thread);
+            writeVarLong(out, e.nanos);
+            writeOp(e);
+        }
+
+        private void writeOp(Event e) throws IOException {
+            string(e.op);
+            writeVarLong(out, e.params.size());
+            for (Map.Entry<String, String> p : e.params.entrySet()) {
+                string(p.getKey());
+                string(p.getValue());
+            }
+            writeVarLong(out, e.contentLength + 1L);
+            writeVarLong(out, e.dataLength + 1L);
+            if (e.op.equals("BATCH")) {
+                List<Event> b = e.batch == null ? List.of() : e.batch;
+                writeVarLong(out, b.size());
+                for (Event o : b) writeOp(o);
+            }
+        }
+
+        private void string(String s) throws IOException {
+            if (s == null) {
+                out.writeByte(0);
+                return;
+            }
+            Integer ref = dictionary.get(s);
+            if (ref != null) {
+                writeVarLong(out, ref + 3L);
+                return;
+            }
+            boolean add = dictionary.size() < MAX_DICTIONARY;
+            if (add) dictionary.put(s, dictionary.size());
+            out.writeByte(add ? 1 : 2);
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, b.length);
+            out.write(b);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private final long epochMillis;
+        private long previous;
+
+        Reader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("Não é um arquivo de trace: " + file);
+                byte v = in.readByte();
+                if (v != VERSION) throw new IOException("Versão de trace não suportada: " + v);
+                this.epochMillis = in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        long epochMillis() { return epochMillis; }
+
+        // Próximo evento, ou null no fim; um evento cortado no fim (processo que caiu
+        // gravando) também encerra a leitura
+        Event next() throws IOException {
+            try {
+                int first = in.read();
+                if (first < 0) return null;
+                long z = readVarLong(in, first);
+                previous += (z >>> 1) ^ -(z & 1);
+                long start = previous;
+                int thread = (int) readVarLong(in, in.readUnsignedByte());
+                long nanos = readVarLong(in, in.readUnsignedByte());
+                Event e = readOp();
+                e.start = start;
+                e.thread = thread;
+                e.nanos = nanos;
+                return e;
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        private Event readOp() throws IOException {
+            Event e = new Event(string());
+            if (e.op == null) throw new IOException("Trace corrompido: evento sem operação");
+            int n = (int) varLong();
+            for (int i = 0; i < n; i++) e.params.put(string(), string());
+            e.contentLength = (int) varLong() - 1;
+            e.dataLength = (int) varLong() - 1;
+            if (e.op.equals("BATCH")) {
+                int k = (int) varLong();
+                e.batch = new ArrayList<>(Math.min(k, 4096));
+                for (int i = 0; i < k; i++) e.batch.add(readOp());
+            }
+            return e;
+        }
+
+        private String string() throws IOException {
+            long code = varLong();
+            if (code == 0) return null;
+            if (code >= 3) {
+                if (code - 3 >= dictionary.size()) throw new IOException("Trace corrompido: texto " + (code - 3) + " fora do dicionário");
+                return dictionary.get((int) (code - 3));
+            }
+            int len = (int) varLong();
+            byte[] b = new byte[len];
+            in.readFully(b);
+            String s = new String(b, StandardCharsets.UTF_8);
+            if (code == 1) dictionary.add(s);
+            return s;
+        }
+
+        private long varLong() throws IOException {
+            return readVarLong(in, in.readUnsignedByte());
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // ---- varints (7 bits por byte, o mais alto indica que há mais) ----
+
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInput in, int first) throws IOException {
+        long v = first & 0x7F;
+        for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+            if (shift > 63) throw new IOException("Trace corrompido: varint longo demais");
+            first = in.readUnsignedByte();
+            v |= (long) (first & 0x7F) << shift;
+        }
+        return v;
+    }
+}
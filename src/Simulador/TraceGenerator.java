@@ -0,0 +1,252 @@
+package Simulador;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Carga sintética gravada como trace, para TraceReplay. Cada cliente (uma thread do
+ * trace) tem a própria árvore /cN: depth níveis de fanout diretórios, com filesPerDir
+ * arquivos em cada folha, criados no começo em lotes (BATCH). Depois vêm as operações, distribuídas ao
+ * acaso entre os clientes:
+ *
+ *   metadataPercent%: ls de um diretório, touch, rm e mv de arquivos
+ *   o resto: escritas (writePercent%; writeFile inteiro ou trecho com write) e leituras
+ *   (readFile inteiro ou read de 4 KB), sobre arquivos que existem
+ *
+ * Os tamanhos (arquivos e trechos) seguem a distribuição escolhida, com a média dada. Com
+ * rate > 0 as operações chegam como um processo de Poisson com essa vazão total, a partir
+ * de 1 s (a montagem das árvores fica no instante 0); com 0, todas no instante 0 (o
+ * replay roda tão rápido quanto puder). A mesma seed gera o mesmo trace.
+ */
+public class TraceGenerator {
+    public enum SizeDistribution { FIXED, UNIFORM, EXPONENTIAL, PARETO }
+
+    private static final int READ_AT_BYTES = 4096;
+    private static final int MAX_SIZE = 64 << 20;
+    // início da carga com rate > 0, depois da montagem
+    private static final double SETUP_NANOS = 1e9;
+    // forma da cauda da Pareto: alfa 1,5 tem média finita e variância infinita
+    private static final double PARETO_ALPHA = 1.5;
+
+    private long operations = 100_000;
+    private int writePercent = 30;
+    private int metadataPercent = 10;
+    private SizeDistribution sizes = SizeDistribution.EXPONENTIAL;
+    private int meanSize = 4096;
+    private int depth = 2;
+    private int fanout = 8;
+    private int filesPerDir = 16;
+    private int clients = 8;
+    private double rate;
+    private long seed = 1;
+
+    public TraceGenerator operations(long n) { this.operations = n; return this; }
+    public TraceGenerator writePercent(int pct) { this.writePercent = percent(pct); return this; }
+    public TraceGenerator metadataPercent(int pct) { this.metadataPercent = percent(pct); return this; }
+    public TraceGenerator clients(int n) { this.clients = positive(n); return this; }
+    public TraceGenerator rate(double opsPerSecond) { this.rate = opsPerSecond; return this; }
+    public TraceGenerator seed(long seed) { this.seed = seed; return this; }
+
+    public TraceGenerator fileSize(SizeDistribution d, int meanBytes) {
+        if (meanBytes < 0) throw new IllegalArgumentException("Tamanho inválido: " + meanBytes);
+        this.sizes = d;
+        this.meanSize = meanBytes;
+        return this;
+    }
+
+    public TraceGenerator tree(int depth, int fanout, int filesPerDir) {
+        if (depth < 0) throw new IllegalArgumentException("Profundidade inválida: " + depth);
+        this.depth = depth;
+        this.fanout = positive(fanout);
+        this.filesPerDir = positive(filesPerDir);
+        return this;
+    }
+
+    // Árvore e arquivos de um cliente, como o trace os deixa até aqui
+    private static final class Client {
+        final int thread;
+        final List<String> dirs = new ArrayList<>();
+        final List<String> leaves = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        int[] size = new int[64];
+        int created;
+
+        Client(int thread) {
+            this.thread = thread;
+        }
+
+        void add(String path, int bytes) {
+            if (files.size() == size.length) size = Arrays.copyOf(size, size.length * 2);
+            size[files.size()] = bytes;
+            files.add(path);
+        }
+
+        // troca com o último: O(1), a ordem não importa
+        void remove(int i) {
+            int last = files.size() - 1;
+            files.set(i, files.get(last));
+            size[i] = size[last];
+            files.remove(last);
+        }
+    }
+
+    // Operações da montagem de um cliente, agrupadas em eventos BATCH
+    private static final class Setup {
+        final Trace.Writer writer;
+        final Client client;
+        List<Trace.Event> ops = new ArrayList<>();
+        long bytes;
+        int batches;
+
+        Setup(Trace.Writer writer, Client client) {
+            this.writer = writer;
+            this.client = client;
+        }
+
+        void add(Trace.Event op, int size) throws IOException {
+            ops.add(op);
+            bytes += size;
+            if (ops.size() >= BulkTransfer.BATCH_FILES || bytes >= BulkTransfer.BATCH_BYTES) flush();
+        }
+
+        void flush() throws IOException {
+            if (ops.isEmpty()) return;
+            Trace.Event e = event(client, 0, "BATCH", "ops", Integer.toString(ops.size()));
+            e.batch = ops;
+            writer.write(e);
+            batches++;
+            ops = new ArrayList<>();
+            bytes = 0;
+        }
+    }
+
+    // Grava o trace em file; devolve o número de eventos
+    public long writeTo(Path file) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        long events = 0;
+        try (Trace.Writer w = new Trace.Writer(file, System.currentTimeMillis())) {
+            Client[] cs = new Client[clients];
+            for (int k = 0; k < clients; k++) {
+                Client c = cs[k] = new Client(k);
+                // a árvore vai em lotes, como num import (ver BulkTransfer)
+                Setup setup = new Setup(w, c);
+                List<String> level = List.of("/c" + k);
+                setup.add(event(c, 0, "MKDIR", "path", level.get(0)), 0);
+                c.dirs.addAll(level);
+                for (int d = 0; d < depth; d++) {
+                    List<String> next = new ArrayList<>();
+                    for (String parent : level) {
+                        for (int j = 0; j < fanout; j++) {
+                            String dir = parent + "/d" + j;
+                            setup.add(event(c, 0, "MKDIR", "path", dir), 0);
+                            next.add(dir);
+                        }
+                    }
+                    c.dirs.addAll(next);
+                    level = next;
+                }
+                c.leaves.addAll(level);
+                for (String leaf : level) {
+                    for (int f = 0; f < filesPerDir; f++) {
+                        int bytes = sample(random);
+                        setup.add(write(c, 0, leaf + "/f" + f, bytes), bytes);
+                        c.add(leaf + "/f" + f, bytes);
+                    }
+                }
+                setup.flush();
+                events += setup.batches;
+            }
+            double time = rate > 0 ? SETUP_NANOS : 0;
+            for (long i = 0; i < operations; i++) {
+                if (rate > 0) time += -Math.log(1 - random.nextDouble()) / rate * 1e9;
+                w.write(next(cs[random.nextInt(clients)], (long) time, random));
+                events++;
+            }
+        }
+        return events;
+    }
+
+    private Trace.Event next(Client c, long start, SplittableRandom random) {
+        if (random.nextInt(100) < metadataPercent || c.files.isEmpty()) {
+            int m = random.nextInt(10);
+            if (m < 4 || c.files.isEmpty() && m >= 6) {
+                return event(c, start, "LS", "path", c.dirs.get(random.nextInt(c.dirs.size())));
+            }
+            if (m < 6) {
+                String path = c.leaves.get(random.nextInt(c.leaves.size())) + "/n" + c.created++;
+                c.add(path, 0);
+                return event(c, start, "TOUCH", "path", path);
+            }
+            int i = random.nextInt(c.files.size());
+            String path = c.files.get(i);
+            if (m < 8) {
+                c.remove(i);
+                return event(c, start, "RM", "path", path);
+            }
+            String dst = c.leaves.get(random.nextInt(c.leaves.size())) + "/n" + c.created++;
+            c.files.set(i, dst);
+            return event(c, start, "MV", "src", path, "dst", dst);
+        }
+        int i = random.nextInt(c.files.size());
+        String path = c.files.get(i);
+        int size = c.size[i];
+        if (random.nextInt(100) < writePercent) {
+            int bytes = sample(random);
+            if (size == 0 || random.nextInt(10) < 7) {
+                c.size[i] = bytes;
+                return write(c, start, path, bytes);
+            }
+            long offset = random.nextInt(size + 1);
+            c.size[i] = (int) Math.min(MAX_SIZE, Math.max(size, offset + bytes));
+            Trace.Event e = event(c, start, "WRITE_AT", "path", path, "offset", Long.toString(offset));
+            e.dataLength = bytes;
+            return e;
+        }
+        if (size <= READ_AT_BYTES || random.nextInt(10) < 6) return event(c, start, "READ", "path", path);
+        return event(c, start, "READ_AT", "path", path, "offset", Integer.toString(random.nextInt(size - READ_AT_BYTES)),
+                "len", Integer.toString(READ_AT_BYTES));
+    }
+
+    private int sample(SplittableRandom random) {
+        double u = random.nextDouble();
+        double v;
+        switch (sizes) {
+            case FIXED: v = meanSize; break;
+            case UNIFORM: v = u * 2 * meanSize; break;
+            case EXPONENTIAL: v = -meanSize * Math.log(1 - u); break;
+            default:
+                // mínimo escolhido para que a média seja meanSize
+                double min = meanSize * (PARETO_ALPHA - 1) / PARETO_ALPHA;
+                v = min / Math.pow(1 - u, 1 / PARETO_ALPHA);
+        }
+        return (int) Math.min(MAX_SIZE, v);
+    }
+
+    private static Trace.Event write(Client c, long start, String path, int bytes) {
+        Trace.Event e = event(c, start, "WRITE", "path", path);
+        e.contentLength = bytes;
+        return e;
+    }
+
+    private static Trace.Event event(Client c, long start, String op, String... kv) {
+        Trace.Event e = new Trace.Event(op);
+        for (int i = 0; i + 1 < kv.length; i += 2) e.params.put(kv[i], kv[i + 1]);
+        e.start = start;
+        e.thread = c.thread;
+        return e;
+    }
+
+    private static int percent(int pct) {
+        if (pct < 0 || pct > 100) throw new IllegalArgumentException("Porcentagem inválida: " + pct);
+        return pct;
+    }
+
+    private static int positive(int n) {
+        if (n <= 0) throw new IllegalArgumentException("Valor inválido: " + n);
+        return n;
+    }
+}
@@ -0,0 +1,66 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Grava cada chamada do FileSystemSimulator (ligado por FsConfig.traceFile) no formato
+ * de Trace: início, thread, latência e parâmetros, sem o conteúdo. Leituras por
+ * openInputStream não entram (não são uma chamada com latência própria). Chamado por
+ * Metrics.Timer.stop(); o evento é montado fora da trava e só a gravação no buffer é
+ * serializada. As threads viram números pequenos, na ordem em que aparecem.
+ *
+ * Um erro de E/S desliga a gravação (avisando uma vez em System.err) em vez de falhar a
+ * operação gravada.
+ */
+class TraceRecorder implements Closeable {
+    private final Trace.Writer writer;
+    private final long origin = System.nanoTime();
+    private final Map<Long, Integer> threads = new HashMap<>();
+    private boolean closed;
+
+    TraceRecorder(String path) throws IOException {
+        this.writer = new Trace.Writer(Paths.get(path), System.currentTimeMillis());
+    }
+
+    // start é o System.nanoTime() do início da chamada
+    void record(String op, String[] kv, byte[] data, long start, long nanos) {
+        // checkpoints são da própria instância (política ou imagem a cada operação), não
+        // chamadas a reexecutar
+        if (op.equals("CHECKPOINT")) return;
+        Trace.Event e = Trace.Event.of(op, kv, data);
+        e.start = start - origin;
+        e.nanos = nanos;
+        long id = Thread.currentThread().getId();
+        synchronized (this) {
+            if (closed) return;
+            Integer t = threads.get(id);
+            if (t == null) threads.put(id, t = threads.size());
+            e.thread = t;
+            try {
+                writer.write(e);
+            } catch (IOException ex) {
+                System.err.println("Trace desativado: " + ex.getMessage());
+                closeQuietly();
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        writer.close();
+    }
+}
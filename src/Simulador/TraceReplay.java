@@ -0,0 +1,153 @@
+package Simulador;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reexecuta um trace (TraceRecorder ou TraceGenerator) num FileSystemSimulator, como
+ * carga: na velocidade original (speed 1), N vezes mais rápido (speed N) ou sem esperar
+ * (speed 0). O arquivo é lido aos poucos e cada evento vai para a worker da sua thread
+ * original (thread % threads), então as chamadas de uma mesma thread mantêm a ordem.
+ *
+ * Com velocidade, cada evento tem um horário (início gravado / speed) e a latência conta
+ * a partir dele: uma worker atrasada soma o atraso, em vez de esconder a fila. Sem
+ * velocidade, conta do começo da chamada. Import e export não são reexecutados (os
+ * diretórios do host não vêm no trace; os lotes gravados por um import estão nele como
+ * BATCH). Erros (caminho inexistente, por exemplo) são contados por operação.
+ */
+public class TraceReplay {
+    // eventos lidos à frente por worker
+    private static final int QUEUE = 4096;
+    private static final Trace.Event END = new Trace.Event("FIM");
+
+    private final FileSystemSimulator fs;
+    private double speed = 1;
+    private int threads = 8;
+
+    public TraceReplay(FileSystemSimulator fs) {
+        this.fs = fs;
+    }
+
+    // 1 = tempo original, 2 = duas vezes mais rápido, 0 = sem esperas
+    public TraceReplay speed(double factor) {
+        if (factor < 0 || Double.isNaN(factor)) throw new IllegalArgumentException("Velocidade inválida: " + factor);
+        this.speed = factor;
+        return this;
+    }
+
+    public TraceReplay threads(int n) {
+        if (n <= 0) throw new IllegalArgumentException("Número de threads inválido: " + n);
+        this.threads = n;
+        return this;
+    }
+
+    public TraceSummary run(Path trace) throws IOException {
+        TraceSummary summary = new TraceSummary();
+        List<BlockingQueue<Trace.Event>> queues = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        long origin = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<Trace.Event> q = new ArrayBlockingQueue<>(QUEUE);
+            queues.add(q);
+            Thread t = new Thread(() -> work(q, origin, summary), "replay-" + i);
+            workers.add(t);
+            t.start();
+        }
+        try (Trace.Reader r = new Trace.Reader(trace)) {
+            for (Trace.Event e; (e = r.next()) != null; ) queues.get(e.thread % threads).put(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Thread t : workers) t.interrupt();
+            throw new InterruptedIOException("Replay interrompido");
+        } finally {
+            for (int i = 0; i < threads; i++) finish(queues.get(i), workers.get(i));
+        }
+        summary.elapsed(System.nanoTime() - origin);
+        return summary;
+    }
+
+    private void work(BlockingQueue<Trace.Event> queue, long origin, TraceSummary summary) {
+        try {
+            for (Trace.Event e; (e = queue.take()) != END; ) {
+                long begin;
+                if (speed > 0) {
+                    begin = origin + (long) (e.start / speed);
+                    for (long wait; (wait = begin - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+                } else {
+                    begin = System.nanoTime();
+                }
+                try {
+                    if (execute(e)) summary.record(e.op, System.nanoTime() - begin);
+                    else summary.skip();
+                } catch (IOException | RuntimeException ex) {
+                    summary.error(e.op);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Executa a chamada gravada; false se ela não é reexecutada
+    private boolean execute(Trace.Event e) throws IOException {
+        Map<String, String> p = e.params;
+        switch (e.op) {
+            case "MKDIR": case "RMDIR": case "TOUCH": case "WRITE": case "WRITE_AT": case "TRUNCATE":
+            case "RM": case "MV": case "CP":
+                fs.apply(e.toOp());
+                return true;
+            case "BATCH":
+                List<Op> ops = new ArrayList<>();
+                if (e.batch != null) for (Trace.Event b : e.batch) ops.add(b.toOp());
+                fs.apply(ops);
+                return true;
+            case "SNAPSHOT": fs.createSnapshot(p.get("name")); return true;
+            case "SNAPSHOT_DELETE": fs.deleteSnapshot(p.get("name")); return true;
+            case "RESTORE": fs.restoreSnapshot(p.get("name")); return true;
+            case "READ": fs.readFile(p.get("path")); return true;
+            case "READ_AT":
+                fs.read(p.get("path"), Long.parseLong(p.get("offset")), Integer.parseInt(p.get("len")));
+                return true;
+            case "LS": fs.ls(p.get("path")); return true;
+            case "LS_PAGE":
+                fs.ls(p.get("path"), p.get("after"), Integer.parseInt(p.get("limit")), p.get("prefix"));
+                return true;
+            case "DU": fs.usage(p.get("path"), new TreeTask()); return true;
+            case "FIND": fs.find(p.get("path"), FindQuery.parse(p.get("criteria")), new TreeTask()); return true;
+            case "GREP": fs.grep(p.get("path"), p.get("words")); return true;
+            case "DIFF": fs.diff(p.get("from"), p.get("to")); return true;
+            default:
+                // IMPORT, EXPORT e operações que esta versão não conhece
+                return false;
+        }
+    }
+
+    // Avisa a worker do fim (se ela ainda roda) e espera por ela
+    private static void finish(BlockingQueue<Trace.Event> q, Thread worker) {
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                if (q.offer(END, 10, TimeUnit.MILLISECONDS)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        while (true) {
+            try {
+                worker.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,103 @@
+package Simulador;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latências por operação (percentis) e vazão de uma carga: as gravadas num trace (of)
+ * ou as medidas por TraceReplay. Pode ser alimentado por várias threads.
+ */
+public class TraceSummary {
+    private final Map<String, LatencyHistogram> ops = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LatencyHistogram all = new LatencyHistogram();
+    private final LongAdder skipped = new LongAdder();
+    private volatile long nanos;
+
+    // Resumo das chamadas gravadas: latências originais e vazão no intervalo do trace
+    public static TraceSummary of(Path trace) throws IOException {
+        TraceSummary s = new TraceSummary();
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        try (Trace.Reader r = new Trace.Reader(trace)) {
+            for (Trace.Event e; (e = r.next()) != null; ) {
+                s.record(e.op, e.nanos);
+                first = Math.min(first, e.start);
+                last = Math.max(last, e.start + e.nanos);
+            }
+        }
+        s.elapsed(first == Long.MAX_VALUE ? 0 : last - first);
+        return s;
+    }
+
+    void record(String op, long nanos) {
+        LatencyHistogram h = ops.get(op);
+        if (h == null) h = ops.computeIfAbsent(op, k -> new LatencyHistogram());
+        h.record(nanos);
+        all.record(nanos);
+    }
+
+    void error(String op) {
+        errors.computeIfAbsent(op, k -> new LongAdder()).increment();
+    }
+
+    void skip() {
+        skipped.increment();
+    }
+
+    void elapsed(long nanos) {
+        this.nanos = nanos;
+    }
+
+    // chamadas que terminaram (sem erro)
+    public long count() { return all.count(); }
+
+    public long errors() {
+        long n = 0;
+        for (LongAdder a : errors.values()) n += a.sum();
+        return n;
+    }
+
+    // eventos que o replay não executa (import e export)
+    public long skipped() { return skipped.sum(); }
+
+    public double seconds() { return nanos / 1e9; }
+
+    public double opsPerSecond() {
+        return nanos == 0 ? 0 : count() * 1e9 / nanos;
+    }
+
+    // Percentil p (0..1) da latência em µs; op null é o de todas as operações
+    public double percentileMicros(String op, double p) {
+        LatencyHistogram h = op == null ? all : ops.get(op);
+        return h == null ? 0 : h.percentile(p) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %9s %7s %10s %10s %10s %10s %10s%n",
+                "operação", "n", "erros", "média µs", "p50 µs", "p99 µs", "p99.9 µs", "máx µs"));
+        Map<String, LatencyHistogram> sorted = new TreeMap<>(ops);
+        // as que só falharam aparecem sem latências
+        for (String op : errors.keySet()) sorted.putIfAbsent(op, new LatencyHistogram());
+        for (Map.Entry<String, LatencyHistogram> e : sorted.entrySet()) {
+            LongAdder err = errors.get(e.getKey());
+            line(sb, e.getKey(), e.getValue(), err == null ? 0 : err.sum());
+        }
+        line(sb, "total", all, errors());
+        sb.append(String.format(Locale.ROOT, "%d operações em %.2f s: %.0f ops/s (%d erros, %d ignoradas)",
+                count(), seconds(), opsPerSecond(), errors(), skipped()));
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, LatencyHistogram h, long errors) {
+        sb.append(String.format("%-16s %9d %7d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, h.count(), errors,
+                h.mean() / 1000.0, h.percentile(0.50) / 1000.0, h.percentile(0.99) / 1000.0,
+                h.percentile(0.999) / 1000.0, h.max() / 1000.0));
+    }
+}
@@ -0,0 +1,120 @@
+package Simulador;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Linha de comando dos traces:
+ *
+ *   java -cp simulador.jar Simulador.TraceTool resumo ARQ
+ *   java -cp simulador.jar Simulador.TraceTool replay ARQ [--speed=N|max] [--threads=N] [--base=DIR]
+ *   java -cp simulador.jar Simulador.TraceTool gerar ARQ [--ops=N] [--writes=PCT] [--meta=PCT]
+ *        [--size=fixed|uniform|exp|pareto:BYTES] [--tree=PROF,LARG,ARQS] [--clients=N]
+ *        [--rate=OPS] [--seed=N] [--no-replay]
+ *
+ * resumo mostra as latências e a vazão gravadas. replay reexecuta o trace (TraceReplay)
+ * numa instância nova num diretório temporário, aberta com as opções do shell
+ * (--native-image, --checkpoint, ...) e com uma cópia dos arquivos de --base (fs.img e
+ * journal), se dado. gerar grava uma carga sintética (TraceGenerator) e, sem --no-replay,
+ * a reexecuta em seguida com as opções de replay, por padrão com uma thread por cliente.
+ */
+public class TraceTool {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        switch (args[0]) {
+            case "resumo":
+                System.out.println(TraceSummary.of(file));
+                break;
+            case "replay":
+                replay(file, args, 8);
+                break;
+            case "gerar":
+                TraceGenerator g = generator(args);
+                long n = g.writeTo(file);
+                System.out.println(n + " eventos em " + file + " (" + Files.size(file) + " bytes)");
+                if (!flag(args, "--no-replay")) replay(file, args, Integer.parseInt(option(args, "--clients=", "8")));
+                break;
+            default:
+                usage();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("uso: TraceTool resumo|replay|gerar ARQUIVO [opções] (ver a documentação da classe)");
+    }
+
+    private static void replay(Path file, String[] args, int defaultThreads) throws IOException {
+        String speed = option(args, "--speed=", "1");
+        int threads = Integer.parseInt(option(args, "--threads=", Integer.toString(defaultThreads)));
+        Path dir = Files.createTempDirectory("replay");
+        try {
+            String base = option(args, "--base=", null);
+            if (base != null) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(base))) {
+                    for (Path p : files) if (Files.isRegularFile(p)) Files.copy(p, dir.resolve(p.getFileName()));
+                }
+            }
+            FileSystemSimulator fs = new FileSystemSimulator(dir.resolve("fs.img").toString(),
+                    dir.resolve("fs.journal").toString(), MainShell.parseConfig(args));
+            try {
+                System.out.println("replay com " + threads + " threads, velocidade " + speed);
+                TraceReplay replay = new TraceReplay(fs)
+                        .speed(speed.equals("max") ? 0 : Double.parseDouble(speed))
+                        .threads(threads);
+                System.out.println(replay.run(file));
+            } finally {
+                fs.close();
+            }
+        } finally {
+            try (Stream<Path> s = Files.walk(dir)) {
+                s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static TraceGenerator generator(String[] args) {
+        TraceGenerator g = new TraceGenerator()
+                .operations(Long.parseLong(option(args, "--ops=", "100000")))
+                .writePercent(Integer.parseInt(option(args, "--writes=", "30")))
+                .metadataPercent(Integer.parseInt(option(args, "--meta=", "10")))
+                .clients(Integer.parseInt(option(args, "--clients=", "8")))
+                .rate(Double.parseDouble(option(args, "--rate=", "0")))
+                .seed(Long.parseLong(option(args, "--seed=", "1")));
+        String size = option(args, "--size=", null);
+        if (size != null) {
+            String[] p = size.split(":");
+            if (p.length != 2) throw new IllegalArgumentException("Use --size=DISTRIBUIÇÃO:BYTES");
+            String d = p[0].toLowerCase(Locale.ROOT);
+            TraceGenerator.SizeDistribution dist = d.equals("exp") ? TraceGenerator.SizeDistribution.EXPONENTIAL
+                    : TraceGenerator.SizeDistribution.valueOf(d.toUpperCase(Locale.ROOT));
+            g.fileSize(dist, Integer.parseInt(p[1]));
+        }
+        String tree = option(args, "--tree=", null);
+        if (tree != null) {
+            String[] p = tree.split(",");
+            if (p.length != 3) throw new IllegalArgumentException("Use --tree=PROFUNDIDADE,LARGURA,ARQUIVOS");
+            g.tree(Integer.parseInt(p[0]), Integer.parseInt(p[1]), Integer.parseInt(p[2]));
+        }
+        return g;
+    }
+
+    private static String option(String[] args, String prefix, String def) {
+        for (String a : args) if (a.startsWith(prefix)) return a.substring(prefix.length());
+        return def;
+    }
+
+    private static boolean flag(String[] args, String name) {
+        for (String a : args) if (a.equals(name)) return true;
+        return false;
+    }
+}
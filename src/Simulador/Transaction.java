@@ -0,0 +1,51 @@
+package Simulador;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operações acumuladas para serem aplicadas juntas por FileSystemSimulator.apply(List):
+ * nada é aplicado nem gravado antes de commit(). Leituras feitas no meio da transação
+ * não enxergam as operações ainda não confirmadas.
+ *
+ * close() sem commit() equivale a rollback().
+ */
+public class Transaction implements Closeable {
+    private final FileSystemSimulator fs;
+    private List<Op> ops = new ArrayList<>();
+
+    Transaction(FileSystemSimulator fs) {
+        this.fs = fs;
+    }
+
+    public Transaction add(Op op) {
+        open().add(op);
+        return this;
+    }
+
+    public int size() { return ops == null ? 0 : ops.size(); }
+
+    // Aplica todas as operações como uma unidade; se uma falhar, nenhuma fica aplicada
+    public void commit() throws IOException {
+        List<Op> pending = open();
+        ops = null;
+        fs.apply(pending);
+    }
+
+    public void rollback() {
+        open();
+        ops = null;
+    }
+
+    @Override
+    public void close() {
+        ops = null;
+    }
+
+    private List<Op> open() {
+        if (ops == null) throw new IllegalStateException("Transação já encerrada");
+        return ops;
+    }
+}
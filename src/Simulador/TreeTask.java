@@ -0,0 +1,47 @@
+package Simulador;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Acompanhamento de uma operação recursiva (du, find, rm -r, cp -r), que roda em várias
+ * threads: nós visitados até agora e pedido de cancelamento, ambos usáveis de outra
+ * thread. Com um ouvinte, ele é chamado (numa das threads de trabalho) a cada every nós.
+ *
+ * Cancelada, uma consulta (du, find) termina com CancellationException. Uma alteração
+ * só pode ser cancelada antes de entrar na árvore: o cp -r descarta a cópia parcial e a
+ * entrada do journal é abortada; o rm -r, depois de tirar a subárvore, vai até o fim.
+ */
+public class TreeTask {
+    private final AtomicLong visited = new AtomicLong();
+    private volatile boolean cancelled;
+    private final LongConsumer listener;
+    private final long every;
+
+    public TreeTask() {
+        this(null, 1);
+    }
+
+    public TreeTask(LongConsumer listener, long every) {
+        if (every <= 0) throw new IllegalArgumentException("Intervalo de progresso inválido: " + every);
+        this.listener = listener;
+        this.every = every;
+    }
+
+    public long visited() { return visited.get(); }
+
+    public void cancel() { cancelled = true; }
+
+    public boolean isCancelled() { return cancelled; }
+
+    // Conta n nós visitados e avisa o ouvinte ao passar de um múltiplo de every
+    void visit(long n) {
+        long v = visited.addAndGet(n);
+        if (listener != null && v / every != (v - n) / every) listener.accept(v);
+    }
+
+    void checkCancelled() {
+        if (cancelled) throw new CancellationException("Operação cancelada");
+    }
+}